@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Service for encrypting messages and decrypting ciphertexts asynchronously, so that calling threads are not blocked by the (usually
+ * expensive) key derivation.
+ * <p>
+ * Implementations limit the number of pending operations. Operations exceeding that limit are rejected, in which case the returned
+ * future is completed exceptionally with a {@link RejectedExecutionException}. Otherwise the returned future is completed with the
+ * result or with the exception the corresponding synchronous method of {@link CryptoService} would throw.
+ *
+ * @since 1.2.0 (Bundle version 1.3.0)
+ */
+@ProviderType
+public interface AsyncCryptoService extends CryptoService {
+
+    /**
+     * Encrypts the given message using the executor of this service.
+     *
+     * @param message The message to encrypt
+     * @return The future encrypted message, the ciphertext
+     */
+    public abstract @NotNull CompletableFuture<String> encryptAsync(@NotNull String message);
+
+    /**
+     * Decrypts the given ciphertext using the executor of this service.
+     *
+     * @param ciphertext The encrypted message, the ciphertext to decrypt
+     * @return The future decrypted message
+     */
+    public abstract @NotNull CompletableFuture<String> decryptAsync(@NotNull String ciphertext);
+
+    /**
+     * Encrypts the given message using the given executor.
+     *
+     * @param message The message to encrypt
+     * @param executor The executor to run the encryption with
+     * @return The future encrypted message, the ciphertext
+     */
+    public abstract @NotNull CompletableFuture<String> encryptAsync(@NotNull String message, @NotNull Executor executor);
+
+    /**
+     * Decrypts the given ciphertext using the given executor.
+     *
+     * @param ciphertext The encrypted message, the ciphertext to decrypt
+     * @param executor The executor to run the decryption with
+     * @return The future decrypted message
+     */
+    public abstract @NotNull CompletableFuture<String> decryptAsync(@NotNull String ciphertext, @NotNull Executor executor);
+
+}
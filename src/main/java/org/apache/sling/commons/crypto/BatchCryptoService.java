@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Service for encrypting multiple messages and decrypting multiple ciphertexts at once.
+ * <p>
+ * Implementations may amortize the costs of key derivation and cipher setup over all items of a batch. A single item which cannot
+ * be processed does not abort the batch, instead its error is reported in the corresponding {@link CryptoResult}.
+ *
+ * @since 1.2.0 (Bundle version 1.3.0)
+ */
+@ProviderType
+public interface BatchCryptoService extends CryptoService {
+
+    /**
+     * Encrypts the given messages.
+     *
+     * @param messages The messages to encrypt
+     * @return The results in the iteration order of the given messages, each one containing the ciphertext or the error
+     */
+    public abstract @NotNull List<CryptoResult> encryptAll(@NotNull Collection<String> messages);
+
+    /**
+     * Decrypts the given ciphertexts.
+     *
+     * @param ciphertexts The ciphertexts to decrypt
+     * @return The results in the iteration order of the given ciphertexts, each one containing the message or the error
+     */
+    public abstract @NotNull List<CryptoResult> decryptAll(@NotNull Collection<String> ciphertexts);
+
+    /**
+     * Encrypts the values of the given map.
+     *
+     * @param <K> The type of the keys
+     * @param messages The messages to encrypt
+     * @return The results with the same keys in the iteration order of the given map
+     */
+    default <K> @NotNull Map<K, CryptoResult> encryptAll(@NotNull Map<K, String> messages) {
+        return applyToValues(messages, this::encryptAll);
+    }
+
+    /**
+     * Decrypts the values of the given map.
+     *
+     * @param <K> The type of the keys
+     * @param ciphertexts The ciphertexts to decrypt
+     * @return The results with the same keys in the iteration order of the given map
+     */
+    default <K> @NotNull Map<K, CryptoResult> decryptAll(@NotNull Map<K, String> ciphertexts) {
+        return applyToValues(ciphertexts, this::decryptAll);
+    }
+
+    private static <K> @NotNull Map<K, CryptoResult> applyToValues(@NotNull Map<K, String> map,
+            @NotNull Function<Collection<String>, List<CryptoResult>> operation) {
+        final List<K> keys = new ArrayList<>(map.size());
+        final List<String> values = new ArrayList<>(map.size());
+        map.forEach((key, value) -> {
+            keys.add(key);
+            values.add(value);
+        });
+        final Map<K, CryptoResult> results = new LinkedHashMap<>();
+        final Iterator<CryptoResult> iterator = operation.apply(values).iterator();
+        for (final K key : keys) {
+            results.put(key, iterator.next());
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto;
+
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Service for encrypting binary messages and decrypting binary ciphertexts.
+ * <p>
+ * In contrast to the {@code String} methods of {@link CryptoService} the ciphertexts are neither encoded as text nor is the message
+ * required to be text.
+ *
+ * @since 1.2.0 (Bundle version 1.3.0)
+ */
+@ProviderType
+public interface BinaryCryptoService extends CryptoService {
+
+    /**
+     * Encrypts the given message.
+     *
+     * @param message The message to encrypt
+     * @return The encrypted message, the ciphertext
+     * @throws IllegalStateException if the message cannot be encrypted for some reason
+     */
+    public abstract byte @NotNull [] encrypt(byte @NotNull [] message);
+
+    /**
+     * Decrypts the given ciphertext.
+     *
+     * @param ciphertext The encrypted message, the ciphertext to decrypt
+     * @return The decrypted message
+     * @throws IllegalArgumentException if the message cannot be decrypted for some reason
+     * @throws IllegalStateException if the key used to decrypt the message is not available or cannot be used for some reason
+     */
+    public abstract byte @NotNull [] decrypt(byte @NotNull [] ciphertext);
+
+    /**
+     * Encrypts the remaining bytes of the given message buffer into the given ciphertext buffer.
+     * <p>
+     * Both heap and direct buffers are supported. On return the position of the message buffer is advanced to its limit and the
+     * position of the ciphertext buffer is advanced by the number of bytes written.
+     *
+     * @param message The buffer containing the message to encrypt
+     * @param ciphertext The buffer to write the ciphertext to, must have at least {@link #getMaxCiphertextLength(int)} bytes remaining
+     * @return The number of bytes written to the ciphertext buffer
+     * @throws IllegalArgumentException if the ciphertext buffer has not enough space remaining
+     * @throws IllegalStateException if the message cannot be encrypted for some reason
+     */
+    public abstract int encrypt(@NotNull ByteBuffer message, @NotNull ByteBuffer ciphertext);
+
+    /**
+     * Decrypts the remaining bytes of the given ciphertext buffer into the given message buffer.
+     * <p>
+     * Both heap and direct buffers are supported. On return the position of the ciphertext buffer is advanced to its limit and the
+     * position of the message buffer is advanced by the number of bytes written. A message buffer with as many bytes remaining as the
+     * ciphertext buffer is always sufficient.
+     *
+     * @param ciphertext The buffer containing the ciphertext to decrypt
+     * @param message The buffer to write the decrypted message to
+     * @return The number of bytes written to the message buffer
+     * @throws IllegalArgumentException if the message cannot be decrypted for some reason or the message buffer has not enough space remaining
+     * @throws IllegalStateException if the key used to decrypt the message is not available or cannot be used for some reason
+     */
+    public abstract int decrypt(@NotNull ByteBuffer ciphertext, @NotNull ByteBuffer message);
+
+    /**
+     * Returns the maximum length of the ciphertext for a message of the given length, which can be used to size buffers for
+     * {@link #encrypt(ByteBuffer, ByteBuffer)}.
+     *
+     * @param messageLength The length of the message in bytes
+     * @return The maximum length of the ciphertext in bytes
+     * @throws IllegalStateException if the length cannot be determined for some reason
+     */
+    public abstract int getMaxCiphertextLength(int messageLength);
+
+}
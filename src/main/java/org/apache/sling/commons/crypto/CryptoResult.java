@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto;
+
+import java.util.Objects;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The outcome of encrypting or decrypting a single item of a batch, either the resulting value or the error which prevented the
+ * item from being processed.
+ *
+ * @see BatchCryptoService
+ * @since 1.2.0 (Bundle version 1.3.0)
+ */
+public final class CryptoResult {
+
+    private final String value;
+
+    private final RuntimeException error;
+
+    private CryptoResult(@Nullable String value, @Nullable RuntimeException error) {
+        this.value = value;
+        this.error = error;
+    }
+
+    /**
+     * @param value The encrypted message or the decrypted ciphertext
+     * @return A successful result
+     */
+    public static @NotNull CryptoResult success(@NotNull String value) {
+        return new CryptoResult(Objects.requireNonNull(value, "value"), null);
+    }
+
+    /**
+     * @param error The error which prevented the item from being processed
+     * @return A failed result
+     */
+    public static @NotNull CryptoResult failure(@NotNull RuntimeException error) {
+        return new CryptoResult(null, Objects.requireNonNull(error, "error"));
+    }
+
+    /**
+     * @return {@code true} if the item has been processed successfully, {@code false} otherwise
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns the encrypted message or the decrypted ciphertext.
+     *
+     * @return The value
+     * @throws IllegalArgumentException if the ciphertext could not be decrypted, this is the exception returned by {@link #getError()}
+     * @throws IllegalStateException if the item could not be processed for some other reason, this is the exception returned by
+     *             {@link #getError()}
+     */
+    public @NotNull String getValue() {
+        if (error != null) {
+            throw error;
+        }
+        return value;
+    }
+
+    /**
+     * @return The error which prevented the item from being processed, {@code null} for successful results
+     */
+    public @Nullable RuntimeException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "CryptoResult [success]" : "CryptoResult [error=" + error + "]";
+    }
+
+}
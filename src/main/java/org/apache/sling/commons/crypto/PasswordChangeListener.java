@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Listener for changes of the password provided by a {@link VersionedPasswordProvider}.
+ *
+ * @since 1.2.0 (Bundle version 1.3.0)
+ */
+@ConsumerType
+@FunctionalInterface
+public interface PasswordChangeListener {
+
+    /**
+     * Called after the password has changed. Implementations should return quickly, e.g. by deriving new keys asynchronously.
+     *
+     * @param passwordProvider The provider of the changed password
+     * @param version The new version of the password
+     */
+    public abstract void passwordChanged(@NotNull VersionedPasswordProvider passwordProvider, long version);
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto;
+
+import java.security.SecureRandom;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Source of cryptographically strong random bytes which can be shared by many components (e.g. for salts and initialization vectors).
+ * <p>
+ * Implementations are thread safe and scale with the number of concurrent callers.
+ *
+ * @since 1.2.0 (Bundle version 1.3.0)
+ */
+@ProviderType
+public interface RandomSource {
+
+    /**
+     * Fills the given array with random bytes.
+     *
+     * @param bytes The array to fill
+     */
+    public abstract void nextBytes(byte @NotNull [] bytes);
+
+    /**
+     * Provides a view of this source as {@link SecureRandom} for APIs requiring one (e.g. {@link javax.crypto.Cipher#init(int,
+     * java.security.Key, SecureRandom)}). Random bytes obtained from the view are generated by this source.
+     *
+     * @return The view of this source
+     */
+    public abstract @NotNull SecureRandom asSecureRandom();
+
+}
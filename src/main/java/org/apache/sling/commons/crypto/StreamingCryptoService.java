@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Service for encrypting and decrypting streams of arbitrary length in constant memory.
+ * <p>
+ * The message is split into segments which are encrypted and authenticated individually, so decrypted data can be written before the
+ * whole ciphertext has been read. Only authenticated segments are written, but in case decryption fails in a later segment the
+ * already written message is incomplete and must be discarded by the caller.
+ * <p>
+ * Streams and channels are neither closed nor flushed. Channels are expected to be in blocking mode.
+ *
+ * @since 1.2.0 (Bundle version 1.3.0)
+ */
+@ProviderType
+public interface StreamingCryptoService extends CryptoService {
+
+    /**
+     * Encrypts the message read from the given input stream and writes the ciphertext to the given output stream.
+     *
+     * @param message The stream to read the message from
+     * @param ciphertext The stream to write the ciphertext to
+     * @return The number of bytes written
+     * @throws IOException if reading or writing fails
+     * @throws IllegalStateException if the message cannot be encrypted for some reason
+     */
+    public abstract long encrypt(@NotNull InputStream message, @NotNull OutputStream ciphertext) throws IOException;
+
+    /**
+     * Decrypts the ciphertext read from the given input stream and writes the message to the given output stream.
+     *
+     * @param ciphertext The stream to read the ciphertext from
+     * @param message The stream to write the decrypted message to
+     * @return The number of bytes written
+     * @throws IOException if reading or writing fails
+     * @throws IllegalArgumentException if the ciphertext cannot be decrypted for some reason, e.g. it has been modified or truncated
+     * @throws IllegalStateException if the key used to decrypt the message is not available or cannot be used for some reason
+     */
+    public abstract long decrypt(@NotNull InputStream ciphertext, @NotNull OutputStream message) throws IOException;
+
+    /**
+     * Encrypts the message read from the given channel and writes the ciphertext to the given channel.
+     *
+     * @param message The channel to read the message from
+     * @param ciphertext The channel to write the ciphertext to
+     * @return The number of bytes written
+     * @throws IOException if reading or writing fails
+     * @throws IllegalStateException if the message cannot be encrypted for some reason
+     */
+    public abstract long encrypt(@NotNull ReadableByteChannel message, @NotNull WritableByteChannel ciphertext) throws IOException;
+
+    /**
+     * Decrypts the ciphertext read from the given channel and writes the message to the given channel.
+     *
+     * @param ciphertext The channel to read the ciphertext from
+     * @param message The channel to write the decrypted message to
+     * @return The number of bytes written
+     * @throws IOException if reading or writing fails
+     * @throws IllegalArgumentException if the ciphertext cannot be decrypted for some reason, e.g. it has been modified or truncated
+     * @throws IllegalStateException if the key used to decrypt the message is not available or cannot be used for some reason
+     */
+    public abstract long decrypt(@NotNull ReadableByteChannel ciphertext, @NotNull WritableByteChannel message) throws IOException;
+
+}
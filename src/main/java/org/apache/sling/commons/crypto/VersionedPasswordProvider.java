@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Provider of passwords which tracks changes of the password with a version, so consumers can keep values derived from the password
+ * (e.g. keys) until the password changes.
+ * <p>
+ * Consumers must read the version <em>before</em> the password. A change in between then leads to a value derived from the new
+ * password kept for the old version, which is just derived again, instead of a value derived from the old password kept for the new
+ * version.
+ *
+ * @since 1.2.0 (Bundle version 1.3.0)
+ */
+@ProviderType
+public interface VersionedPasswordProvider extends PasswordProvider {
+
+    /**
+     * Provides the version of the password.
+     *
+     * @return The version of the password, increases with each change of the password
+     */
+    public abstract long getPasswordVersion();
+
+    /**
+     * Adds a listener which is notified after the password has changed. Adding the same listener more than once has no effect.
+     *
+     * @param listener The listener to add
+     */
+    public abstract void addPasswordChangeListener(@NotNull PasswordChangeListener listener);
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener The listener to remove
+     */
+    public abstract void removePasswordChangeListener(@NotNull PasswordChangeListener listener);
+
+}
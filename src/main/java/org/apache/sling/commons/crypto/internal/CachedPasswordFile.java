@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Password read from a file and kept in memory, reloaded when the file changes.
+ * <p>
+ * Changes are detected by a background thread which watches the parent directory of the file with a {@link WatchService} and
+ * additionally checks the file every poll interval, in case the file system does not support watching or misses events. A change is
+ * detected by comparing the real path (after resolving all symbolic links), the last modified time, the size and the file key of the
+ * file, which also covers atomic swaps of symbolic links as used for secrets mounted by Kubernetes.
+ * <p>
+ * The password is kept masked with a random one-time pad and the old copy is wiped on reload.
+ */
+final class CachedPasswordFile {
+
+    /**
+     * Reads the password from the file.
+     */
+    @FunctionalInterface
+    interface PasswordReader {
+        char @NotNull [] read(@NotNull Path path) throws IOException;
+    }
+
+    private final Path path;
+
+    private final PasswordReader reader;
+
+    private final long pollIntervalMillis;
+
+    private final Runnable reloadCallback;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private final StampedLock lock = new StampedLock();
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    private volatile @Nullable WatchService watchService;
+
+    // guarded by lock
+    private MaskedPassword password;
+
+    private volatile FileFingerprint fingerprint;
+
+    private final Logger logger = LoggerFactory.getLogger(CachedPasswordFile.class);
+
+    /**
+     * Reads the password and starts watching the file.
+     *
+     * @param path the path to the password file
+     * @param reader reads the password from the file
+     * @param pollIntervalSeconds interval in seconds to check the file for changes independently of file system events
+     * @param reloadCallback called after the password has been reloaded
+     * @throws IOException if the password file cannot be read
+     */
+    CachedPasswordFile(@NotNull final Path path, @NotNull final PasswordReader reader, final long pollIntervalSeconds,
+                       @NotNull final Runnable reloadCallback) throws IOException {
+        this.path = path;
+        this.reader = reader;
+        this.pollIntervalMillis = TimeUnit.SECONDS.toMillis(Math.max(1, pollIntervalSeconds));
+        this.reloadCallback = reloadCallback;
+        this.fingerprint = FileFingerprint.of(path);
+        this.password = mask(reader.read(path));
+        thread = new Thread(this::watch, "sling-commons-crypto-password-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return a copy of the password owned by the caller
+     */
+    char @NotNull [] getPassword() {
+        final long stamp = lock.tryOptimisticRead();
+        final char[] optimistic = password.unmask();
+        if (lock.validate(stamp)) {
+            return optimistic;
+        }
+        // reloaded concurrently, the optimistic copy may contain wiped characters
+        Arrays.fill(optimistic, '0');
+        final long readStamp = lock.readLock();
+        try {
+            return password.unmask();
+        } finally {
+            lock.unlockRead(readStamp);
+        }
+    }
+
+    /**
+     * Reloads the password if the file changed.
+     *
+     * @return {@code true} if the password has been reloaded
+     */
+    boolean reloadIfChanged() {
+        final FileFingerprint current;
+        final char[] reloaded;
+        try {
+            current = FileFingerprint.of(path);
+            if (current.equals(fingerprint)) {
+                return false;
+            }
+            reloaded = reader.read(path);
+        } catch (IOException e) {
+            // e.g. in the middle of a symbolic link swap, keep the current password and check again later
+            logger.warn("checking password file {} failed: {}", path, e.getMessage());
+            return false;
+        }
+        final MaskedPassword masked = mask(reloaded);
+        final MaskedPassword old;
+        final long stamp = lock.writeLock();
+        try {
+            old = password;
+            password = masked;
+            fingerprint = current;
+            old.wipe();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        logger.info("reloaded password from changed file {}", path);
+        reloadCallback.run();
+        return true;
+    }
+
+    private MaskedPassword mask(final char @NotNull [] plain) {
+        final char[] pad = new char[plain.length];
+        final byte[] random = new byte[plain.length * Character.BYTES];
+        secureRandom.nextBytes(random);
+        for (int i = 0; i < pad.length; i++) {
+            pad[i] = (char) (((random[2 * i] & 0xff) << 8) | (random[2 * i + 1] & 0xff));
+            plain[i] ^= pad[i];
+        }
+        Arrays.fill(random, (byte) 0);
+        // plain now holds the masked password
+        return new MaskedPassword(plain, pad);
+    }
+
+    private void watch() {
+        final Path directory = Objects.requireNonNullElse(path.toAbsolutePath().getParent(), path);
+        try {
+            final WatchService watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            this.watchService = watchService;
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.info("watching directory {} not supported, polling password file every {} ms", directory, pollIntervalMillis);
+        }
+        while (running) {
+            try {
+                awaitChange();
+                reloadIfChanged();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits for any event in the watched directory (e.g. the swap of a parent symbolic link) or the poll interval.
+     */
+    private void awaitChange() throws InterruptedException {
+        final WatchService watchService = this.watchService;
+        if (watchService == null) {
+            Thread.sleep(pollIntervalMillis);
+            return;
+        }
+        final WatchKey key = watchService.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+        if (key != null) {
+            // all events trigger a check of the fingerprint, their details are irrelevant
+            key.pollEvents();
+            key.reset();
+        }
+    }
+
+    /**
+     * Stops watching and wipes the password.
+     */
+    void close() {
+        running = false;
+        thread.interrupt();
+        final WatchService watchService = this.watchService;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.debug("closing watch service failed", e);
+            }
+        }
+        final long stamp = lock.writeLock();
+        try {
+            password.wipe();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachedPasswordFile [path=" + path + ", watching=" + (watchService != null) + ", pollIntervalMillis=" + pollIntervalMillis + "]";
+    }
+
+    /**
+     * Password XOR one-time pad.
+     */
+    private static final class MaskedPassword {
+
+        private final char[] masked;
+
+        private final char[] pad;
+
+        private MaskedPassword(final char[] masked, final char[] pad) {
+            this.masked = masked;
+            this.pad = pad;
+        }
+
+        private char[] unmask() {
+            final char[] plain = new char[masked.length];
+            for (int i = 0; i < plain.length; i++) {
+                plain[i] = (char) (masked[i] ^ pad[i]);
+            }
+            return plain;
+        }
+
+        private void wipe() {
+            Arrays.fill(masked, '0');
+            Arrays.fill(pad, '0');
+        }
+
+    }
+
+}
@@ -20,7 +20,9 @@ package org.apache.sling.commons.crypto.internal;
 
 import java.util.Objects;
 
+import org.apache.sling.commons.crypto.PasswordChangeListener;
 import org.apache.sling.commons.crypto.PasswordProvider;
+import org.apache.sling.commons.crypto.VersionedPasswordProvider;
 import org.jetbrains.annotations.NotNull;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Activate;
@@ -32,11 +34,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Provider of passwords from environment variables.
+ * Provider of passwords from environment variables.<br>As environment variables do not change at runtime, the password version only
+ * changes with the configuration.
  *
  * @see System#getenv(String)
  */
 @Component(
+    service = {PasswordProvider.class, VersionedPasswordProvider.class},
     property = {
         Constants.SERVICE_DESCRIPTION + "=Apache Sling Commons Crypto – Environment Variable Password Provider",
         Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
@@ -47,10 +51,12 @@ import org.slf4j.LoggerFactory;
     factory = true
 )
 @SuppressWarnings({"java:S1117", "java:S6212"})
-public final class EnvironmentVariablePasswordProvider implements PasswordProvider {
+public final class EnvironmentVariablePasswordProvider implements VersionedPasswordProvider {
 
     private EnvironmentVariablePasswordProviderConfiguration configuration;
 
+    private final PasswordChangeNotifier notifier = new PasswordChangeNotifier(this);
+
     private final Logger logger = LoggerFactory.getLogger(EnvironmentVariablePasswordProvider.class);
 
     public EnvironmentVariablePasswordProvider() { //
@@ -68,6 +74,7 @@ public final class EnvironmentVariablePasswordProvider implements PasswordProvid
     private void modified(final EnvironmentVariablePasswordProviderConfiguration configuration) {
         logger.debug("modifying");
         this.configuration = configuration;
+        notifier.changed();
     }
 
     @Deactivate
@@ -90,4 +97,19 @@ public final class EnvironmentVariablePasswordProvider implements PasswordProvid
         }
     }
 
+    @Override
+    public long getPasswordVersion() {
+        return notifier.getVersion();
+    }
+
+    @Override
+    public void addPasswordChangeListener(@NotNull final PasswordChangeListener listener) {
+        notifier.addListener(listener);
+    }
+
+    @Override
+    public void removePasswordChangeListener(@NotNull final PasswordChangeListener listener) {
+        notifier.removeListener(listener);
+    }
+
 }
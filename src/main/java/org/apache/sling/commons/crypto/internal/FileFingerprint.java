@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Identifies a version of a file behind all symbolic links by its real path, last modified time, size and file key.
+ */
+final class FileFingerprint {
+
+    private final Path realPath;
+
+    private final BasicFileAttributes attributes;
+
+    private FileFingerprint(final Path realPath, final BasicFileAttributes attributes) {
+        this.realPath = realPath;
+        this.attributes = attributes;
+    }
+
+    static @NotNull FileFingerprint of(@NotNull final Path path) throws IOException {
+        final Path realPath = path.toRealPath();
+        return new FileFingerprint(realPath, Files.readAttributes(realPath, BasicFileAttributes.class));
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FileFingerprint)) {
+            return false;
+        }
+        final FileFingerprint other = (FileFingerprint) obj;
+        return realPath.equals(other.realPath)
+            && attributes.lastModifiedTime().equals(other.attributes.lastModifiedTime())
+            && attributes.size() == other.attributes.size()
+            && Objects.equals(attributes.fileKey(), other.attributes.fileKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(realPath, attributes.lastModifiedTime(), attributes.size(), attributes.fileKey());
+    }
+
+}
@@ -18,15 +18,20 @@
  */
 package org.apache.sling.commons.crypto.internal;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.sling.commons.crypto.PasswordChangeListener;
 import org.apache.sling.commons.crypto.PasswordProvider;
+import org.apache.sling.commons.crypto.VersionedPasswordProvider;
 import org.jetbrains.annotations.NotNull;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Activate;
@@ -38,11 +43,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Provider of passwords from files.
+ * Provider of passwords from files.<br>The password is optionally cached in memory and reloaded when the file changes.<br>Without
+ * cache, changes of the file are detected when the password version is requested.
  *
  * @see File
  */
 @Component(
+    service = {PasswordProvider.class, VersionedPasswordProvider.class},
     property = {
         Constants.SERVICE_DESCRIPTION + "=Apache Sling Commons Crypto – File Password Provider",
         Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
@@ -52,13 +59,22 @@ import org.slf4j.LoggerFactory;
     ocd = FilePasswordProviderConfiguration.class,
     factory = true
 )
-@SuppressWarnings({"java:S1117", "java:S6212"})
-public final class FilePasswordProvider implements PasswordProvider {
+@SuppressWarnings({"java:S1117", "java:S3077", "java:S6212"})
+public final class FilePasswordProvider implements VersionedPasswordProvider {
 
     private static final char NEWLINE_CHARACTER = '\n';
 
     private FilePasswordProviderConfiguration configuration;
 
+    private volatile CachedPasswordFile cachedPasswordFile;
+
+    /**
+     * The fingerprint of the file the password was last read from, only tracked without cache.
+     */
+    private final AtomicReference<FileFingerprint> fingerprint = new AtomicReference<>();
+
+    private final PasswordChangeNotifier notifier = new PasswordChangeNotifier(this);
+
     private final Logger logger = LoggerFactory.getLogger(FilePasswordProvider.class);
 
     public FilePasswordProvider() { //
@@ -70,6 +86,7 @@ public final class FilePasswordProvider implements PasswordProvider {
         logger.debug("activating");
         this.configuration = configuration;
         checkConfiguration(configuration);
+        setupCache(configuration);
     }
 
     @Modified
@@ -78,31 +95,60 @@ public final class FilePasswordProvider implements PasswordProvider {
         logger.debug("modifying");
         this.configuration = configuration;
         checkConfiguration(configuration);
+        setupCache(configuration);
+        notifier.changed();
     }
 
     @Deactivate
     @SuppressWarnings("unused")
     private void deactivate() {
         logger.debug("deactivating");
+        closeCache();
+    }
+
+    private void setupCache(final FilePasswordProviderConfiguration configuration) throws IOException {
+        closeCache();
+        if (configuration.cache()) {
+            final boolean fixPosixNewline = configuration.fix_posixNewline();
+            cachedPasswordFile = new CachedPasswordFile(Path.of(configuration.path()), path -> readPassword(path.toString(), fixPosixNewline),
+                configuration.cache_pollIntervalSeconds(), notifier::changed);
+            logger.debug("caching password with {}", cachedPasswordFile);
+            fingerprint.set(null);
+        } else {
+            fingerprint.set(FileFingerprint.of(Path.of(configuration.path())));
+        }
+    }
+
+    private void closeCache() {
+        final CachedPasswordFile cachedPasswordFile = this.cachedPasswordFile;
+        if (Objects.nonNull(cachedPasswordFile)) {
+            this.cachedPasswordFile = null;
+            cachedPasswordFile.close();
+        }
     }
 
     private char[] readPassword(final String path, final boolean fixPosixNewline) throws IOException {
         final File file = new File(path);
         checkPasswordFile(file);
-        final char[] buffer = new char[(int) file.length()];
-        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
-            final int size = reader.read(buffer);
-            final int length;
-            if (fixPosixNewline && buffer[size - 1] == NEWLINE_CHARACTER) {
-                length = size - 1;
-            } else {
-                length = size;
-            }
-            final char[] password = new char[length];
-            System.arraycopy(buffer, 0, password, 0, length);
-            Arrays.fill(buffer, '0');
-            return password;
+        // decode without a (synchronized) Reader and wipe all intermediate buffers
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        final CharBuffer buffer;
+        try {
+            buffer = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes));
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+        final int size = buffer.remaining();
+        final int length;
+        if (fixPosixNewline && size > 0 && buffer.get(size - 1) == NEWLINE_CHARACTER) {
+            length = size - 1;
+        } else {
+            length = size;
         }
+        final char[] password = new char[length];
+        buffer.get(password);
+        Arrays.fill(buffer.array(), '0');
+        return password;
     }
 
     private void checkConfiguration(final FilePasswordProviderConfiguration configuration) throws IOException {
@@ -122,6 +168,10 @@ public final class FilePasswordProvider implements PasswordProvider {
     public char @NotNull [] getPassword() {
         final var configuration = this.configuration;
         Objects.requireNonNull(configuration, "Configuration must not be null");
+        final CachedPasswordFile cachedPasswordFile = this.cachedPasswordFile;
+        if (Objects.nonNull(cachedPasswordFile)) {
+            return cachedPasswordFile.getPassword();
+        }
         try {
             return readPassword(configuration.path(), configuration.fix_posixNewline());
         } catch (IOException e) {
@@ -129,4 +179,33 @@ public final class FilePasswordProvider implements PasswordProvider {
         }
     }
 
+    @Override
+    public long getPasswordVersion() {
+        final var configuration = this.configuration;
+        Objects.requireNonNull(configuration, "Configuration must not be null");
+        final FileFingerprint previous = fingerprint.get();
+        if (Objects.nonNull(previous)) {
+            // not cached, so check the file
+            try {
+                final FileFingerprint current = FileFingerprint.of(Path.of(configuration.path()));
+                if (!current.equals(previous) && fingerprint.compareAndSet(previous, current)) {
+                    notifier.changed();
+                }
+            } catch (IOException e) {
+                logger.warn("checking password file {} failed: {}", configuration.path(), e.getMessage());
+            }
+        }
+        return notifier.getVersion();
+    }
+
+    @Override
+    public void addPasswordChangeListener(@NotNull final PasswordChangeListener listener) {
+        notifier.addListener(listener);
+    }
+
+    @Override
+    public void removePasswordChangeListener(@NotNull final PasswordChangeListener listener) {
+        notifier.removeListener(listener);
+    }
+
 }
@@ -47,6 +47,18 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
     )
     boolean fix_posixNewline() default false;
 
+    @AttributeDefinition(
+        name = "Cache",
+        description = "keeps the password (masked) in memory instead of reading the file for each request, the password is reloaded when the file changes (also when a symbolic link in its path is swapped, like for Kubernetes secrets)"
+    )
+    boolean cache() default false;
+
+    @AttributeDefinition(
+        name = "Cache Poll Interval (seconds)",
+        description = "interval to check the password file for changes in addition to file system events, which are not supported by all file systems"
+    )
+    long cache_pollIntervalSeconds() default 10;
+
     String webconsole_configurationFactory_nameHint() default "{names} {path}";
 
 }
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.security.Provider;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Placeholder for a security provider which is only loaded and instantiated once one of its services is requested.
+ * <p>
+ * The placeholder has the name, version and info of the actual provider and answers service lookups for algorithms which are not
+ * listed in the {@link ProviderDescriptor} without loading the provider. Lookups for listed algorithms and {@link #getServices()}
+ * load the actual provider and return its services, so the engine classes created from them are bound to the actual provider.
+ * <p>
+ * Legacy property lookups ({@link #get(Object)}, {@link #getProperty(String)}, {@link #getOrDefault(Object, Object)} and
+ * {@link #containsKey(Object)}) of keys of listed algorithms (e.g. {@code Cipher.AES} or {@code Alg.Alias.Cipher.AES}) as well as the
+ * views of all properties ({@link #keySet()}, {@link #entrySet()}, {@link #values()}, {@link #keys()} and {@link #elements()}) also
+ * load the actual provider and answer from its properties. Everything else, e.g. modifications, applies to the placeholder only.
+ * <p>
+ * In case the actual provider cannot be loaded, the placeholder behaves like a provider without services and loading is retried after
+ * an interval, so a transient failure does not disable the provider for good while lookups do not pay for failing class loading over
+ * and over again.
+ */
+@SuppressWarnings({"java:S2160", "java:S1948"})
+final class LazyProvider extends Provider {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ALIAS_PREFIX = "Alg.Alias.";
+
+    static final long DEFAULT_RETRY_INTERVAL_MILLIS = 60_000;
+
+    private final transient ProviderDescriptor descriptor;
+
+    private final transient Callable<Provider> loader;
+
+    private final transient ReentrantLock lock = new ReentrantLock();
+
+    private transient volatile Provider delegate;
+
+    private final transient long retryIntervalNanos;
+
+    private transient volatile boolean failed;
+
+    private transient volatile long failedAt;
+
+    private final transient Logger logger = LoggerFactory.getLogger(LazyProvider.class);
+
+    /**
+     * @param descriptor the descriptor of the actual provider
+     * @param loader loads and instantiates the actual provider
+     */
+    LazyProvider(@NotNull final ProviderDescriptor descriptor, @NotNull final Callable<Provider> loader) {
+        this(descriptor, loader, DEFAULT_RETRY_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param descriptor the descriptor of the actual provider
+     * @param loader loads and instantiates the actual provider
+     * @param retryIntervalMillis the time to wait after a failure before loading the actual provider is tried again
+     */
+    LazyProvider(@NotNull final ProviderDescriptor descriptor, @NotNull final Callable<Provider> loader, final long retryIntervalMillis) {
+        super(descriptor.getName(), descriptor.getVersion(), descriptor.getInfo());
+        this.descriptor = descriptor;
+        this.loader = loader;
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+    }
+
+    /**
+     * Loads the actual provider unless already done.
+     *
+     * @return the actual provider or {@code null} in case it could not be loaded
+     */
+    @Nullable Provider materialize() {
+        Provider delegate = this.delegate;
+        if (Objects.nonNull(delegate) || isRetryPending()) {
+            return delegate;
+        }
+        lock.lock();
+        try {
+            delegate = this.delegate;
+            if (Objects.isNull(delegate) && !isRetryPending()) {
+                final long start = System.nanoTime();
+                delegate = loader.call();
+                this.delegate = delegate;
+                failed = false;
+                logger.info("Loaded security provider {} on first use in {} ms", delegate.getName(), (System.nanoTime() - start) / 1_000_000);
+            }
+        } catch (Exception e) {
+            failedAt = System.nanoTime();
+            failed = true;
+            logger.error("Could not load security provider {}, retrying in {} ms: {}", descriptor.getName(),
+                TimeUnit.NANOSECONDS.toMillis(retryIntervalNanos), e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+        return delegate;
+    }
+
+    private boolean isRetryPending() {
+        return failed && System.nanoTime() - failedAt < retryIntervalNanos;
+    }
+
+    boolean isMaterialized() {
+        return Objects.nonNull(delegate);
+    }
+
+    /**
+     * @param key a property key like {@code Cipher.AES}, {@code Cipher.AES SupportedModes} or {@code Alg.Alias.Cipher.AES}
+     * @return {@code true} in case the key belongs to a listed algorithm
+     */
+    private boolean declares(final Object key) {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        String service = (String) key;
+        if (service.startsWith(ALIAS_PREFIX)) {
+            service = service.substring(ALIAS_PREFIX.length());
+        }
+        final int attribute = service.indexOf(' ');
+        if (attribute > 0) {
+            service = service.substring(0, attribute);
+        }
+        final int separator = service.indexOf('.');
+        return separator > 0 && descriptor.declares(service.substring(0, separator), service.substring(separator + 1));
+    }
+
+    /**
+     * @param key the property key
+     * @return the actual provider in case it is already loaded or the key belongs to a listed algorithm, {@code null} otherwise
+     */
+    private @Nullable Provider materializeFor(final Object key) {
+        return Objects.nonNull(delegate) || declares(key) ? materialize() : null;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        final Provider provider = materializeFor(key);
+        return Objects.nonNull(provider) ? provider.get(key) : super.get(key);
+    }
+
+    @Override
+    public Object getOrDefault(final Object key, final Object defaultValue) {
+        final Provider provider = materializeFor(key);
+        return Objects.nonNull(provider) ? provider.getOrDefault(key, defaultValue) : super.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public String getProperty(final String key) {
+        final Provider provider = materializeFor(key);
+        return Objects.nonNull(provider) ? provider.getProperty(key) : super.getProperty(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        final Provider provider = materializeFor(key);
+        return Objects.nonNull(provider) ? provider.containsKey(key) : super.containsKey(key);
+    }
+
+    @Override
+    public Set<Object> keySet() {
+        final Provider provider = materialize();
+        return Objects.nonNull(provider) ? provider.keySet() : super.keySet();
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        final Provider provider = materialize();
+        return Objects.nonNull(provider) ? provider.entrySet() : super.entrySet();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        final Provider provider = materialize();
+        return Objects.nonNull(provider) ? provider.values() : super.values();
+    }
+
+    @Override
+    public Enumeration<Object> keys() {
+        final Provider provider = materialize();
+        return Objects.nonNull(provider) ? provider.keys() : super.keys();
+    }
+
+    @Override
+    public Enumeration<Object> elements() {
+        final Provider provider = materialize();
+        return Objects.nonNull(provider) ? provider.elements() : super.elements();
+    }
+
+    @Override
+    public Service getService(final String type, final String algorithm) {
+        if (Objects.isNull(delegate) && !descriptor.declares(type, algorithm)) {
+            return null;
+        }
+        final Provider provider = materialize();
+        return Objects.nonNull(provider) ? provider.getService(type, algorithm) : null;
+    }
+
+    @Override
+    public Set<Service> getServices() {
+        final Provider provider = materialize();
+        return Objects.nonNull(provider) ? provider.getServices() : Set.of();
+    }
+
+}
@@ -29,15 +29,34 @@ import java.security.Security;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.metatype.annotations.Designate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,36 +64,128 @@ import org.slf4j.LoggerFactory;
  * This DS component listens for bundle events and automatically installs or uninstalls security providers
  * based on the presence of a service registration file {@value #SECURITY_PROVIDER_CONFIGURATION_FILE} in the 
  * started/stopping bundle.
+ * <p>
+ * Reading the service registration files as well as loading and instantiating the providers happens on a dedicated executor, so
+ * neither the activation nor the framework's event thread is blocked by it. The bundles active at activation are scanned in parallel
+ * and each provider is installed as soon as it is ready. All tasks of one bundle run in the order of its events, a stopping bundle
+ * waits (up to a timeout) for the removal of its providers.
+ * <p>
+ * As a consequence providers appear in {@link java.security.Security} some time after the activation of this component or the start of
+ * their bundle. Consumers which look up a provider by name during their own activation may not find it yet and fall back to another
+ * provider, they should reference the provider service (e.g. with a target filter on {@value #PROVIDER_NAME_PROPERTY}) instead.
+ * <p>
+ * The class names found in the service registration files are kept in a {@link ProviderScanIndex}, persisted in the data area of
+ * this bundle, so only bundles which have been installed or updated since are scanned again after a restart. Optionally the index
+ * also keeps the services of each provider, then a {@link LazyProvider} is installed instead of the actual provider, which is only
+ * loaded once one of its services is requested, either from the JCA or as OSGi service.
+ * <p>
+ * The provider services carry the name of the provider ({@value #PROVIDER_NAME_PROPERTY}) and the algorithms it supports per service
+ * type (e.g. {@code cipher.algorithms} or {@code secretkeyfactory.algorithms}), so consumers can select a provider with a target
+ * filter like {@code (cipher.algorithms=AES)}.
+ * <p>
+ * The installed providers and their service registrations are tracked per bundle and removed by handle when the bundle is stopping,
+ * without loading or instantiating the provider classes again.
  */
 @Component(immediate = true, service= {}, name = "org.apache.sling.commons.crypto.internal.AutoRegisterSecurityProvider")
+@Designate(ocd = OsgiAwareSecurityProviderInstallerConfiguration.class)
 @ServiceDescription("Apache Sling Commons Crypto – Auto Register Security Provider")
 public final class OsgiAwareSecurityProviderInstaller implements SynchronousBundleListener {
     private static final String SECURITY_PROVIDER_CONFIGURATION_FILE = "META-INF/services/java.security.Provider";
+    private static final String PROVIDER_NAME_PROPERTY = "provider.name";
+    private static final String ALGORITHMS_PROPERTY_SUFFIX = ".algorithms";
+    private static final String SCAN_INDEX_FILE = "security-provider-index.properties";
     private static final Logger LOGGER = LoggerFactory.getLogger(OsgiAwareSecurityProviderInstaller.class);
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ExecutorService executor;
+
+    /**
+     * Set on deactivation, bundle events delivered afterwards are ignored.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The last task per bundle id, the tasks of a bundle are chained so that they run in the order of the bundle events.
+     */
+    private final ConcurrentMap<Long, CompletableFuture<Void>> tasks = new ConcurrentHashMap<>();
+
+    private final long removalTimeoutSeconds;
+
+    private final ProviderScanIndex scanIndex;
+
+    private final boolean lazyProviders;
+
+    /**
+     * The providers installed from each bundle by bundle id.
+     */
+    private final ConcurrentMap<Long, List<InstalledProvider>> installedProviders = new ConcurrentHashMap<>();
 
     @Activate
-    public OsgiAwareSecurityProviderInstaller(BundleContext bundleContext) {
+    public OsgiAwareSecurityProviderInstaller(BundleContext bundleContext, OsgiAwareSecurityProviderInstallerConfiguration configuration) {
+        this.executor = newExecutor(configuration.discoveryThreads());
+        this.removalTimeoutSeconds = configuration.removalTimeoutSeconds();
+        // the data file is null in case the framework has no file system support
+        this.scanIndex = new ProviderScanIndex(configuration.persistScanIndex() ? bundleContext.getDataFile(SCAN_INDEX_FILE) : null);
+        this.lazyProviders = configuration.lazyProviders();
         bundleContext.addBundleListener(this);
-        for (Bundle bundle : bundleContext.getBundles()) {
-            if (bundle.getState() == Bundle.ACTIVE) {
-                addOrRemoveProviders(true, bundle);
+        final Bundle[] bundles = bundleContext.getBundles();
+        final List<CompletableFuture<Void>> scans = Stream.of(bundles)
+            .filter(bundle -> bundle.getState() == Bundle.ACTIVE)
+            .map(bundle -> submit(true, bundle))
+            .collect(Collectors.toList());
+        CompletableFuture.allOf(scans.toArray(new CompletableFuture[0])).whenComplete((result, throwable) -> {
+            LOGGER.debug("Scanned {} bundles, {}", scans.size(), scanIndex);
+            // bundles installed meanwhile have been indexed already, only drop the ones uninstalled
+            try {
+                scanIndex.retain(Stream.of(bundleContext.getBundles()).map(Bundle::getBundleId).collect(Collectors.toSet()));
+            } catch (IllegalStateException e) {
+                LOGGER.debug("Not pruning the scan index as this bundle is stopping");
             }
-        }
+            scanIndex.store();
+        });
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        final int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        final AtomicInteger counter = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, "sling-commons-crypto-provider-discovery-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     @Deactivate
     public void deactivate(BundleContext bundleContext) {
         bundleContext.removeBundleListener(this);
-        for (Bundle bundle : bundleContext.getBundles()) {
-            if (bundle.getState() == Bundle.ACTIVE) {
-                addOrRemoveProviders(false, bundle);
+        // events may still be delivered concurrently to the removal of the listener
+        closed = true;
+        // let pending discoveries finish, so that all installed providers are removed below
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(removalTimeoutSeconds, TimeUnit.SECONDS)) {
+                LOGGER.warn("Discovery of security providers did not finish within {} seconds", removalTimeoutSeconds);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        for (Long bundleId : installedProviders.keySet()) {
+            removeProviders(bundleId);
+        }
+        scanIndex.store();
     }
 
     @Override
     public void bundleChanged(BundleEvent event) {
         Bundle bundle = event.getBundle();
+        if (closed) {
+            LOGGER.debug("Ignoring bundle event {} for bundle {} after deactivation", event.getType(), bundle.getSymbolicName());
+            return;
+        }
         final boolean isAdd;
         if (event.getType() == BundleEvent.STARTED) {
             isAdd = true;
@@ -84,26 +195,99 @@ public final class OsgiAwareSecurityProviderInstaller implements SynchronousBund
             LOGGER.debug("Ignoring bundle event {} for bundle {}", event.getType(), bundle.getSymbolicName());
             return;
         }
-        addOrRemoveProviders(isAdd, bundle);
+        final CompletableFuture<Void> task = submit(isAdd, bundle);
+        if (!isAdd) {
+            // the providers must be removed while the bundle's class loader is still usable
+            awaitRemoval(task, bundle);
+        }
+    }
+
+    /**
+     * Runs {@link #addOrRemoveProviders(boolean, Bundle)} on the executor after all previously submitted tasks of the same bundle.
+     *
+     * @param isAdd {@code true} to add the providers, {@code false} to remove them
+     * @param bundle the bundle
+     * @return the task, completed at once in case the executor has already been shut down
+     */
+    private CompletableFuture<Void> submit(boolean isAdd, Bundle bundle) {
+        final long bundleId = bundle.getBundleId();
+        final CompletableFuture<Void> task;
+        try {
+            task = tasks.compute(bundleId, (id, previous) ->
+                (previous != null ? previous : CompletableFuture.<Void>completedFuture(null)).handleAsync((result, throwable) -> {
+                    if (isAdd && bundle.getState() != Bundle.ACTIVE) {
+                        LOGGER.debug("Skipping discovery of security providers in bundle {} which is no longer active", bundle);
+                    } else {
+                        addOrRemoveProviders(isAdd, bundle);
+                    }
+                    return null;
+                }, executor));
+        } catch (RejectedExecutionException e) {
+            // deactivated meanwhile, all providers are removed by the deactivation
+            LOGGER.debug("Ignoring security providers in bundle {} after deactivation", bundle);
+            return CompletableFuture.completedFuture(null);
+        }
+        task.whenComplete((result, throwable) -> tasks.remove(bundleId, task));
+        return task;
+    }
+
+    private void awaitRemoval(CompletableFuture<Void> task, Bundle bundle) {
+        try {
+            task.get(removalTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.warn("Removal of security providers from bundle {} did not finish within {} seconds", bundle, removalTimeoutSeconds);
+        } catch (ExecutionException e) {
+            LOGGER.error("Error removing security providers from bundle {}: {}", bundle, e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     protected void addOrRemoveProviders(boolean isAdd, Bundle bundle) {
+        if (!isAdd) {
+            removeProviders(bundle.getBundleId());
+            return;
+        }
+        if (installedProviders.containsKey(bundle.getBundleId())) {
+            LOGGER.debug("Security providers from bundle {} are already installed", bundle);
+            return;
+        }
         try {
-            Collection<String> classNames = collectClassNamesFromProviderConfigurationFile(bundle);
+            Collection<String> classNames = scanIndex.get(bundle);
+            if (classNames == null) {
+                classNames = collectClassNamesFromProviderConfigurationFile(bundle);
+                scanIndex.put(bundle, classNames);
+            }
+            final List<InstalledProvider> providers = new ArrayList<>();
             for (String className : classNames) {
                 try {
-                    addOrRemoveProvider(isAdd, bundle, className);
+                    providers.add(addProvider(bundle, className));
                 } catch (ClassNotFoundException e) {
                     LOGGER.error("Class {} not found in bundle {}: {}", className, bundle.getSymbolicName(), e.getMessage(), e);
                 } catch (Exception e) {
-                    LOGGER.error("Error adding/removing security provider class {} from bundle {}: {}", className, bundle.getSymbolicName(), e.getMessage(), e);
+                    LOGGER.error("Error adding security provider class {} from bundle {}: {}", className, bundle.getSymbolicName(), e.getMessage(), e);
                 }
             }
+            if (!providers.isEmpty()) {
+                installedProviders.put(bundle.getBundleId(), providers);
+            }
         } catch (IOException e) {
             LOGGER.error("Error reading provider configuration file from bundle {}: {}", bundle.getSymbolicName(), e.getMessage(), e);
         }
     }
 
+    private void removeProviders(long bundleId) {
+        final List<InstalledProvider> providers = installedProviders.remove(bundleId);
+        if (providers == null) {
+            LOGGER.debug("No security providers installed from bundle {}", bundleId);
+            return;
+        }
+        for (InstalledProvider installed : providers) {
+            installed.remove();
+            LOGGER.info("Removed security provider {} (name {}) from bundle {}", installed.className, installed.provider.getName(), bundleId);
+        }
+    }
+
     protected Collection<String> collectClassNamesFromProviderConfigurationFile(Bundle bundle) throws IOException {
         var serviceRegistrationResource = bundle.getEntry(SECURITY_PROVIDER_CONFIGURATION_FILE);
         Collection<String> classNames = new ArrayList<>();
@@ -124,32 +308,122 @@ public final class OsgiAwareSecurityProviderInstaller implements SynchronousBund
         return classNames;
     }
 
-    protected void addOrRemoveProvider(boolean isAdd, Bundle bundle, String providerClassName)
+    protected InstalledProvider addProvider(Bundle bundle, String providerClassName)
             throws ClassNotFoundException, InstantiationException, IllegalAccessException, IllegalArgumentException,
             InvocationTargetException, NoSuchMethodException, SecurityException {
+        if (lazyProviders) {
+            final ProviderDescriptor descriptor = scanIndex.getDescriptor(bundle, providerClassName);
+            if (descriptor != null) {
+                return addLazyProvider(bundle, providerClassName, descriptor);
+            }
+        }
+        Provider provider = newProvider(bundle, providerClassName);
+        final ProviderDescriptor descriptor = ProviderDescriptor.of(provider);
+        if (lazyProviders) {
+            // install a placeholder next time
+            scanIndex.putDescriptor(bundle, providerClassName, descriptor);
+        }
+        int position = Security.addProvider(provider);
+        if (position == -1) {
+            LOGGER.warn("Failed to add security provider {} (name {}) from bundle {} to the security providers list. Provider with that name already registered.", providerClassName, provider.getName(), bundle);
+        }
+        // also add service registration for the provider so that other services can defer loading until the provider is available
+        ServiceRegistration<Provider> registration = bundle.getBundleContext().registerService(Provider.class, provider, serviceProperties(descriptor));
+        LOGGER.info("Added security provider {} (name {}) from bundle {} to last position {}", providerClassName, provider.getName(), bundle, position);
+        return new InstalledProvider(providerClassName, provider, position != -1, registration);
+    }
+
+    /**
+     * @param descriptor the descriptor of the provider
+     * @return the name of the provider and for each service type the supported algorithms as {@code <type>.algorithms} (type in lower case)
+     */
+    static Hashtable<String, Object> serviceProperties(ProviderDescriptor descriptor) {
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put(PROVIDER_NAME_PROPERTY, descriptor.getName());
+        descriptor.getAlgorithmsByType().forEach((type, algorithms) ->
+            props.put(type.toLowerCase(Locale.ENGLISH) + ALGORITHMS_PROPERTY_SUFFIX, algorithms.toArray(new String[0])));
+        return props;
+    }
+
+    private static Provider newProvider(Bundle bundle, String providerClassName)
+            throws ClassNotFoundException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
         Class<?> clazz = bundle.loadClass(providerClassName);
         if (!Provider.class.isAssignableFrom(clazz)) {
             // Handle the case where the class is not a Provider
             LOGGER.warn("Class {} in bundle {} is not a subclass of java.security.Provider", providerClassName, bundle);
         }
-        Provider provider = (Provider) clazz.getDeclaredConstructor().newInstance();
-        if (isAdd) {
-            int position = Security.addProvider(provider);
-            if (position == -1) {
-                LOGGER.warn("Failed to add security provider {} (name {}) from bundle {} to the security providers list. Provider with that name already registered.", providerClassName, provider.getName(), bundle);
-            }
-            // also add service registration for the provider so that other services can defer loading until the provider is available
-            Hashtable<String, String> props = new Hashtable<>();
-            props.put("provider.name", provider.getName());
-            bundle.getBundleContext().registerService(Provider.class, provider, props);
-            LOGGER.info("Added security provider {} (name {}) from bundle {} to last position {}", providerClassName, provider.getName(), bundle, position);
-        } else {
-            if (Security.getProvider(provider.getName()) != null) {
+        return (Provider) clazz.getDeclaredConstructor().newInstance();
+    }
+
+    private InstalledProvider addLazyProvider(Bundle bundle, String providerClassName, ProviderDescriptor descriptor) {
+        final LazyProvider provider = new LazyProvider(descriptor, () -> newProvider(bundle, providerClassName));
+        int position = Security.addProvider(provider);
+        if (position == -1) {
+            LOGGER.warn("Failed to add placeholder for security provider {} (name {}) from bundle {} to the security providers list. Provider with that name already registered.", providerClassName, provider.getName(), bundle);
+        }
+        // the actual provider is loaded once the service is requested
+        ServiceRegistration<Provider> registration = bundle.getBundleContext().registerService(Provider.class, new LazyProviderServiceFactory(provider),
+                serviceProperties(descriptor));
+        LOGGER.info("Added placeholder for security provider {} (name {}) from bundle {} to last position {}", providerClassName, provider.getName(), bundle, position);
+        return new InstalledProvider(providerClassName, provider, position != -1, registration);
+    }
+
+    /**
+     * A provider installed from a bundle along with its service registration.
+     */
+    static final class InstalledProvider {
+
+        private final String className;
+
+        private final Provider provider;
+
+        /**
+         * Whether the provider has been added to the security providers list, i.e. no provider with the same name was installed before.
+         */
+        private final boolean added;
+
+        private final ServiceRegistration<Provider> registration;
+
+        InstalledProvider(String className, Provider provider, boolean added, ServiceRegistration<Provider> registration) {
+            this.className = className;
+            this.provider = provider;
+            this.added = added;
+            this.registration = registration;
+        }
+
+        void remove() {
+            // never remove a provider with the same name installed by someone else
+            if (added && Security.getProvider(provider.getName()) == provider) {
                 Security.removeProvider(provider.getName());
-                LOGGER.info("Removed security provider {} (name {}) from bundle {}", providerClassName, provider.getName(), bundle);
-            } else {
-                LOGGER.warn("Security provider {} (name {}) not found for removal", providerClassName, provider.getName());
             }
+            try {
+                registration.unregister();
+            } catch (IllegalStateException e) {
+                LOGGER.debug("Service of security provider {} already unregistered", provider.getName());
+            }
+        }
+    }
+
+    /**
+     * Hands out the actual provider of a {@link LazyProvider}.
+     */
+    private static final class LazyProviderServiceFactory implements ServiceFactory<Provider> {
+
+        private final LazyProvider provider;
+
+        LazyProviderServiceFactory(LazyProvider provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public Provider getService(Bundle bundle, ServiceRegistration<Provider> registration) {
+            // null in case the provider could not be loaded, which is logged by the framework
+            return provider.materialize();
+        }
+
+        @Override
+        public void ungetService(Bundle bundle, ServiceRegistration<Provider> registration, Provider service) {
+            // the provider stays installed
         }
     }
 }
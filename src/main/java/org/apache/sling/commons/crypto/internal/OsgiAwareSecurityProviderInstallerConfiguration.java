@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+@ObjectClassDefinition(
+    name = "Apache Sling Commons Crypto “Auto Register Security Provider”",
+    description = "Installs the security providers listed in META-INF/services/java.security.Provider of started bundles and registers them as services. Providers are installed asynchronously, so they may not be available yet when a consumer looking up a provider by name (e.g. a configured Security Provider Name) is activated and the consumer may silently fall back to the default provider. Consumers should rather reference the provider service by its provider.name or algorithms."
+)
+@SuppressWarnings("java:S100")
+@interface OsgiAwareSecurityProviderInstallerConfiguration {
+
+    @AttributeDefinition(
+        name = "Discovery Threads",
+        description = "Number of threads which scan bundles and load and instantiate their security providers in the background. Set to 0 to use the number of available processors."
+    )
+    int discoveryThreads() default 0;
+
+    @AttributeDefinition(
+        name = "Removal Timeout (seconds)",
+        description = "Maximum time in seconds a stopping bundle waits for the pending discovery of its security providers and their removal."
+    )
+    long removalTimeoutSeconds() default 10;
+
+    @AttributeDefinition(
+        name = "Persist Scan Index",
+        description = "Persist the security provider class names found in bundles in the data area of this bundle, so that after a restart only bundles installed or updated meanwhile are scanned again."
+    )
+    boolean persistScanIndex() default true;
+
+    @AttributeDefinition(
+        name = "Lazy Providers",
+        description = "Install placeholders for security providers whose services are known from a previous start and only load the actual provider once one of its services (or a legacy property of one of its services) is requested. A provider which fails to load is tried again a minute later. Providers seen for the first time (or in updated bundles) are always loaded at once. Requires the scan index."
+    )
+    boolean lazyProviders() default false;
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.commons.crypto.PasswordChangeListener;
+import org.apache.sling.commons.crypto.VersionedPasswordProvider;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Version of a password and the listeners to notify when it changes.
+ */
+final class PasswordChangeNotifier {
+
+    private final VersionedPasswordProvider passwordProvider;
+
+    private final AtomicLong version = new AtomicLong(1);
+
+    private final Set<PasswordChangeListener> listeners = new CopyOnWriteArraySet<>();
+
+    private final Logger logger = LoggerFactory.getLogger(PasswordChangeNotifier.class);
+
+    PasswordChangeNotifier(@NotNull final VersionedPasswordProvider passwordProvider) {
+        this.passwordProvider = passwordProvider;
+    }
+
+    long getVersion() {
+        return version.get();
+    }
+
+    void addListener(@NotNull final PasswordChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(@NotNull final PasswordChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Increments the version and notifies all listeners.
+     */
+    void changed() {
+        final long version = this.version.incrementAndGet();
+        logger.debug("password of {} changed, version {}", passwordProvider, version);
+        for (final PasswordChangeListener listener : listeners) {
+            try {
+                listener.passwordChanged(passwordProvider, version);
+            } catch (RuntimeException e) {
+                logger.error("notifying password change listener {} failed", listener, e);
+            }
+        }
+    }
+
+}
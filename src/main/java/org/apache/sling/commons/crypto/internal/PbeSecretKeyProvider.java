@@ -18,19 +18,32 @@
  */
 package org.apache.sling.commons.crypto.internal;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 
+import org.apache.sling.commons.crypto.PasswordChangeListener;
 import org.apache.sling.commons.crypto.PasswordProvider;
 import org.apache.sling.commons.crypto.SaltProvider;
 import org.apache.sling.commons.crypto.SecretKeyProvider;
+import org.apache.sling.commons.crypto.VersionedPasswordProvider;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -42,7 +55,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Provider of secret keys to use with password-based encryption (PBE).
+ * Provider of secret keys to use with password-based encryption (PBE).<br>The key is optionally memoized, so it is only derived again
+ * when the configuration or the password changes. Changes of passwords from a {@link VersionedPasswordProvider} are detected by their
+ * version, changes of other passwords by their digest.
  *
  * @see PBEKeySpec
  */
@@ -65,47 +80,250 @@ public final class PbeSecretKeyProvider implements SecretKeyProvider {
     @Reference
     private volatile SaltProvider saltProvider;
 
-    private PbeSecretKeyProviderConfiguration configuration;
+    private volatile PbeSecretKeyProviderConfiguration configuration;
 
-    private SecretKeyFactory factory;
+    private volatile SecretKeyFactoryPool factories;
+
+    private volatile MemoizedKey memoizedKey;
+
+    private static final String PASSWORD_DIGEST_ALGORITHM = "SHA-256";
+
+    private final ReentrantLock derivationLock = new ReentrantLock();
+
+    /**
+     * Set on deactivation, keys derived afterwards are not memoized anymore.
+     */
+    private volatile boolean deactivated;
+
+    /**
+     * Derives memoized keys eagerly on a single dedicated thread, so the expensive derivation does not occupy the common pool.
+     */
+    private final ExecutorService derivationExecutor = newDerivationExecutor();
+
+    private final PasswordChangeListener passwordChangeListener = (provider, version) -> passwordChanged(version);
 
     private final Logger logger = LoggerFactory.getLogger(PbeSecretKeyProvider.class);
 
     public PbeSecretKeyProvider() { //
     }
 
+    private static ExecutorService newDerivationExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "sling-commons-crypto-pbe-key-derivation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     @Activate
     @SuppressWarnings("unused")
     private void activate(final PbeSecretKeyProviderConfiguration configuration) throws NoSuchAlgorithmException {
         logger.debug("activating");
-        this.configuration = configuration;
-        factory = SecretKeyFactory.getInstance(configuration.algorithm());
+        configure(configuration);
+        if (passwordProvider instanceof VersionedPasswordProvider) {
+            ((VersionedPasswordProvider) passwordProvider).addPasswordChangeListener(passwordChangeListener);
+        }
     }
 
     @Modified
     @SuppressWarnings("unused")
     private void modified(final PbeSecretKeyProviderConfiguration configuration) throws NoSuchAlgorithmException {
         logger.debug("modifying");
-        this.configuration = configuration;
-        factory = SecretKeyFactory.getInstance(configuration.algorithm());
+        configure(configuration);
     }
 
     @Deactivate
     @SuppressWarnings("unused")
     protected void deactivate() {
         logger.debug("deactivating");
+        if (passwordProvider instanceof VersionedPasswordProvider) {
+            ((VersionedPasswordProvider) passwordProvider).removePasswordChangeListener(passwordChangeListener);
+        }
+        derivationExecutor.shutdown();
+        deactivated = true;
+        replaceMemoizedKey(null);
+    }
+
+    private void configure(final PbeSecretKeyProviderConfiguration configuration) throws NoSuchAlgorithmException {
+        factories = new SecretKeyFactoryPool(configuration.algorithm(), Runtime.getRuntime().availableProcessors());
+        this.configuration = configuration;
+        replaceMemoizedKey(null);
+        if (configuration.memoize()) {
+            // derive eagerly, so the first caller does not have to wait
+            deriveMemoizedKeyInBackground();
+        }
+    }
+
+    private void passwordChanged(final long version) {
+        final var configuration = this.configuration;
+        if (Objects.nonNull(configuration) && configuration.memoize()) {
+            logger.debug("password changed to version {}, deriving key again", version);
+            deriveMemoizedKeyInBackground();
+        }
+    }
+
+    private void deriveMemoizedKeyInBackground() {
+        try {
+            derivationExecutor.execute(this::deriveMemoizedKey);
+        } catch (RejectedExecutionException e) {
+            // deactivated meanwhile, the key is derived on demand
+            logger.debug("not deriving key as provider has been deactivated");
+        }
+    }
+
+    private void deriveMemoizedKey() {
+        try {
+            getSecretKey();
+        } catch (RuntimeException e) {
+            logger.warn("deriving key failed: {}", e.getMessage());
+        }
     }
 
     @Override
     public @NotNull SecretKey getSecretKey() {
         final var configuration = this.configuration;
         Objects.requireNonNull(configuration, "Configuration must not be null");
+        if (!configuration.memoize()) {
+            return deriveKey(configuration, passwordProvider.getPassword());
+        }
+        // the version must be read before the password, otherwise a key derived from a new password might be memoized for the old version
+        final PasswordProvider passwordProvider = this.passwordProvider;
+        final long passwordVersion = getPasswordVersion(passwordProvider);
+        // passwords without version are identified by their digest
+        final char[] password = passwordProvider instanceof VersionedPasswordProvider ? null : passwordProvider.getPassword();
+        final byte[] passwordDigest = Objects.nonNull(password) ? digest(password) : null;
+        final SecretKey memoized = copyMemoizedKey(configuration, passwordVersion, passwordDigest);
+        if (Objects.nonNull(memoized)) {
+            return memoized;
+        }
+        derivationLock.lock();
+        try {
+            final SecretKey current = copyMemoizedKey(configuration, passwordVersion, passwordDigest);
+            if (Objects.nonNull(current)) {
+                // derived by another thread meanwhile
+                return current;
+            }
+            final SecretKey key = deriveKey(configuration, Objects.nonNull(password) ? password : passwordProvider.getPassword());
+            final byte[] encoded = key.getEncoded();
+            if (Objects.isNull(encoded)) {
+                // key material not accessible, nothing to memoize
+                return key;
+            }
+            final MemoizedKey derived = new MemoizedKey(configuration, passwordVersion, passwordDigest, encoded, key.getAlgorithm());
+            final SecretKey copy = derived.copy();
+            if (this.configuration == configuration && !deactivated) {
+                replaceMemoizedKey(derived);
+            } else {
+                // modified or deactivated meanwhile
+                derived.wipe();
+            }
+            return copy;
+        } finally {
+            derivationLock.unlock();
+        }
+    }
+
+    private @Nullable SecretKey copyMemoizedKey(final PbeSecretKeyProviderConfiguration configuration, final long passwordVersion,
+            final byte @Nullable [] passwordDigest) {
+        final MemoizedKey memoizedKey = this.memoizedKey;
+        return Objects.nonNull(memoizedKey) && memoizedKey.matches(configuration, passwordVersion, passwordDigest) ? memoizedKey.copy() : null;
+    }
+
+    /**
+     * Replaces the memoized key and wipes the previous one.
+     *
+     * @param memoizedKey the new memoized key or {@code null}
+     */
+    private void replaceMemoizedKey(@Nullable final MemoizedKey memoizedKey) {
+        final MemoizedKey previous;
+        derivationLock.lock();
+        try {
+            previous = this.memoizedKey;
+            this.memoizedKey = memoizedKey;
+        } finally {
+            derivationLock.unlock();
+        }
+        if (Objects.nonNull(previous)) {
+            previous.wipe();
+        }
+    }
+
+    private static long getPasswordVersion(final PasswordProvider passwordProvider) {
+        return passwordProvider instanceof VersionedPasswordProvider ? ((VersionedPasswordProvider) passwordProvider).getPasswordVersion() : 0;
+    }
+
+    private static byte @NotNull [] digest(final char @NotNull [] password) {
+        final ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        final byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        try {
+            return MessageDigest.getInstance(PASSWORD_DIGEST_ALGORITHM).digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+            if (encoded.hasArray()) {
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
+        }
+    }
+
+    private SecretKey deriveKey(final PbeSecretKeyProviderConfiguration configuration, final char[] password) {
+        final PBEKeySpec keySpec = new PBEKeySpec(password, saltProvider.getSalt(), configuration.iterationCount(), configuration.keyLength());
         try {
-            final KeySpec keySpec = new PBEKeySpec(passwordProvider.getPassword(), saltProvider.getSalt(), configuration.iterationCount(), configuration.keyLength());
-            return factory.generateSecret(keySpec);
-        } catch (InvalidKeySpecException e) {
+            return factories.generateSecret(keySpec);
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
             throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * The encoded key derived for a configuration and a password version or digest.
+     */
+    private static final class MemoizedKey {
+
+        private final PbeSecretKeyProviderConfiguration configuration;
+
+        private final long passwordVersion;
+
+        private final byte[] passwordDigest;
+
+        private final byte[] encoded;
+
+        private final String algorithm;
+
+        private boolean wiped;
+
+        MemoizedKey(final PbeSecretKeyProviderConfiguration configuration, final long passwordVersion, final byte @Nullable [] passwordDigest,
+                final byte[] encoded, final String algorithm) {
+            this.configuration = configuration;
+            this.passwordVersion = passwordVersion;
+            this.passwordDigest = passwordDigest;
+            this.encoded = encoded;
+            this.algorithm = algorithm;
+        }
+
+        boolean matches(final PbeSecretKeyProviderConfiguration configuration, final long passwordVersion, final byte @Nullable [] passwordDigest) {
+            return this.configuration == configuration && this.passwordVersion == passwordVersion
+                && MessageDigest.isEqual(this.passwordDigest, passwordDigest);
+        }
+
+        /**
+         * @return a copy of the key, which the caller may destroy, or {@code null} in case the key has been wiped meanwhile
+         */
+        synchronized @Nullable SecretKey copy() {
+            return wiped ? null : new SecretKeySpec(encoded, algorithm);
+        }
+
+        synchronized void wipe() {
+            wiped = true;
+            Arrays.fill(encoded, (byte) 0);
         }
+
     }
 
 }
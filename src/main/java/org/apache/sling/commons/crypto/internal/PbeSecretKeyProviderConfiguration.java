@@ -53,6 +53,12 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
     )
     int keyLength() default 256;
 
+    @AttributeDefinition(
+        name = "Memoize Key",
+        description = "derive the key only once from the password and a single salt and hand out copies of it, the key is derived again when the configuration or the password changes"
+    )
+    boolean memoize() default false;
+
     @AttributeDefinition(
         name = "Password Provider Target",
         description = "filter expression to target a Password Provider",
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.security.Provider;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The name, version, info and services (including aliases) of a security provider, which is all needed to register a
+ * {@link LazyProvider} for it without loading the provider class.
+ */
+final class ProviderDescriptor {
+
+    private static final String ALIAS_PREFIX = "Alg.Alias.";
+
+    private static final String SERVICE_SEPARATOR = ",";
+
+    private static final String NAME = "name";
+
+    private static final String VERSION = "version";
+
+    private static final String INFO = "info";
+
+    private static final String SERVICES = "services";
+
+    private final String name;
+
+    private final String version;
+
+    private final String info;
+
+    /**
+     * The services in the form {@code <type>.<algorithm>}.
+     */
+    private final Set<String> services;
+
+    /**
+     * The services in lower case, for case-insensitive lookups like the ones of {@link Provider#getService(String, String)}.
+     */
+    private final Set<String> normalizedServices;
+
+    ProviderDescriptor(@NotNull final String name, @NotNull final String version, @NotNull final String info,
+            @NotNull final Collection<String> services) {
+        this.name = name;
+        this.version = version;
+        this.info = info;
+        this.services = new TreeSet<>(services);
+        this.normalizedServices = services.stream().map(service -> service.toLowerCase(Locale.ENGLISH)).collect(Collectors.toSet());
+    }
+
+    /**
+     * @param provider the provider
+     * @return the descriptor of the services and aliases currently registered by the provider
+     */
+    static @NotNull ProviderDescriptor of(@NotNull final Provider provider) {
+        final Set<String> services = new TreeSet<>();
+        for (final Provider.Service service : provider.getServices()) {
+            services.add(service.getType() + "." + service.getAlgorithm());
+        }
+        for (final Object key : provider.keySet()) {
+            if (key instanceof String && ((String) key).startsWith(ALIAS_PREFIX)) {
+                services.add(((String) key).substring(ALIAS_PREFIX.length()));
+            }
+        }
+        return new ProviderDescriptor(provider.getName(), provider.getVersionStr(), provider.getInfo(), services);
+    }
+
+    /**
+     * @param properties the properties
+     * @param prefix the prefix of the keys
+     * @return the descriptor or {@code null} in case the properties do not contain a complete descriptor
+     */
+    static @Nullable ProviderDescriptor fromProperties(@NotNull final Properties properties, @NotNull final String prefix) {
+        final String name = properties.getProperty(prefix + NAME);
+        final String version = properties.getProperty(prefix + VERSION);
+        final String info = properties.getProperty(prefix + INFO);
+        final String services = properties.getProperty(prefix + SERVICES);
+        if (name == null || version == null || info == null || services == null) {
+            return null;
+        }
+        return new ProviderDescriptor(name, version, info, services.isEmpty() ? Set.of() : Set.of(services.split(SERVICE_SEPARATOR)));
+    }
+
+    void toProperties(@NotNull final Properties properties, @NotNull final String prefix) {
+        properties.setProperty(prefix + NAME, name);
+        properties.setProperty(prefix + VERSION, version);
+        properties.setProperty(prefix + INFO, info);
+        properties.setProperty(prefix + SERVICES, String.join(SERVICE_SEPARATOR, services));
+    }
+
+    /**
+     * @param type the service type, e.g. {@code Cipher}
+     * @param algorithm the algorithm or alias
+     * @return {@code true} in case the provider offers the service
+     */
+    boolean declares(@NotNull final String type, @NotNull final String algorithm) {
+        return normalizedServices.contains((type + "." + algorithm).toLowerCase(Locale.ENGLISH));
+    }
+
+    @NotNull String getName() {
+        return name;
+    }
+
+    @NotNull String getVersion() {
+        return version;
+    }
+
+    @NotNull String getInfo() {
+        return info;
+    }
+
+    @NotNull Set<String> getServices() {
+        return services;
+    }
+
+    /**
+     * @return the algorithms (including aliases) by service type, e.g. {@code Cipher}
+     */
+    @NotNull Map<String, List<String>> getAlgorithmsByType() {
+        final Map<String, List<String>> algorithmsByType = new TreeMap<>();
+        for (final String service : services) {
+            // types never contain a dot, algorithms (e.g. OIDs) may
+            final int separator = service.indexOf('.');
+            if (separator > 0) {
+                algorithmsByType.computeIfAbsent(service.substring(0, separator), type -> new ArrayList<>()).add(service.substring(separator + 1));
+            }
+        }
+        return algorithmsByType;
+    }
+
+    @Override
+    public String toString() {
+        return "ProviderDescriptor [name=" + name + ", version=" + version + ", services=" + services.size() + "]";
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the security provider class names listed in the service registration files of bundles, so that bundles which did not
+ * change since the last scan do not need to be scanned again.
+ * <p>
+ * Entries are keyed by bundle id and only valid for the last modification time of the bundle, which changes whenever the bundle is
+ * installed or updated. The index is persisted as properties file, usually in the data area of this bundle, each value is the last
+ * modification time followed by the comma separated class names. The {@link ProviderDescriptor}s of the providers are stored with keys
+ * of the form {@code <bundle id>.<class name>.<attribute>}.
+ */
+final class ProviderScanIndex {
+
+    private static final char SEPARATOR = ';';
+
+    private static final String CLASS_NAME_SEPARATOR = ",";
+
+    private final @Nullable File file;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final Logger logger = LoggerFactory.getLogger(ProviderScanIndex.class);
+
+    private static final class Entry {
+
+        private final long lastModified;
+
+        private final List<String> classNames;
+
+        private final Map<String, ProviderDescriptor> descriptors = new ConcurrentHashMap<>();
+
+        Entry(final long lastModified, @NotNull final List<String> classNames) {
+            this.lastModified = lastModified;
+            this.classNames = classNames;
+        }
+
+    }
+
+    /**
+     * @param file the file to load the index from and store it to, {@code null} to keep the index in memory only
+     */
+    ProviderScanIndex(@Nullable final File file) {
+        this.file = file;
+        if (file != null && file.isFile()) {
+            load(file);
+        }
+    }
+
+    private void load(@NotNull final File file) {
+        final Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            logger.warn("Could not load security provider index from {}, scanning all bundles", file, e);
+            return;
+        }
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.indexOf('.') >= 0) {
+                // descriptor attribute
+                continue;
+            }
+            final String value = properties.getProperty(key);
+            final int separator = value.indexOf(SEPARATOR);
+            try {
+                final long bundleId = Long.parseLong(key);
+                final long lastModified = Long.parseLong(value.substring(0, Math.max(separator, 0)));
+                final String classNames = value.substring(separator + 1);
+                final Entry entry = new Entry(lastModified, classNames.isEmpty() ? List.of() : List.of(classNames.split(CLASS_NAME_SEPARATOR)));
+                for (final String className : entry.classNames) {
+                    final ProviderDescriptor descriptor = ProviderDescriptor.fromProperties(properties, descriptorPrefix(bundleId, className));
+                    if (descriptor != null) {
+                        entry.descriptors.put(className, descriptor);
+                    }
+                }
+                entries.put(bundleId, entry);
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring invalid security provider index entry {}={}", key, value);
+            }
+        }
+        logger.debug("Loaded security provider index with {} entries from {}", entries.size(), file);
+    }
+
+    /**
+     * @param bundle the bundle
+     * @return the indexed class names or {@code null} in case the bundle has not been indexed or has changed since
+     */
+    @Nullable Collection<String> get(@NotNull final Bundle bundle) {
+        final Entry entry = entries.get(bundle.getBundleId());
+        if (entry == null || entry.lastModified != bundle.getLastModified()) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return entry.classNames;
+    }
+
+    /**
+     * @param bundle the scanned bundle
+     * @param classNames the class names found in its service registration file
+     */
+    void put(@NotNull final Bundle bundle, @NotNull final Collection<String> classNames) {
+        entries.put(bundle.getBundleId(), new Entry(bundle.getLastModified(), List.copyOf(classNames)));
+        dirty.set(true);
+    }
+
+    /**
+     * @param bundle the bundle
+     * @param className the class name of the provider
+     * @return the descriptor or {@code null} in case it is not known for the current version of the bundle
+     */
+    @Nullable ProviderDescriptor getDescriptor(@NotNull final Bundle bundle, @NotNull final String className) {
+        final Entry entry = entries.get(bundle.getBundleId());
+        return entry != null && entry.lastModified == bundle.getLastModified() ? entry.descriptors.get(className) : null;
+    }
+
+    /**
+     * Keeps the descriptor of a provider, in case the bundle has been indexed with its current version.
+     *
+     * @param bundle the bundle
+     * @param className the class name of the provider
+     * @param descriptor the descriptor
+     */
+    void putDescriptor(@NotNull final Bundle bundle, @NotNull final String className, @NotNull final ProviderDescriptor descriptor) {
+        final Entry entry = entries.get(bundle.getBundleId());
+        if (entry != null && entry.lastModified == bundle.getLastModified()) {
+            entry.descriptors.put(className, descriptor);
+            dirty.set(true);
+        }
+    }
+
+    private static String descriptorPrefix(final long bundleId, @NotNull final String className) {
+        return bundleId + "." + className + ".";
+    }
+
+    /**
+     * Removes the entries of all bundles which are not given, i.e. which have been uninstalled.
+     *
+     * @param bundleIds the ids of the installed bundles
+     */
+    void retain(@NotNull final Set<Long> bundleIds) {
+        if (entries.keySet().retainAll(bundleIds)) {
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Stores the index in case it has changed since it was loaded or stored the last time.
+     */
+    void store() {
+        if (file == null || !dirty.compareAndSet(true, false)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        entries.forEach((bundleId, entry) -> {
+            properties.setProperty(Long.toString(bundleId), entry.lastModified + String.valueOf(SEPARATOR)
+                + String.join(CLASS_NAME_SEPARATOR, entry.classNames));
+            entry.descriptors.forEach((className, descriptor) -> descriptor.toProperties(properties, descriptorPrefix(bundleId, className)));
+        });
+        try {
+            // replace the index at once, so that an interrupted write never leaves a truncated index behind
+            final Path path = file.toPath();
+            final Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), file.getName(), ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(temporary)) {
+                    properties.store(outputStream, "security provider class names by bundle id");
+                }
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            logger.debug("Stored security provider index with {} entries to {}", entries.size(), file);
+        } catch (IOException e) {
+            dirty.set(true);
+            logger.warn("Could not store security provider index to {}", file, e);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ProviderScanIndex [file=" + file + ", size=" + entries.size() + ", hits=" + hitCount.sum() + ", misses=" + missCount.sum() + "]";
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded buffer of salts which is filled by a background thread.
+ * <p>
+ * Salts are taken from a lock-free queue, callers never block. When the fill level drops to half of the capacity the background thread
+ * is woken up to refill the buffer. Callers finding the buffer empty are counted as stalls and generate the salt themselves.
+ */
+final class SaltPrefetcher {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int capacity;
+
+    private final Supplier<byte[]> generator;
+
+    private final Queue<byte[]> salts = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger fillLevel = new AtomicInteger();
+
+    private final LongAdder stallCount = new LongAdder();
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    private final Logger logger = LoggerFactory.getLogger(SaltPrefetcher.class);
+
+    /**
+     * @param capacity maximum number of prefetched salts
+     * @param generator generates a new salt, called from the background thread
+     * @param threadName the name of the background thread
+     */
+    SaltPrefetcher(final int capacity, @NotNull final Supplier<byte[]> generator, @NotNull final String threadName) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive but is " + capacity);
+        }
+        this.capacity = capacity;
+        this.generator = generator;
+        thread = new Thread(this::fill, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Takes a prefetched salt.
+     *
+     * @return a prefetched salt or {@code null} if none is available
+     */
+    byte @Nullable [] poll() {
+        final byte[] salt = salts.poll();
+        if (salt == null) {
+            stallCount.increment();
+            LockSupport.unpark(thread);
+            return null;
+        }
+        if (fillLevel.decrementAndGet() <= capacity / 2) {
+            LockSupport.unpark(thread);
+        }
+        return salt;
+    }
+
+    private void fill() {
+        while (running) {
+            if (fillLevel.get() < capacity) {
+                try {
+                    salts.offer(generator.get());
+                    fillLevel.incrementAndGet();
+                } catch (RuntimeException e) {
+                    logger.warn("generating salt failed, callers generate salts synchronously", e);
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            } else {
+                // woken up by poll() when half empty, the timeout only guards against missed wake-ups
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        // drop a salt offered concurrently to shutdown()
+        salts.clear();
+        fillLevel.set(0);
+    }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        salts.clear();
+        fillLevel.set(0);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getFillLevel() {
+        return fillLevel.get();
+    }
+
+    long getStallCount() {
+        return stallCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SaltPrefetcher [capacity=" + capacity + ", fillLevel=" + fillLevel.get() + ", stalls=" + stallCount.sum() + "]";
+    }
+
+}
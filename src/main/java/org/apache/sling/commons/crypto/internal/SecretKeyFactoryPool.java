@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.KeySpec;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Pool of {@link SecretKeyFactory} instances, so a factory (which is not documented as thread-safe) is only used by one thread at a
+ * time.
+ * <p>
+ * The pool never blocks: if no idle factory is available a new one is created, and factories released while the pool is full are
+ * dropped.
+ */
+final class SecretKeyFactoryPool {
+
+    private final String algorithm;
+
+    private final int maxIdle;
+
+    private final ConcurrentLinkedQueue<SecretKeyFactory> idle = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * @param algorithm the standard name of the secret-key algorithm
+     * @param maxIdle maximum number of idle factories kept
+     * @throws NoSuchAlgorithmException if the algorithm is not available
+     */
+    SecretKeyFactoryPool(@NotNull final String algorithm, final int maxIdle) throws NoSuchAlgorithmException {
+        this.algorithm = algorithm;
+        this.maxIdle = Math.max(0, maxIdle);
+        // fail early for unknown algorithms
+        release(create());
+    }
+
+    private SecretKeyFactory create() throws NoSuchAlgorithmException {
+        created.incrementAndGet();
+        return SecretKeyFactory.getInstance(algorithm);
+    }
+
+    /**
+     * Generates a secret key with an exclusively used factory.
+     *
+     * @param keySpec the key spec
+     * @return the secret key
+     * @throws NoSuchAlgorithmException if the algorithm is not available
+     * @throws InvalidKeySpecException if the key spec is not valid
+     */
+    @NotNull SecretKey generateSecret(@NotNull final KeySpec keySpec) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        SecretKeyFactory factory = idle.poll();
+        if (factory == null) {
+            factory = create();
+        } else {
+            idleCount.decrementAndGet();
+        }
+        try {
+            return factory.generateSecret(keySpec);
+        } finally {
+            release(factory);
+        }
+    }
+
+    private void release(@NotNull final SecretKeyFactory factory) {
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(factory);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    long getCreatedCount() {
+        return created.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SecretKeyFactoryPool [algorithm=" + algorithm + ", maxIdle=" + maxIdle + ", idle=" + idleCount.get() + ", created=" + created.get() + "]";
+    }
+
+}
@@ -21,18 +21,26 @@ package org.apache.sling.commons.crypto.internal;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.sling.commons.crypto.RandomSource;
 import org.apache.sling.commons.crypto.SaltProvider;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.Designate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Provider of salts created from <code>SecureRandom</code>.
+ * Provider of salts created from <code>SecureRandom</code>.<br>Uses a {@link RandomSource} instead if one is bound.<br>Salts are
+ * optionally prefetched on a background thread.
  *
  * @see SecureRandom
  */
@@ -51,28 +59,76 @@ public final class SecureRandomSaltProvider implements SaltProvider {
 
     private final SecureRandom secureRandom;
 
+    /**
+     * Guards the SecureRandom, so its internal monitor is never contended (which would pin virtual threads).
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
     private final SecureRandomSaltProviderConfiguration configuration;
 
+    private final @Nullable SaltPrefetcher prefetcher;
+
     private final Logger logger = LoggerFactory.getLogger(SecureRandomSaltProvider.class);
 
-    @Activate
     public SecureRandomSaltProvider(final SecureRandomSaltProviderConfiguration configuration) throws NoSuchAlgorithmException { //
+        this(configuration, null);
+    }
+
+    @Activate
+    public SecureRandomSaltProvider(final SecureRandomSaltProviderConfiguration configuration,
+                                    @Reference(name = "randomSource", cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY) @Nullable final RandomSource randomSource) throws NoSuchAlgorithmException { //
         logger.debug("activating");
         this.configuration = configuration;
-        if (configuration.algorithm().isBlank()) {
+        if (Objects.nonNull(randomSource)) {
+            secureRandom = randomSource.asSecureRandom();
+        } else if (configuration.algorithm().isBlank()) {
             secureRandom = new SecureRandom();
         } else {
             secureRandom = SecureRandom.getInstance(configuration.algorithm());
         }
+        if (configuration.prefetchSize() > 0) {
+            prefetcher = new SaltPrefetcher(configuration.prefetchSize(), this::generateSalt, "sling-commons-crypto-salt-prefetch");
+        } else {
+            prefetcher = null;
+        }
+    }
+
+    @Deactivate
+    @SuppressWarnings("unused")
+    private void deactivate() {
+        logger.debug("deactivating");
+        if (Objects.nonNull(prefetcher)) {
+            logger.debug("stopping {}", prefetcher);
+            prefetcher.shutdown();
+        }
     }
 
     @Override
     public byte @NotNull [] getSalt() {
+        if (Objects.nonNull(prefetcher)) {
+            final byte[] salt = prefetcher.poll();
+            if (Objects.nonNull(salt)) {
+                return salt;
+            }
+        }
+        return generateSalt();
+    }
+
+    private byte @NotNull [] generateSalt() {
         final var configuration = this.configuration;
         Objects.requireNonNull(configuration, "Configuration must not be null");
         final byte[] bytes = new byte[configuration.keyLength()];
-        secureRandom.nextBytes(bytes);
+        lock.lock();
+        try {
+            secureRandom.nextBytes(bytes);
+        } finally {
+            lock.unlock();
+        }
         return bytes;
     }
 
+    @Nullable SaltPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
 }
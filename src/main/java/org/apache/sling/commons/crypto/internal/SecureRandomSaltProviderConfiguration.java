@@ -37,7 +37,7 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
     @AttributeDefinition(
         name = "Algorithm",
-        description = "Secure random number generation algorithm. The standard ones are outlined in https://docs.oracle.com/en/java/javase/17/docs/specs/security/standard-names.html#securerandom-number-generation-algorithms. Leave empty to use the JRE's default SecureRandom implementation."
+        description = "Secure random number generation algorithm. The standard ones are outlined in https://docs.oracle.com/en/java/javase/17/docs/specs/security/standard-names.html#securerandom-number-generation-algorithms. Leave empty to use the JRE's default SecureRandom implementation. Ignored if a Random Source is available."
     )
     String algorithm() default "";
 
@@ -47,6 +47,20 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
     )
     int keyLength() default 8;
 
+    @AttributeDefinition(
+        name = "Prefetch Size",
+        description = "Number of salts generated in advance on a background thread, so callers do not wait for the random number generator. Callers generate the salt themselves if no prefetched salt is available. Set to 0 to disable prefetching."
+    )
+    int prefetchSize() default 0;
+
+    // automatically evaluated (https://docs.osgi.org/specification/osgi.cmpn/8.0.0/service.component.html#service.component-target.property)
+    @AttributeDefinition(
+        name = "Random Source Target",
+        description = "Filter expression to target a Random Source (usually by name with a pattern like \"(names=*)\"). If no Random Source is available, a SecureRandom instance of this provider is used.",
+        required = false
+    )
+    String randomSource_target();
+
     String webconsole_configurationFactory_nameHint() default "{names} {algorithm}";
 
 }
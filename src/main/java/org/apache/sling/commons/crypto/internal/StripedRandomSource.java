@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.sling.commons.crypto.RandomSource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.metatype.annotations.Designate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Random source backed by several <code>SecureRandom</code> instances (stripes).
+ * <p>
+ * Each thread starts at the stripe selected by its id and moves on to the next stripe which is not in use, so concurrent callers
+ * rarely wait for each other. Stripes are reseeded according to the configured reseed policy.
+ *
+ * @see SecureRandom
+ */
+@Component(
+    configurationPolicy = ConfigurationPolicy.REQUIRE,
+    property = {
+        Constants.SERVICE_DESCRIPTION + "=Apache Sling Commons Crypto – Striped Random Source",
+        Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
+    }
+)
+@Designate(
+    ocd = StripedRandomSourceConfiguration.class,
+    factory = true
+)
+@SuppressWarnings({"java:S1117", "java:S6212"})
+public final class StripedRandomSource implements RandomSource {
+
+    private static final int SEED_LENGTH = 32;
+
+    private static final String DEFAULT_ALGORITHM = "DRBG";
+
+    private static final String FALLBACK_ALGORITHM = "SHA1PRNG";
+
+    private final Stripe[] stripes;
+
+    private final int mask;
+
+    private final long reseedIntervalBytes;
+
+    private final long reseedIntervalNanos;
+
+    private final String algorithm;
+
+    private final SecureRandom secureRandom;
+
+    /**
+     * Supplies the seeds for algorithms which do not support reseeding, used without holding a stripe as it may block.
+     */
+    private final SecureRandom seedSource = new SecureRandom();
+
+    private final LongAdder reseedCount = new LongAdder();
+
+    private final LongAdder contendedCount = new LongAdder();
+
+    private final Logger logger = LoggerFactory.getLogger(StripedRandomSource.class);
+
+    @Activate
+    public StripedRandomSource(final StripedRandomSourceConfiguration configuration) throws NoSuchAlgorithmException { //
+        logger.debug("activating");
+        final int stripeCount = stripeCount(configuration.stripes());
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(createSecureRandom(configuration.algorithm()));
+        }
+        mask = stripeCount - 1;
+        reseedIntervalBytes = Math.max(0, configuration.reseedIntervalBytes());
+        reseedIntervalNanos = TimeUnit.SECONDS.toNanos(Math.max(0, configuration.reseedIntervalSeconds()));
+        algorithm = stripes[0].secureRandom.getAlgorithm();
+        if (algorithm.startsWith("NativePRNG")) {
+            logger.warn("All instances of {} share one global state, the stripes do not scale", algorithm);
+        }
+        secureRandom = new StripedSecureRandom(this);
+        logger.debug("activated with {} stripes of {}", stripeCount, algorithm);
+    }
+
+    private static SecureRandom createSecureRandom(final String algorithm) throws NoSuchAlgorithmException {
+        if (algorithm == null || algorithm.isBlank()) {
+            // not the JRE's default, which is NativePRNG on Linux and serializes all instances
+            try {
+                return SecureRandom.getInstance(DEFAULT_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                return SecureRandom.getInstance(FALLBACK_ALGORITHM);
+            }
+        } else {
+            return SecureRandom.getInstance(algorithm);
+        }
+    }
+
+    private static int stripeCount(final int stripes) {
+        final int count = stripes > 0 ? stripes : 2 * Runtime.getRuntime().availableProcessors();
+        // round up to a power of two
+        return count <= 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+    }
+
+    @Override
+    public void nextBytes(final byte @NotNull [] bytes) {
+        byte[] seed = null;
+        while (true) {
+            final Stripe stripe = lockStripe();
+            try {
+                if (!isReseedDue(stripe) || reseed(stripe, seed)) {
+                    stripe.secureRandom.nextBytes(bytes);
+                    stripe.bytesSinceReseed += bytes.length;
+                    return;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+            // generating a seed may block on the entropy source, so it is done without holding the stripe
+            seed = seedSource.generateSeed(SEED_LENGTH);
+        }
+    }
+
+    @Override
+    public @NotNull SecureRandom asSecureRandom() {
+        return secureRandom;
+    }
+
+    private Stripe lockStripe() {
+        final int home = probe();
+        for (int i = 0; i <= mask; i++) {
+            final Stripe stripe = stripes[(home + i) & mask];
+            if (stripe.lock.tryLock()) {
+                return stripe;
+            }
+        }
+        // all stripes in use
+        contendedCount.increment();
+        final Stripe stripe = stripes[home & mask];
+        stripe.lock.lock();
+        return stripe;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int probe() {
+        // Fibonacci hashing spreads consecutive thread ids over all stripes
+        return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    private boolean isReseedDue(final Stripe stripe) {
+        return (reseedIntervalBytes > 0 && stripe.bytesSinceReseed >= reseedIntervalBytes)
+            || (reseedIntervalNanos > 0 && System.nanoTime() - stripe.lastReseed >= reseedIntervalNanos);
+    }
+
+    /**
+     * @param stripe the locked stripe
+     * @param seed the seed for algorithms which do not support reseeding, {@code null} if not generated yet
+     * @return {@code false} in case the stripe needs a seed
+     */
+    private boolean reseed(final Stripe stripe, final byte @Nullable [] seed) {
+        if (stripe.reseedSupported) {
+            try {
+                stripe.secureRandom.reseed();
+            } catch (UnsupportedOperationException e) {
+                // only DRBG supports reseeding, supplement the seed of other algorithms instead
+                stripe.reseedSupported = false;
+            }
+        }
+        if (!stripe.reseedSupported) {
+            if (seed == null) {
+                return false;
+            }
+            stripe.secureRandom.setSeed(seed);
+        }
+        stripe.bytesSinceReseed = 0;
+        stripe.lastReseed = System.nanoTime();
+        reseedCount.increment();
+        return true;
+    }
+
+    @NotNull SecureRandom getStripe(final int index) {
+        return stripes[index].secureRandom;
+    }
+
+    int getStripeCount() {
+        return stripes.length;
+    }
+
+    long getReseedCount() {
+        return reseedCount.sum();
+    }
+
+    long getContendedCount() {
+        return contendedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "StripedRandomSource [algorithm=" + algorithm + ", stripes=" + stripes.length + ", reseeds=" + reseedCount.sum()
+            + ", contended=" + contendedCount.sum() + "]";
+    }
+
+    /**
+     * A <code>SecureRandom</code> instance and its reseed state, guarded by the lock.
+     */
+    private static final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final SecureRandom secureRandom;
+
+        private long bytesSinceReseed;
+
+        private long lastReseed = System.nanoTime();
+
+        private boolean reseedSupported = true;
+
+        private Stripe(final SecureRandom secureRandom) {
+            this.secureRandom = secureRandom;
+        }
+
+    }
+
+    /**
+     * View of the random source as <code>SecureRandom</code>, not synchronized as the source is thread safe.
+     */
+    private static final class StripedSecureRandom extends SecureRandom {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient StripedRandomSource source;
+
+        private StripedSecureRandom(final StripedRandomSource source) {
+            super(new SecureRandomSpi() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void engineSetSeed(final byte[] seed) {
+                    // the stripes are seeded and reseeded by the source
+                }
+
+                @Override
+                protected void engineNextBytes(final byte[] bytes) {
+                    source.nextBytes(bytes);
+                }
+
+                @Override
+                protected byte[] engineGenerateSeed(final int numBytes) {
+                    final byte[] seed = new byte[numBytes];
+                    source.nextBytes(seed);
+                    return seed;
+                }
+
+            }, null);
+            this.source = source;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "Striped" + source.algorithm;
+        }
+
+        @Override
+        public void nextBytes(final byte[] bytes) {
+            source.nextBytes(bytes);
+        }
+
+        @Override
+        public void setSeed(final byte[] seed) {
+            // the stripes are seeded and reseeded by the source
+        }
+
+        @Override
+        public byte[] generateSeed(final int numBytes) {
+            final byte[] seed = new byte[numBytes];
+            source.nextBytes(seed);
+            return seed;
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+@ObjectClassDefinition(
+    name = "Apache Sling Commons Crypto “Striped Random Source”",
+    description = "Provides random bytes from several SecureRandom instances (stripes) to avoid contention between concurrent callers"
+)
+@SuppressWarnings("java:S100")
+@interface StripedRandomSourceConfiguration {
+
+    @AttributeDefinition(
+        name = "Names",
+        description = "names of this service",
+        required = false
+    )
+    String[] names() default {};
+
+    @AttributeDefinition(
+        name = "Algorithm",
+        description = "Secure random number generation algorithm of the stripes, e.g. DRBG. The standard ones are outlined in https://docs.oracle.com/en/java/javase/17/docs/specs/security/standard-names.html#securerandom-number-generation-algorithms. Leave empty to use DRBG (or SHA1PRNG where DRBG is not available), which keeps its state per instance. Avoid NativePRNG, all its instances share one global state and serialize the stripes."
+    )
+    String algorithm() default "";
+
+    @AttributeDefinition(
+        name = "Stripes",
+        description = "Number of SecureRandom instances, rounded up to a power of two. Set to 0 to use twice the number of available processors."
+    )
+    int stripes() default 0;
+
+    @AttributeDefinition(
+        name = "Reseed Interval (bytes)",
+        description = "Number of random bytes after which a stripe is reseeded. Set to 0 to not reseed by generated bytes."
+    )
+    long reseedIntervalBytes() default 0;
+
+    @AttributeDefinition(
+        name = "Reseed Interval (seconds)",
+        description = "Time in seconds after which a stripe is reseeded on next use. Set to 0 to not reseed by time."
+    )
+    long reseedIntervalSeconds() default 0;
+
+    String webconsole_configurationFactory_nameHint() default "{names} {algorithm}";
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jasypt.internal;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Fixed set of Jasypt encryptors, each one used by a single thread at a time.
+ * <p>
+ * Jasypt encryptors synchronize on their secret key factory and cipher, also while deriving the key. Waiting for such a contended
+ * monitor pins a virtual thread to its carrier thread. Handing out each encryptor exclusively keeps these monitors uncontended, callers
+ * wait for a free encryptor on a {@link Semaphore} instead, which unmounts waiting virtual threads.
+ * <p>
+ * The number of operations which had to wait for a free encryptor and their total waiting time indicate whether the pool is sized
+ * appropriately.
+ *
+ * @param <T> the type of the encryptor
+ */
+final class EncryptorPool<T> {
+
+    private final Queue<T> idle;
+
+    private final Semaphore available;
+
+    private final int size;
+
+    private final LongAdder operationCount = new LongAdder();
+
+    private final LongAdder contendedCount = new LongAdder();
+
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * @param encryptors the initialized encryptors
+     */
+    EncryptorPool(@NotNull final List<T> encryptors) {
+        if (encryptors.isEmpty()) {
+            throw new IllegalArgumentException("At least one encryptor is required");
+        }
+        this.idle = new ConcurrentLinkedQueue<>(encryptors);
+        this.size = encryptors.size();
+        this.available = new Semaphore(size);
+    }
+
+    /**
+     * Applies the operation to an encryptor which is not used by any other thread meanwhile.
+     *
+     * @param operation the operation
+     * @param <R> the type of the result
+     * @return the result of the operation
+     */
+    <R> R apply(@NotNull final Function<T, R> operation) {
+        operationCount.increment();
+        if (!available.tryAcquire()) {
+            contendedCount.increment();
+            final long start = System.nanoTime();
+            try {
+                available.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for an encryptor", e);
+            } finally {
+                waitNanos.add(System.nanoTime() - start);
+            }
+        }
+        // a permit guarantees an idle encryptor
+        final T encryptor = idle.poll();
+        try {
+            return operation.apply(encryptor);
+        } finally {
+            idle.offer(encryptor);
+            available.release();
+        }
+    }
+
+    /**
+     * Waits until all operations which are running at the time of the call have given back their encryptor.
+     */
+    void awaitIdle() {
+        // collect the permits one by one, so that newly arriving operations cannot starve the caller
+        for (int i = 0; i < size; i++) {
+            available.acquireUninterruptibly();
+        }
+        available.release(size);
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    long getOperationCount() {
+        return operationCount.sum();
+    }
+
+    /**
+     * @return the number of operations which had to wait for a free encryptor
+     */
+    long getContendedCount() {
+        return contendedCount.sum();
+    }
+
+    /**
+     * @return the total time operations waited for a free encryptor in nanoseconds
+     */
+    long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "EncryptorPool [size=" + size + ", available=" + available.availablePermits() + ", operations=" + operationCount.sum()
+                + ", contended=" + contendedCount.sum() + ", waitNanos=" + waitNanos.sum() + "]";
+    }
+
+}
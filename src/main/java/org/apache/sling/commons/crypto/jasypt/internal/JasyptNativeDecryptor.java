@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jasypt.internal;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jasypt.normalization.Normalizer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decrypts ciphertexts of Jasypt's <code>StandardPBEStringEncryptor</code> and <code>StandardPBEByteEncryptor</code> with plain JCA
+ * and caches the keys derived from the password by salt.
+ * <p>
+ * Only PBES2 algorithms (<code>PBEWITHHMACSHA&lt;n&gt;ANDAES_&lt;bits&gt;</code>) are supported, which derive the AES key with
+ * PBKDF2 and encrypt with AES/CBC/PKCS5Padding. Jasypt uses the cipher block size for both salt and IV and lays out its ciphertexts as
+ * <code>salt|IV|encrypted message</code>. Like Jasypt the key is derived from the password normalized to Unicode NFC. As Jasypt chooses a random salt per message, the cache only helps with decrypting the same
+ * ciphertexts (or ciphertexts sharing a salt) repeatedly, like encrypted configuration values.
+ * <p>
+ * Ciphertexts which cannot be decrypted are not rejected but reported with {@code null}, so callers can fall back to Jasypt for the
+ * authoritative result.
+ */
+final class JasyptNativeDecryptor {
+
+    private static final Pattern PBES2_ALGORITHM = Pattern.compile("PBEWITHHMAC(SHA(?:1|224|256|384|512))ANDAES_(128|256)", Pattern.CASE_INSENSITIVE);
+
+    private static final String CIPHER_ALGORITHM = "AES/CBC/PKCS5Padding";
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final String keyDerivationAlgorithm;
+
+    private final int keyLengthBits;
+
+    private final int iterations;
+
+    private final char[] password;
+
+    private final KeyCache keyCache;
+
+    private JasyptNativeDecryptor(final String keyDerivationAlgorithm, final int keyLengthBits, final int iterations, final char[] password,
+            final int keyCacheSize) {
+        this.keyDerivationAlgorithm = keyDerivationAlgorithm;
+        this.keyLengthBits = keyLengthBits;
+        this.iterations = iterations;
+        // normalized like Jasypt does, otherwise a key derived from a password not in NFC does not match
+        this.password = Normalizer.normalizeToNfc(password);
+        this.keyCache = new KeyCache(keyCacheSize);
+    }
+
+    /**
+     * @param algorithm the Jasypt PBE algorithm
+     * @param iterations the key obtention iterations
+     * @param password the password, which is copied and normalized to NFC
+     * @param keyCacheSize the maximum number of cached keys
+     * @return the decryptor or {@code null} if the algorithm is not supported
+     */
+    static @Nullable JasyptNativeDecryptor create(@NotNull final String algorithm, final int iterations, final char @NotNull [] password,
+            final int keyCacheSize) {
+        final Matcher matcher = PBES2_ALGORITHM.matcher(algorithm);
+        if (!matcher.matches()) {
+            return null;
+        }
+        final String keyDerivationAlgorithm = "PBKDF2WithHmac" + matcher.group(1).toUpperCase(Locale.ROOT);
+        final int keyLengthBits = Integer.parseInt(matcher.group(2));
+        return new JasyptNativeDecryptor(keyDerivationAlgorithm, keyLengthBits, iterations, password, keyCacheSize);
+    }
+
+    /**
+     * @param ciphertext the ciphertext
+     * @return the message or {@code null} if the ciphertext could not be decrypted
+     */
+    byte @Nullable [] decrypt(final byte @NotNull [] ciphertext) {
+        // at least one encrypted block
+        if (ciphertext.length < 3 * BLOCK_SIZE || ciphertext.length % BLOCK_SIZE != 0) {
+            return null;
+        }
+        final byte[] salt = Arrays.copyOfRange(ciphertext, 0, BLOCK_SIZE);
+        byte[] key = null;
+        try {
+            key = keyCache.get(salt, this::deriveKey);
+            final Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(ciphertext, BLOCK_SIZE, BLOCK_SIZE));
+            return cipher.doFinal(ciphertext, 2 * BLOCK_SIZE, ciphertext.length - 2 * BLOCK_SIZE);
+        } catch (GeneralSecurityException e) {
+            return null;
+        } finally {
+            if (key != null) {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+    }
+
+    private byte[] deriveKey(final byte[] salt) throws GeneralSecurityException {
+        final PBEKeySpec keySpec = new PBEKeySpec(password, salt, iterations, keyLengthBits);
+        try {
+            return SecretKeyFactory.getInstance(keyDerivationAlgorithm).generateSecret(keySpec).getEncoded();
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * Removes and wipes all cached keys, keys derived by decryptions still running or started afterwards are not cached anymore.
+     */
+    void clear() {
+        keyCache.clear();
+    }
+
+    long getCacheHitCount() {
+        return keyCache.hits.sum();
+    }
+
+    long getCacheMissCount() {
+        return keyCache.misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "JasyptNativeDecryptor [keyDerivationAlgorithm=" + keyDerivationAlgorithm + ", keyLengthBits=" + keyLengthBits + ", hits="
+                + keyCache.hits.sum() + ", misses=" + keyCache.misses.sum() + "]";
+    }
+
+    @FunctionalInterface
+    private interface KeyDerivation {
+        byte[] derive(byte[] salt) throws GeneralSecurityException;
+    }
+
+    /**
+     * Bounded LRU cache of encoded keys by salt, evicted keys are wiped.
+     */
+    private static final class KeyCache {
+
+        private final int maxSize;
+
+        private final Map<ByteBuffer, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final LongAdder hits = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        /**
+         * Set when the cache is cleared, guarded by the lock.
+         */
+        private boolean closed;
+
+        KeyCache(final int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @return a copy of the cached or derived key, derivation happens outside of the lock
+         */
+        byte[] get(final byte[] salt, final KeyDerivation derivation) throws GeneralSecurityException {
+            final ByteBuffer cacheKey = ByteBuffer.wrap(salt);
+            lock.lock();
+            try {
+                final byte[] cached = entries.get(cacheKey);
+                if (cached != null) {
+                    hits.increment();
+                    return cached.clone();
+                }
+            } finally {
+                lock.unlock();
+            }
+            misses.increment();
+            final byte[] derived = derivation.derive(salt);
+            lock.lock();
+            try {
+                if (closed) {
+                    // cleared meanwhile, the caller wipes the derived key after use
+                    return derived;
+                }
+                final byte[] previous = entries.put(cacheKey, derived.clone());
+                if (previous != null) {
+                    Arrays.fill(previous, (byte) 0);
+                }
+                final Iterator<byte[]> iterator = entries.values().iterator();
+                while (entries.size() > maxSize && iterator.hasNext()) {
+                    Arrays.fill(iterator.next(), (byte) 0);
+                    iterator.remove();
+                }
+            } finally {
+                lock.unlock();
+            }
+            return derived;
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                closed = true;
+                entries.values().forEach(key -> Arrays.fill(key, (byte) 0));
+                entries.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+}
@@ -18,26 +18,33 @@
  */
 package org.apache.sling.commons.crypto.jasypt.internal;
 
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Objects;
+import java.util.function.Consumer;
 
+import org.apache.sling.commons.crypto.RandomSource;
 import org.jasypt.iv.IvGenerator;
-import org.jasypt.iv.RandomIvGenerator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.Designate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Registrar for Jasypt Random IV Generator.<br>Registers a <code>RandomIvGenerator</code> as OSGi Service.
+ * Registrar for Jasypt Random IV Generator.<br>Registers an IV generator equivalent to <code>RandomIvGenerator</code> as OSGi Service,
+ * which does not synchronize on the <code>SecureRandom</code>.
  *
- * @see RandomIvGenerator
+ * @see org.jasypt.iv.RandomIvGenerator
  */
 @Component(
     property = {
@@ -52,6 +59,12 @@ import org.slf4j.LoggerFactory;
 @SuppressWarnings("java:S6212")
 public final class JasyptRandomIvGeneratorRegistrar {
 
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    private volatile RandomSource randomSource;
+
     private ServiceRegistration<IvGenerator> serviceRegistration;
 
     private final Logger logger = LoggerFactory.getLogger(JasyptRandomIvGeneratorRegistrar.class);
@@ -61,10 +74,18 @@ public final class JasyptRandomIvGeneratorRegistrar {
 
     @Activate
     @SuppressWarnings("unused")
-    private void activate(final JasyptRandomIvGeneratorRegistrarConfiguration configuration, final BundleContext bundleContext) {
+    private void activate(final JasyptRandomIvGeneratorRegistrarConfiguration configuration, final BundleContext bundleContext) throws NoSuchAlgorithmException {
         logger.debug("activating");
         final String algorithm = configuration.algorithm();
-        final RandomIvGenerator ivGenerator = new RandomIvGenerator(algorithm);
+        final RandomSource randomSource = this.randomSource;
+        final Consumer<byte[]> nextBytes;
+        if (Objects.nonNull(randomSource)) {
+            logger.debug("using Random Source {} instead of algorithm {}", randomSource, algorithm);
+            nextBytes = randomSource::nextBytes;
+        } else {
+            nextBytes = new LockingRandomBytes(SecureRandom.getInstance(algorithm));
+        }
+        final IvGenerator ivGenerator = new RandomBytesIvGenerator(nextBytes);
         @SuppressWarnings("java:S1149")
         final Dictionary<String, String> properties = new Hashtable<>();
         properties.put("algorithm", algorithm);
@@ -18,11 +18,14 @@
  */
 package org.apache.sling.commons.crypto.jasypt.internal;
 
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Objects;
+import java.util.function.Consumer;
 
-import org.jasypt.salt.RandomSaltGenerator;
+import org.apache.sling.commons.crypto.RandomSource;
 import org.jasypt.salt.SaltGenerator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -30,14 +33,18 @@ import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.Designate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Registrar for Jasypt Random Salt Generator.<br>Registers a <code>RandomSaltGenerator</code> as OSGi Service.
+ * Registrar for Jasypt Random Salt Generator.<br>Registers a salt generator equivalent to <code>RandomSaltGenerator</code> as OSGi
+ * Service, which does not synchronize on the <code>SecureRandom</code>.
  *
- * @see RandomSaltGenerator
+ * @see org.jasypt.salt.RandomSaltGenerator
  */
 @Component(
     property = {
@@ -52,6 +59,12 @@ import org.slf4j.LoggerFactory;
 @SuppressWarnings("java:S6212")
 public final class JasyptRandomSaltGeneratorRegistrar {
 
+    @Reference(
+        cardinality = ReferenceCardinality.OPTIONAL,
+        policyOption = ReferencePolicyOption.GREEDY
+    )
+    private volatile RandomSource randomSource;
+
     private ServiceRegistration<SaltGenerator> serviceRegistration;
 
     private final Logger logger = LoggerFactory.getLogger(JasyptRandomSaltGeneratorRegistrar.class);
@@ -61,10 +74,18 @@ public final class JasyptRandomSaltGeneratorRegistrar {
 
     @Activate
     @SuppressWarnings("unused")
-    private void activate(final JasyptRandomSaltGeneratorRegistrarConfiguration configuration, final BundleContext bundleContext) {
+    private void activate(final JasyptRandomSaltGeneratorRegistrarConfiguration configuration, final BundleContext bundleContext) throws NoSuchAlgorithmException {
         logger.debug("activating");
         final String algorithm = configuration.algorithm();
-        final RandomSaltGenerator saltGenerator = new RandomSaltGenerator(algorithm);
+        final RandomSource randomSource = this.randomSource;
+        final Consumer<byte[]> nextBytes;
+        if (Objects.nonNull(randomSource)) {
+            logger.debug("using Random Source {} instead of algorithm {}", randomSource, algorithm);
+            nextBytes = randomSource::nextBytes;
+        } else {
+            nextBytes = new LockingRandomBytes(SecureRandom.getInstance(algorithm));
+        }
+        final SaltGenerator saltGenerator = new RandomBytesSaltGenerator(nextBytes);
         @SuppressWarnings("java:S1149")
         final Dictionary<String, String> properties = new Hashtable<>();
         properties.put("algorithm", algorithm);
@@ -31,10 +31,18 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
     @AttributeDefinition(
         name = "Algorithm",
-        description = "secure random number generation algorithm"
+        description = "secure random number generation algorithm, ignored if a Random Source is available"
     )
     String algorithm() default RandomSaltGenerator.DEFAULT_SECURE_RANDOM_ALGORITHM;
 
+    // automatically evaluated (https://docs.osgi.org/specification/osgi.cmpn/8.0.0/service.component.html#service.component-target.property)
+    @AttributeDefinition(
+        name = "Random Source Target",
+        description = "Filter expression to target a Random Source (usually by name with a pattern like \"(names=*)\"). If no Random Source is available, a SecureRandom instance using the algorithm is used.",
+        required = false
+    )
+    String randomSource_target();
+
     String webconsole_configurationFactory_nameHint() default "{algorithm}";
 
 }
@@ -18,14 +18,32 @@
  */
 package org.apache.sling.commons.crypto.jasypt.internal;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.Provider;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.sling.commons.crypto.BinaryCryptoService;
 import org.apache.sling.commons.crypto.CryptoService;
 import org.apache.sling.commons.crypto.PasswordProvider;
+import org.jasypt.commons.CommonUtils;
+import org.jasypt.contrib.org.apache.commons.codec_1_3.binary.Base64;
+import org.jasypt.encryption.pbe.StandardPBEByteEncryptor;
 import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.jasypt.encryption.pbe.config.SimplePBEConfig;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 import org.jasypt.iv.IvGenerator;
 import org.jasypt.registry.AlgorithmRegistry;
 import org.jasypt.salt.SaltGenerator;
@@ -43,11 +61,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Service for encrypting messages and decrypting ciphertexts using Jasypt's <code>StandardPBEStringEncryptor</code>.
+ * Service for encrypting messages and decrypting ciphertexts using Jasypt's <code>StandardPBEByteEncryptor</code>.
+ * <p>
+ * Binary messages are encrypted without any encoding. String messages and ciphertexts are encoded like Jasypt's
+ * <code>StandardPBEStringEncryptor</code> does (UTF-8 messages, Base64 or hexadecimal ciphertexts), so they are fully compatible.
+ * <p>
+ * A modified configuration is applied in the background: the new encryptors are initialized while the current ones keep serving
+ * operations, then they are replaced at once. The cached keys of the previous native decryptor are cleared after the operations which
+ * were running on the previous encryptors have finished.
  *
  * @see StandardPBEStringEncryptor
+ * @see StandardPBEByteEncryptor
  */
 @Component(
+    service = {CryptoService.class, BinaryCryptoService.class},
     property = {
         Constants.SERVICE_DESCRIPTION + "=Apache Sling Commons Crypto – Jasypt Standard PBE String Crypto Service",
         Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
@@ -58,7 +85,7 @@ import org.slf4j.LoggerFactory;
     factory = true
 )
 @SuppressWarnings({"java:S1117", "java:S3077", "java:S6212"})
-public final class JasyptStandardPbeStringCryptoService implements CryptoService {
+public final class JasyptStandardPbeStringCryptoService implements BinaryCryptoService {
 
     @Reference
     private volatile PasswordProvider passwordProvider;
@@ -76,9 +103,24 @@ public final class JasyptStandardPbeStringCryptoService implements CryptoService
     )
     private volatile SaltGenerator saltGenerator;
 
-    private StandardPBEStringEncryptor encryptor;
+    /**
+     * The encryptors and settings of the current configuration, replaced as a whole when the configuration is modified.
+     */
+    private volatile Setup setup;
 
-    private String algorithm;
+    /**
+     * Guards replacing the setup, so that only the setup of the latest configuration is published.
+     */
+    private final ReentrantLock setupLock = new ReentrantLock();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Creates setups for modified configurations and waits for the operations on the previous setups, without occupying the common pool.
+     */
+    private final ExecutorService reconfigurationExecutor = newReconfigurationExecutor();
+
+    private final Base64 base64 = new Base64();
 
     private final Logger logger = LoggerFactory.getLogger(JasyptStandardPbeStringCryptoService.class);
 
@@ -86,74 +128,284 @@ public final class JasyptStandardPbeStringCryptoService implements CryptoService
     public JasyptStandardPbeStringCryptoService() { //
     }
 
+    private static ExecutorService newReconfigurationExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "sling-commons-crypto-jasypt-reconfiguration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     @Activate
     @SuppressWarnings("unused")
     private void activate(final JasyptStandardPbeStringCryptoServiceConfiguration configuration) {
         logger.debug("activating");
-        setupEncryptor(configuration);
+        publish(generation.incrementAndGet(), createSetup(configuration));
     }
 
     @Modified
     @SuppressWarnings("unused")
     private void modified(final JasyptStandardPbeStringCryptoServiceConfiguration configuration) {
         logger.debug("modifying");
-        setupEncryptor(configuration);
+        reconfigure(configuration).whenComplete((result, throwable) -> {
+            if (Objects.nonNull(throwable)) {
+                logger.error("Applying modified configuration failed, keeping {}", setup, throwable);
+            }
+        });
     }
 
     @Deactivate
     @SuppressWarnings("unused")
     private void deactivate() {
-        logger.debug("deactivating");
+        // discard setups which are still being created
+        generation.incrementAndGet();
+        reconfigurationExecutor.shutdown();
+        final Setup setup = this.setup;
+        logger.debug("deactivating, {}", setup);
+        final JasyptNativeDecryptor nativeDecryptor = setup.nativeDecryptor;
+        if (Objects.nonNull(nativeDecryptor)) {
+            nativeDecryptor.clear();
+        }
+    }
+
+    /**
+     * Creates the setup for the given configuration in the background and replaces the current setup with it, unless the configuration
+     * has been modified again or the service has been deactivated in the meantime.
+     *
+     * @param configuration the modified configuration
+     * @return the future which completes once the previous setup has been retired, exceptionally in case the setup could not be created
+     *         or the service has been deactivated
+     */
+    @NotNull CompletableFuture<Void> reconfigure(final JasyptStandardPbeStringCryptoServiceConfiguration configuration) {
+        final long generation = this.generation.incrementAndGet();
+        try {
+            return CompletableFuture.runAsync(() -> publish(generation, createSetup(configuration)), reconfigurationExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void publish(final long generation, @NotNull final Setup setup) {
+        final Setup previous;
+        setupLock.lock();
+        try {
+            if (generation != this.generation.get()) {
+                logger.debug("discarding outdated {}", setup);
+                previous = setup;
+            } else {
+                previous = this.setup;
+                this.setup = setup;
+            }
+        } finally {
+            setupLock.unlock();
+        }
+        if (Objects.nonNull(previous)) {
+            logger.debug("replacing {}", previous);
+            // let running operations finish before clearing the cached keys, native decryptions are not tracked by the pool but no
+            // longer cache keys once cleared
+            previous.encryptors.awaitIdle();
+            if (Objects.nonNull(previous.nativeDecryptor)) {
+                previous.nativeDecryptor.clear();
+            }
+        }
     }
 
-    private void setupEncryptor(final JasyptStandardPbeStringCryptoServiceConfiguration configuration) {
-        algorithm = configuration.algorithm();
+    private @NotNull Setup createSetup(final JasyptStandardPbeStringCryptoServiceConfiguration configuration) {
+        final String algorithm = configuration.algorithm();
         final Set<?> algorithms = AlgorithmRegistry.getAllPBEAlgorithms();
         if (!algorithms.contains(algorithm)) {
             logger.warn("Configured algorithm {} for password based encryption is not available. {}", algorithm, algorithms);
         }
-        final StandardPBEStringEncryptor encryptor = new StandardPBEStringEncryptor();
+        final SimplePBEConfig config = new SimplePBEConfig();
         // mandatory
-        encryptor.setAlgorithm(algorithm);
+        config.setAlgorithm(algorithm);
         final IvGenerator ivGenerator = this.ivGenerator;
-        encryptor.setIvGenerator(ivGenerator);
+        config.setIvGenerator(ivGenerator);
         // optional
-        encryptor.setKeyObtentionIterations(configuration.keyObtentionIterations());
-        encryptor.setStringOutputType(configuration.stringOutputType());
+        config.setKeyObtentionIterations(configuration.keyObtentionIterations());
         final String securityProviderName = configuration.securityProviderName();
         if (Objects.nonNull(securityProviderName) && !securityProviderName.isBlank()) {
-            encryptor.setProviderName(securityProviderName);
+            config.setProviderName(securityProviderName);
         }
         final Provider provider = this.securityProvider;
         if (Objects.nonNull(provider)) {
-            encryptor.setProvider(provider);
+            config.setProvider(provider);
         }
         final SaltGenerator saltGenerator = this.saltGenerator;
         if (Objects.nonNull(saltGenerator)) {
-            encryptor.setSaltGenerator(saltGenerator);
+            config.setSaltGenerator(saltGenerator);
         }
-        // set mandatory password, initialize encryptor, clear password
+        // each encryptor is only used by one thread at a time
+        final int poolSize = configuration.poolSize() > 0 ? configuration.poolSize() : Runtime.getRuntime().availableProcessors();
+        final List<StandardPBEByteEncryptor> encryptors = new ArrayList<>(poolSize);
+        // set mandatory password, initialize encryptors, clear password
         final char[] password = passwordProvider.getPassword();
-        encryptor.setPasswordCharArray(password);
-        encryptor.initialize();
-        Arrays.fill(password, '0');
-        this.encryptor = encryptor;
+        final JasyptNativeDecryptor nativeDecryptor;
+        try {
+            nativeDecryptor = createNativeDecryptor(configuration, ivGenerator, saltGenerator, password);
+            for (int i = 0; i < poolSize; i++) {
+                final StandardPBEByteEncryptor encryptor = new StandardPBEByteEncryptor();
+                encryptor.setConfig(config);
+                encryptor.setPasswordCharArray(password);
+                encryptor.initialize();
+                encryptors.add(encryptor);
+            }
+        } finally {
+            Arrays.fill(password, '0');
+        }
+        // the overhead (salt, IV and padding or tag) is independent of the message, computing it also warms up the first encryptor
+        final int overhead = encryptors.get(0).encrypt(new byte[0]).length;
+        final boolean hexadecimalOutput = CommonUtils.STRING_OUTPUT_TYPE_HEXADECIMAL.equalsIgnoreCase(configuration.stringOutputType());
+        return new Setup(algorithm, new EncryptorPool<>(encryptors), nativeDecryptor, hexadecimalOutput, overhead);
+    }
+
+    private @Nullable JasyptNativeDecryptor createNativeDecryptor(final JasyptStandardPbeStringCryptoServiceConfiguration configuration,
+            final IvGenerator ivGenerator, final SaltGenerator saltGenerator, final char[] password) {
+        if (configuration.decryptionKeyCacheSize() <= 0) {
+            return null;
+        }
+        final String securityProviderName = configuration.securityProviderName();
+        if ((Objects.nonNull(securityProviderName) && !securityProviderName.isBlank()) || Objects.nonNull(this.securityProvider)) {
+            logger.info("Decryption with plain JCA is not supported with a custom Security Provider");
+            return null;
+        }
+        // Jasypt's default salt generator includes the plain salt as well
+        if (!ivGenerator.includePlainIvInEncryptionResults() || (Objects.nonNull(saltGenerator) && !saltGenerator.includePlainSaltInEncryptionResults())) {
+            logger.info("Decryption with plain JCA requires plain IV and salt in ciphertexts");
+            return null;
+        }
+        final JasyptNativeDecryptor nativeDecryptor = JasyptNativeDecryptor.create(configuration.algorithm(),
+                configuration.keyObtentionIterations(), password, configuration.decryptionKeyCacheSize());
+        if (Objects.isNull(nativeDecryptor)) {
+            logger.info("Decryption with plain JCA is not supported for algorithm {}", configuration.algorithm());
+        }
+        return nativeDecryptor;
+    }
+
+    /**
+     * The encryptors and settings created from one configuration.
+     */
+    private static final class Setup {
+
+        private final String algorithm;
+
+        private final EncryptorPool<StandardPBEByteEncryptor> encryptors;
+
+        private final @Nullable JasyptNativeDecryptor nativeDecryptor;
+
+        private final boolean hexadecimalOutput;
+
+        private final int ciphertextOverhead;
+
+        Setup(final String algorithm, @NotNull final EncryptorPool<StandardPBEByteEncryptor> encryptors,
+                @Nullable final JasyptNativeDecryptor nativeDecryptor, final boolean hexadecimalOutput, final int ciphertextOverhead) {
+            this.algorithm = algorithm;
+            this.encryptors = encryptors;
+            this.nativeDecryptor = nativeDecryptor;
+            this.hexadecimalOutput = hexadecimalOutput;
+            this.ciphertextOverhead = ciphertextOverhead;
+        }
+
+        @Override
+        public String toString() {
+            return "Setup [algorithm=" + algorithm + ", " + encryptors + ", " + nativeDecryptor + "]";
+        }
+
+    }
+
+    EncryptorPool<StandardPBEByteEncryptor> getEncryptorPool() {
+        return setup.encryptors;
+    }
+
+    @Nullable JasyptNativeDecryptor getNativeDecryptor() {
+        return setup.nativeDecryptor;
     }
 
     @Override
     public @NotNull String encrypt(@NotNull final String message) {
-        return encryptor.encrypt(message);
+        // same encoding as StandardPBEStringEncryptor
+        final Setup setup = this.setup;
+        final byte[] ciphertext = encrypt(setup, message.getBytes(StandardCharsets.UTF_8));
+        return setup.hexadecimalOutput ? CommonUtils.toHexadecimal(ciphertext) : new String(base64.encode(ciphertext), StandardCharsets.US_ASCII);
     }
 
     @Override
     public @NotNull String decrypt(@NotNull final String ciphertext) {
-        return encryptor.decrypt(ciphertext);
+        // same decoding as StandardPBEStringEncryptor
+        final Setup setup = this.setup;
+        final byte[] bytes;
+        try {
+            bytes = setup.hexadecimalOutput ? CommonUtils.fromHexadecimal(ciphertext) : base64.decode(ciphertext.getBytes(StandardCharsets.US_ASCII));
+        } catch (RuntimeException e) {
+            throw new EncryptionOperationNotPossibleException();
+        }
+        final byte[] message = decrypt(setup, bytes);
+        try {
+            return new String(message, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(message, (byte) 0);
+        }
+    }
+
+    @Override
+    public byte @NotNull [] encrypt(byte @NotNull [] message) {
+        return encrypt(setup, message);
+    }
+
+    @Override
+    public byte @NotNull [] decrypt(byte @NotNull [] ciphertext) {
+        return decrypt(setup, ciphertext);
+    }
+
+    private static byte @NotNull [] encrypt(@NotNull final Setup setup, byte @NotNull [] message) {
+        return setup.encryptors.apply(encryptor -> encryptor.encrypt(message));
+    }
+
+    private static byte @NotNull [] decrypt(@NotNull final Setup setup, byte @NotNull [] ciphertext) {
+        final JasyptNativeDecryptor nativeDecryptor = setup.nativeDecryptor;
+        if (Objects.nonNull(nativeDecryptor)) {
+            final byte[] message = nativeDecryptor.decrypt(ciphertext);
+            if (Objects.nonNull(message)) {
+                return message;
+            }
+        }
+        // Jasypt is authoritative for ciphertexts which could not be decrypted with plain JCA
+        return setup.encryptors.apply(encryptor -> encryptor.decrypt(ciphertext));
+    }
+
+    @Override
+    public int encrypt(@NotNull final ByteBuffer message, @NotNull final ByteBuffer ciphertext) {
+        final byte[] bytes = new byte[message.remaining()];
+        message.get(bytes);
+        return put(encrypt(bytes), ciphertext, "Ciphertext");
+    }
+
+    @Override
+    public int decrypt(@NotNull final ByteBuffer ciphertext, @NotNull final ByteBuffer message) {
+        final byte[] bytes = new byte[ciphertext.remaining()];
+        ciphertext.get(bytes);
+        return put(decrypt(bytes), message, "Message");
+    }
+
+    private static int put(final byte @NotNull [] bytes, @NotNull final ByteBuffer buffer, @NotNull final String name) {
+        if (buffer.remaining() < bytes.length) {
+            final String message = String.format("%s buffer too small, %d bytes required but only %d bytes remaining", name, bytes.length, buffer.remaining());
+            throw new IllegalArgumentException(message);
+        }
+        buffer.put(bytes);
+        return bytes.length;
+    }
+
+    @Override
+    public int getMaxCiphertextLength(final int messageLength) {
+        return setup.ciphertextOverhead + messageLength;
     }
 
     @Override
     public @Nullable String getAlgorithmDescription() {
-        return algorithm;
+        return setup.algorithm;
     }
 
-    
 }
@@ -69,6 +69,18 @@ import static org.jasypt.encryption.pbe.StandardPBEByteEncryptor.DEFAULT_KEY_OBT
     )
     String stringOutputType() default STRING_OUTPUT_TYPE_BASE64;
 
+    @AttributeDefinition(
+        name = "Pool Size",
+        description = "number of initialized encryptors, each one is used by one thread at a time (0 uses the number of available processors)"
+    )
+    int poolSize() default 0;
+
+    @AttributeDefinition(
+        name = "Decryption Key Cache Size",
+        description = "number of keys derived from the password and the salt of a ciphertext which are kept in memory to decrypt ciphertexts with plain JCA, so repeatedly decrypted ciphertexts (e.g. configuration values) only need one key derivation (only for PBEWITHHMACSHA*ANDAES_* algorithms without Security Provider, 0 disables the cache)"
+    )
+    int decryptionKeyCacheSize() default 0;
+
     @AttributeDefinition(
         name = "Password Provider Target",
         description = "filter expression to target a Password Provider",
@@ -78,7 +90,7 @@ import static org.jasypt.encryption.pbe.StandardPBEByteEncryptor.DEFAULT_KEY_OBT
 
     @AttributeDefinition(
         name = "Security Provider Target",
-        description = "filter expression to target a Security Provider",
+        description = "filter expression to target a Security Provider, e.g. by the algorithms it supports with a pattern like \"(cipher.algorithms=PBEWithHmacSHA512AndAES_256)\"",
         required = false
     )
     String securityProvider_target();
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jasypt.internal;
+
+import java.security.SecureRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Random bytes from a {@link SecureRandom} guarded by a {@link ReentrantLock} instead of a monitor (as in Jasypt's generators), so
+ * waiting virtual threads are not pinned to their carrier threads.
+ */
+final class LockingRandomBytes implements Consumer<byte[]> {
+
+    private final SecureRandom secureRandom;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    LockingRandomBytes(@NotNull final SecureRandom secureRandom) {
+        this.secureRandom = secureRandom;
+    }
+
+    @Override
+    public void accept(final byte[] bytes) {
+        lock.lock();
+        try {
+            secureRandom.nextBytes(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
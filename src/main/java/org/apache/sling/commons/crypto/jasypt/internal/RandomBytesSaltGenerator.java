@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jasypt.internal;
+
+import java.util.function.Consumer;
+
+import org.jasypt.salt.SaltGenerator;
+
+/**
+ * Jasypt salt generator backed by a source of random bytes (without synchronization), like <code>org.jasypt.salt.RandomSaltGenerator</code> it includes the
+ * plain salt in the encryption results.
+ */
+final class RandomBytesSaltGenerator implements SaltGenerator {
+
+    private final Consumer<byte[]> nextBytes;
+
+    /**
+     * @param nextBytes fills the given array with random bytes, must be thread safe
+     */
+    RandomBytesSaltGenerator(final Consumer<byte[]> nextBytes) {
+        this.nextBytes = nextBytes;
+    }
+
+    @Override
+    public byte[] generateSalt(final int lengthBytes) {
+        final byte[] salt = new byte[lengthBytes];
+        nextBytes.accept(salt);
+        return salt;
+    }
+
+    @Override
+    public boolean includePlainSaltInEncryptionResults() {
+        return true;
+    }
+
+}
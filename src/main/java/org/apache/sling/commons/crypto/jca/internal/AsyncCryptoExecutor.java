@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs crypto operations asynchronously with a limit on the number of pending (queued or running) operations.
+ * <p>
+ * The limit is enforced with a semaphore instead of a bounded queue, so it applies to all kinds of executors, including virtual
+ * threads (which are never queued) and executors given by the caller.
+ */
+final class AsyncCryptoExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncCryptoExecutor.class);
+
+    static final String TYPE_PLATFORM = "platform";
+    static final String TYPE_VIRTUAL = "virtual";
+    static final String TYPE_CALLER = "caller";
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final int maxPending;
+    private final Semaphore pending;
+    private final @Nullable ExecutorService executorService;
+    private final Executor executor;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param type one of {@link #TYPE_PLATFORM}, {@link #TYPE_VIRTUAL} or {@link #TYPE_CALLER}
+     * @param threads the number of platform threads, {@code 0} or less means the number of available processors
+     * @param maxPending the maximum number of pending operations, {@code 0} or less means unlimited
+     * @param name the name used for the threads
+     */
+    AsyncCryptoExecutor(@Nullable String type, int threads, int maxPending, @NotNull String name) {
+        this.maxPending = maxPending > 0 ? maxPending : Integer.MAX_VALUE;
+        this.pending = new Semaphore(this.maxPending);
+        final String normalizedType = type == null || type.isBlank() ? TYPE_PLATFORM : type.trim().toLowerCase(Locale.ROOT);
+        switch (normalizedType) {
+            case TYPE_CALLER:
+                executorService = null;
+                executor = Runnable::run;
+                break;
+            case TYPE_VIRTUAL:
+                executorService = newVirtualThreadPerTaskExecutor(threads, name);
+                executor = executorService;
+                break;
+            case TYPE_PLATFORM:
+                executorService = newPlatformThreadPool(threads, name);
+                executor = executorService;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported executor type " + type);
+        }
+    }
+
+    private static @NotNull ExecutorService newPlatformThreadPool(int threads, @NotNull String name) {
+        final int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        final AtomicInteger counter = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // the queue is bounded by the semaphore
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static @NotNull ExecutorService newVirtualThreadPerTaskExecutor(int threads, @NotNull String name) {
+        try {
+            // only available as of Java 21
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            LOGGER.warn("Virtual threads are not available in this JVM, using a pool of platform threads instead");
+            return newPlatformThreadPool(threads, name);
+        }
+    }
+
+    /**
+     * Runs the given operation with the executor of this instance.
+     *
+     * @param <T> the type of the result
+     * @param operation the operation
+     * @return the future result, completed exceptionally with a {@link RejectedExecutionException} in case too many operations are
+     *         pending */
+    <T> @NotNull CompletableFuture<T> supply(@NotNull Supplier<T> operation) {
+        return supply(operation, executor);
+    }
+
+    /**
+     * Runs the given operation with the given executor, counting towards the limit of pending operations of this instance.
+     *
+     * @param <T> the type of the result
+     * @param operation the operation
+     * @param executor the executor to run the operation with
+     * @return the future result, completed exceptionally with a {@link RejectedExecutionException} in case too many operations are
+     *         pending or the executor rejected the operation */
+    <T> @NotNull CompletableFuture<T> supply(@NotNull Supplier<T> operation, @NotNull Executor executor) {
+        if (!pending.tryAcquire()) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many pending crypto operations (" + maxPending + ")"));
+        }
+        final CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(operation, executor);
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+        // release before dependent stages of the caller run
+        return future.whenComplete((result, throwable) -> pending.release());
+    }
+
+    int getPendingCount() {
+        return maxPending - pending.availablePermits();
+    }
+
+    long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops accepting new operations, already submitted ones are still executed.
+     */
+    void shutdown() {
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncCryptoExecutor [pending=" + getPendingCount() + ", rejected=" + rejected.get() + "]";
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Bounded pool of {@link Cipher} instances to avoid the provider lookup and SPI instantiation of {@link Cipher#getInstance(String)}
+ * for every operation.
+ * <p>
+ * Borrowed ciphers must always be (re-)initialized by the caller before use, so they never leak state (e.g. an IV) from one operation to
+ * another. The pool is lock-free and never blocks: if no idle cipher is available a new one is created, and ciphers released while the
+ * pool is full are dropped.
+ * <p>
+ * Once {@link #clear() cleared}, released ciphers are dropped, so a retired engine does not keep ciphers which are still in use by
+ * running operations.
+ */
+final class CipherPool {
+
+    /**
+     * Creates new uninitialized {@link Cipher} instances.
+     */
+    @FunctionalInterface
+    interface CipherFactory {
+        @NotNull Cipher create() throws NoSuchAlgorithmException, NoSuchPaddingException;
+    }
+
+    private final int maxIdle;
+    private final CipherFactory factory;
+    private final ConcurrentLinkedDeque<Cipher> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private volatile boolean cleared;
+
+    /**
+     * @param maxIdle maximum number of idle ciphers kept, {@code 0} disables pooling
+     * @param factory the factory for new ciphers
+     */
+    CipherPool(int maxIdle, @NotNull CipherFactory factory) {
+        this.maxIdle = Math.max(0, maxIdle);
+        this.factory = factory;
+    }
+
+    /**
+     * Returns an idle cipher or a new one.
+     *
+     * @return a cipher which needs to be initialized before use
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchPaddingException */
+    @NotNull Cipher borrow() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        final Cipher cipher = idle.pollFirst();
+        if (cipher != null) {
+            idleCount.decrementAndGet();
+            return cipher;
+        }
+        created.incrementAndGet();
+        return factory.create();
+    }
+
+    /**
+     * Returns a cipher to the pool, it is dropped in case the pool is full.
+     *
+     * @param cipher the cipher obtained from {@link #borrow()}
+     */
+    void release(@NotNull Cipher cipher) {
+        if (cleared) {
+            return;
+        }
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offerFirst(cipher);
+        } else {
+            idleCount.decrementAndGet();
+        }
+        // a cipher released concurrently with clear() must not stay in the pool
+        if (cleared) {
+            drain();
+        }
+    }
+
+    /**
+     * Drops all idle ciphers and stops pooling released ones.
+     */
+    void clear() {
+        cleared = true;
+        drain();
+    }
+
+    private void drain() {
+        while (idle.pollFirst() != null) {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    int getIdleCount() {
+        return idleCount.get();
+    }
+
+    long getCreatedCount() {
+        return created.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CipherPool [maxIdle=" + maxIdle + ", idle=" + idleCount.get() + ", created=" + created.get() + "]";
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Locale;
+
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Version 2 of the envelope format, which replaces the DER encoded {@link AlgorithmParameters} of version 1 with fixed-width fields:
+ * <ol>
+ * <li>the version (1 byte, always {@value #VERSION}, version 1 envelopes always start with {@code 0} as the first byte of the length of
+ * the parameters name),</li>
+ * <li>the profile id (1 byte), which determines how the parameters are built from the remaining fields,</li>
+ * <li>the IV length (1 byte),</li>
+ * <li>the authentication tag length in bytes (1 byte, {@code 0} for non-AEAD ciphers),</li>
+ * <li>the salt length (1 byte),</li>
+ * <li>the salt the key has been derived with,</li>
+ * <li>the IV and</li>
+ * <li>the cipher data.</li>
+ * </ol>
+ * Ciphers with parameters not covered by a profile (e.g. PBE ciphers with their salt and iteration count in the parameters) still use
+ * version 1.
+ */
+final class CompactEnvelope {
+
+    static final byte VERSION = 2;
+
+    /** cipher without parameters */
+    static final byte PROFILE_NONE = 0;
+    /** {@link GCMParameterSpec} with IV and tag length */
+    static final byte PROFILE_GCM = 1;
+    /** {@link IvParameterSpec} */
+    static final byte PROFILE_IV = 2;
+
+    static final int FIXED_HEADER_LENGTH = 5;
+    static final int PROFILE_INDEX = 1;
+    static final int TAG_LENGTH_INDEX = 3;
+    static final int SALT_LENGTH_INDEX = 4;
+
+    private final byte profile;
+    private final int tagLengthBytes;
+    private final byte[] salt;
+    private final byte[] iv;
+
+    private CompactEnvelope(byte profile, int tagLengthBytes, byte @NotNull [] salt, byte @NotNull [] iv) {
+        this.profile = profile;
+        this.tagLengthBytes = tagLengthBytes;
+        this.salt = salt;
+        this.iv = iv;
+    }
+
+    /**
+     * @param buffer the envelope
+     * @return {@code true} in case the envelope starting at the current position of the buffer is a version 2 envelope
+     */
+    static boolean isCompact(@NotNull ByteBuffer buffer) {
+        return buffer.hasRemaining() && buffer.get(buffer.position()) == VERSION;
+    }
+
+    /**
+     * Creates the header for the parameters of a cipher initialized for encryption.
+     *
+     * @param params the parameters of the cipher, may be {@code null}
+     * @param iv the IV of the cipher, may be {@code null}
+     * @param salt the salt the key has been derived with
+     * @param isSaltIncludedInParams {@code true} for PBE ciphers which have the salt and iteration count in their parameters
+     * @return the header or {@code null} in case the parameters are not covered by any profile
+     */
+    static byte @Nullable [] createHeader(@Nullable AlgorithmParameters params, byte @Nullable [] iv, byte @NotNull [] salt,
+            boolean isSaltIncludedInParams) {
+        final byte profile;
+        int tagLengthBytes = 0;
+        if (params == null) {
+            if (iv != null) {
+                return null;
+            }
+            profile = PROFILE_NONE;
+        } else if (isSaltIncludedInParams || iv == null || iv.length > 255) {
+            return null;
+        } else if ("GCM".equalsIgnoreCase(params.getAlgorithm())) {
+            try {
+                tagLengthBytes = params.getParameterSpec(GCMParameterSpec.class).getTLen() / Byte.SIZE;
+            } catch (InvalidParameterSpecException e) {
+                return null;
+            }
+            profile = PROFILE_GCM;
+        } else if (hasOnlyIv(params)) {
+            profile = PROFILE_IV;
+        } else {
+            return null;
+        }
+        if (salt.length > 255) {
+            return null;
+        }
+        final byte[] ivBytes = iv != null ? iv : new byte[0];
+        return ByteBuffer.allocate(FIXED_HEADER_LENGTH + salt.length + ivBytes.length)
+                .put(VERSION)
+                .put(profile)
+                .put((byte) ivBytes.length)
+                .put((byte) tagLengthBytes)
+                .put((byte) salt.length)
+                .put(salt)
+                .put(ivBytes)
+                .array();
+    }
+
+    private static boolean hasOnlyIv(@NotNull AlgorithmParameters params) {
+        if (params.getAlgorithm().toUpperCase(Locale.ROOT).startsWith("RC")) {
+            // RC2/RC5 parameters contain additional settings
+            return false;
+        }
+        try {
+            params.getParameterSpec(IvParameterSpec.class);
+            return true;
+        } catch (InvalidParameterSpecException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a version 2 envelope.
+     *
+     * @param buffer the envelope, on return its position is at the start of the cipher data
+     * @return the parsed header
+     * @throws IllegalArgumentException in case the header is invalid or truncated
+     */
+    static @NotNull CompactEnvelope parse(@NotNull ByteBuffer buffer) {
+        try {
+            final byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported envelope version " + version);
+            }
+            final byte profile = buffer.get();
+            if (profile != PROFILE_NONE && profile != PROFILE_GCM && profile != PROFILE_IV) {
+                throw new IllegalArgumentException("Unsupported envelope profile " + profile);
+            }
+            final byte[] iv = new byte[Byte.toUnsignedInt(buffer.get())];
+            final int tagLengthBytes = Byte.toUnsignedInt(buffer.get());
+            final byte[] salt = new byte[Byte.toUnsignedInt(buffer.get())];
+            buffer.get(salt).get(iv);
+            return new CompactEnvelope(profile, tagLengthBytes, salt, iv);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated cipher text", e);
+        }
+    }
+
+    byte @NotNull [] getSalt() {
+        return salt;
+    }
+
+    /**
+     * @return the parameters to initialize the cipher for decryption with, {@code null} for ciphers without parameters
+     */
+    @Nullable AlgorithmParameterSpec getParameterSpec() {
+        switch (profile) {
+            case PROFILE_GCM:
+                return new GCMParameterSpec(tagLengthBytes * Byte.SIZE, iv);
+            case PROFILE_IV:
+                return new IvParameterSpec(iv);
+            default:
+                return null;
+        }
+    }
+
+}
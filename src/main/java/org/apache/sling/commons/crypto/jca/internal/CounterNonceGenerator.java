@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deterministic construction of GCM nonces according to NIST SP 800-38D, section 8.2.1: each nonce is a random fixed field (4 bytes)
+ * followed by an invocation counter (8 bytes). Only the atomic counter is touched per nonce, so no random bytes are needed.
+ * <p>
+ * Nonces must never repeat for the same key. Therefore each sequence of nonces comes with its own random salt for deriving the key,
+ * i.e. no two generators (even across restarts or cluster nodes sharing the password) ever use the same key. Once the invocation limit
+ * is reached a new sequence with a fresh salt (and therefore a new key) is started.
+ *
+ * @see <a href="https://nvlpubs.nist.gov/nistpubs/Legacy/SP/nistspecialpublication800-38d.pdf">NIST SP 800-38D</a>
+ */
+final class CounterNonceGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CounterNonceGenerator.class);
+
+    static final int FIXED_FIELD_LENGTH = 4;
+    static final int INVOCATION_FIELD_LENGTH = Long.BYTES;
+    static final int NONCE_LENGTH = FIXED_FIELD_LENGTH + INVOCATION_FIELD_LENGTH;
+
+    private final SecureRandom secureRandom;
+    private final int saltLength;
+    private final long invocationLimit;
+    private final UnaryOperator<byte[]> headerPrefixFactory;
+    private final AtomicReference<Sequence> current;
+    private final AtomicLong rekeyCount = new AtomicLong();
+
+    /**
+     * @param secureRandom the source for salts and fixed fields
+     * @param saltLength the length of the salts
+     * @param invocationLimit the maximum number of nonces per key
+     * @param headerPrefixFactory creates the envelope header prefix for a salt
+     */
+    CounterNonceGenerator(@NotNull SecureRandom secureRandom, int saltLength, long invocationLimit,
+            @NotNull UnaryOperator<byte[]> headerPrefixFactory) {
+        if (invocationLimit < 1) {
+            throw new IllegalArgumentException("Invocation limit must be positive but is " + invocationLimit);
+        }
+        this.secureRandom = secureRandom;
+        this.saltLength = saltLength;
+        this.invocationLimit = invocationLimit;
+        this.headerPrefixFactory = headerPrefixFactory;
+        this.current = new AtomicReference<>(newSequence());
+    }
+
+    private @NotNull Sequence newSequence() {
+        final byte[] salt = new byte[saltLength];
+        final byte[] fixedField = new byte[FIXED_FIELD_LENGTH];
+        secureRandom.nextBytes(salt);
+        secureRandom.nextBytes(fixedField);
+        return new Sequence(salt, fixedField, headerPrefixFactory.apply(salt));
+    }
+
+    int getSaltLength() {
+        return saltLength;
+    }
+
+    /**
+     * @return the next nonce, never returned before for the same salt
+     */
+    @NotNull Nonce next() {
+        while (true) {
+            final Sequence sequence = current.get();
+            final long invocation = sequence.counter.getAndIncrement();
+            if (invocation >= 0 && invocation < invocationLimit) {
+                final byte[] iv = ByteBuffer.allocate(NONCE_LENGTH).put(sequence.fixedField).putLong(invocation).array();
+                return new Nonce(sequence.salt, iv, sequence.headerPrefix);
+            }
+            // exhausted, concurrent callers may create sequences as well but only one wins
+            if (current.compareAndSet(sequence, newSequence())) {
+                rekeyCount.incrementAndGet();
+                LOGGER.info("Invocation limit {} of GCM nonces reached, switched to a new key", invocationLimit);
+            }
+        }
+    }
+
+    long getRekeyCount() {
+        return rekeyCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CounterNonceGenerator [invocationLimit=" + invocationLimit + ", rekeys=" + rekeyCount.get() + "]";
+    }
+
+    private static final class Sequence {
+        private final byte[] salt;
+        private final byte[] fixedField;
+        private final byte[] headerPrefix;
+        private final AtomicLong counter = new AtomicLong();
+
+        Sequence(byte @NotNull [] salt, byte @NotNull [] fixedField, byte @NotNull [] headerPrefix) {
+            this.salt = salt;
+            this.fixedField = fixedField;
+            this.headerPrefix = headerPrefix;
+        }
+    }
+
+    /**
+     * A nonce together with the salt of the key it must be used with.
+     */
+    static final class Nonce {
+        private final byte[] salt;
+        private final byte[] iv;
+        private final byte[] headerPrefix;
+
+        Nonce(byte @NotNull [] salt, byte @NotNull [] iv, byte @NotNull [] headerPrefix) {
+            this.salt = salt;
+            this.iv = iv;
+            this.headerPrefix = headerPrefix;
+        }
+
+        /**
+         * @return the salt to derive the key with, must not be modified
+         */
+        byte @NotNull [] getSalt() {
+            return salt;
+        }
+
+        byte @NotNull [] getIv() {
+            return iv;
+        }
+
+        /**
+         * @return the envelope header prefix for the salt, must not be modified
+         */
+        byte @NotNull [] getHeaderPrefix() {
+            return headerPrefix;
+        }
+    }
+
+}
@@ -0,0 +1,372 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable settings of a {@link JcaPbeCryptoService} compiled from its configuration at activation, so that encryption and
+ * decryption neither call the configuration proxy nor parse algorithm names.
+ * <p>
+ * The providers for the cipher and the secret key factory are resolved once. The JCA engine classes cannot be instantiated from a
+ * {@link Provider.Service} directly, therefore the provider owning the resolved service is passed to {@code getInstance}, which skips
+ * the search through all installed providers. Algorithms not available at activation are looked up on each use instead.
+ */
+final class CryptoProfile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CryptoProfile.class);
+
+    private static final char[] PROBE_PASSWORD = "probe".toCharArray();
+
+    private final String cipherAlgorithm;
+    private final String keyAlgorithm;
+    private final String secretKeyFactoryAlgorithm;
+    private final int numKeyIterations;
+    private final int keyLengthBits;
+    private final boolean isPbeCipher;
+    private final @Nullable Provider securityProvider;
+    private final @Nullable Provider cipherProvider;
+    private final @Nullable Provider.Service secretKeyFactoryService;
+    private final int envelopeVersion;
+    private final byte @Nullable [] compactHeaderPrefix;
+    private final int compactIvLength;
+    private final int batchParallelismThreshold;
+    private final int saltLength;
+    /**
+     * The sizes of envelope header and cipher output, {@code null} in case the cipher was not available at activation.
+     */
+    private final @Nullable Sizing sizing;
+
+    private CryptoProfile(@NotNull JcaPbeCryptoServiceConfiguration configuration, byte @NotNull [] salt, @Nullable Provider boundProvider) {
+        cipherAlgorithm = configuration.cipherAlgorithm();
+        keyAlgorithm = JcaPbeCryptoService.extractAlgorithmName(cipherAlgorithm);
+        secretKeyFactoryAlgorithm = configuration.secretKeyFactoryAlgorithm();
+        numKeyIterations = configuration.numKeyIterations();
+        keyLengthBits = configuration.keyLengthBits();
+        isPbeCipher = secretKeyFactoryAlgorithm.equals(cipherAlgorithm);
+        final String securityProviderName = configuration.securityProviderName();
+        if (boundProvider != null) {
+            securityProvider = boundProvider;
+        } else {
+            securityProvider = securityProviderName != null && !securityProviderName.isBlank() ? Security.getProvider(securityProviderName) : null;
+        }
+        if (securityProvider != null) {
+            LOGGER.debug("Using security provider {} for JCA PBE Crypto Service", securityProvider);
+        }
+        secretKeyFactoryService = resolveService("SecretKeyFactory", secretKeyFactoryAlgorithm, securityProvider);
+        envelopeVersion = configuration.envelopeVersion();
+        batchParallelismThreshold = configuration.batchParallelismThreshold();
+        saltLength = salt.length;
+
+        Cipher probe = null;
+        try {
+            probe = securityProvider != null ? Cipher.getInstance(cipherAlgorithm, securityProvider) : Cipher.getInstance(cipherAlgorithm);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            LOGGER.debug("Cipher {} not available yet, resolving it on each use", cipherAlgorithm, e);
+        }
+        cipherProvider = probe != null ? probe.getProvider() : null;
+        final boolean initialized = probe != null && initProbe(probe);
+        final byte[] header = initialized && envelopeVersion >= CompactEnvelope.VERSION ? createProbeHeader(probe, salt) : null;
+        if (header != null) {
+            compactIvLength = probe.getIV() != null ? probe.getIV().length : 0;
+            compactHeaderPrefix = Arrays.copyOf(header, header.length - compactIvLength);
+        } else {
+            compactIvLength = 0;
+            compactHeaderPrefix = null;
+        }
+        sizing = initialized ? createSizing(probe) : null;
+    }
+
+    /**
+     * @param configuration the configuration
+     * @param salt the salt for the encryption key
+     * @return the compiled profile
+     */
+    static @NotNull CryptoProfile compile(@NotNull JcaPbeCryptoServiceConfiguration configuration, byte @NotNull [] salt) {
+        return new CryptoProfile(configuration, salt, null);
+    }
+
+    /**
+     * @param configuration the configuration
+     * @param salt the salt for the encryption key
+     * @param boundProvider the provider selected by the security provider target, takes precedence over the configured provider name
+     * @return the compiled profile
+     */
+    static @NotNull CryptoProfile compile(@NotNull JcaPbeCryptoServiceConfiguration configuration, byte @NotNull [] salt,
+            @Nullable Provider boundProvider) {
+        return new CryptoProfile(configuration, salt, boundProvider);
+    }
+
+    private static @Nullable Provider.Service resolveService(@NotNull String type, @NotNull String algorithm, @Nullable Provider provider) {
+        if (provider != null) {
+            return provider.getService(type, algorithm);
+        }
+        for (final Provider candidate : Security.getProviders()) {
+            final Provider.Service service = candidate.getService(type, algorithm);
+            if (service != null) {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Initializes the given cipher for encryption with a throwaway key to find out about the parameters it generates and the size of its
+     * output.
+     *
+     * @return {@code false} in case the cipher could not be initialized
+     */
+    private boolean initProbe(@NotNull Cipher probe) {
+        try {
+            // PBE keys only wrap the password, salt and iteration count are generated by the cipher
+            final Key key = isPbeCipher ? newSecretKeyFactory().generateSecret(new PBEKeySpec(PROBE_PASSWORD))
+                    : new SecretKeySpec(new byte[keyLengthBits / Byte.SIZE], keyAlgorithm);
+            probe.init(Cipher.ENCRYPT_MODE, key, new SecureRandom());
+            return true;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            LOGGER.debug("Could not initialize cipher {} with a throwaway key", cipherAlgorithm, e);
+            return false;
+        }
+    }
+
+    /**
+     * @param probe the cipher initialized for encryption
+     * @return the sizes of the version 1 header and the cipher output
+     */
+    private @NotNull Sizing createSizing(@NotNull Cipher probe) {
+        // see JcaPbeCryptoEngine#createHeader(AlgorithmParameters)
+        int legacyHeaderLength = 2 * Integer.BYTES;
+        final AlgorithmParameters params = probe.getParameters();
+        if (params != null) {
+            try {
+                legacyHeaderLength += params.getAlgorithm().getBytes(StandardCharsets.UTF_8).length + params.getEncoded().length;
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not encode parameters of cipher " + cipherAlgorithm, e);
+            }
+        }
+        if (!isPbeCipher) {
+            legacyHeaderLength += Integer.BYTES + saltLength;
+        }
+        // the output of an empty message is the padding (at most one block) or the authentication tag
+        return new Sizing(legacyHeaderLength, probe.getOutputSize(0));
+    }
+
+    /**
+     * Finds out about the parameters the initialized cipher generates for encryption.
+     *
+     * @return the version 2 header or {@code null} in case the parameters are not covered by any profile of {@link CompactEnvelope}
+     */
+    private byte @Nullable [] createProbeHeader(@NotNull Cipher probe, byte @NotNull [] salt) {
+        if (isPbeCipher) {
+            return null;
+        }
+        try {
+            final AlgorithmParameters params = probe.getParameters();
+            return CompactEnvelope.createHeader(params, probe.getIV(), salt, false);
+        } catch (RuntimeException e) {
+            LOGGER.debug("Could not determine parameters of cipher {}, envelope header is created on each encryption", cipherAlgorithm, e);
+            return null;
+        }
+    }
+
+    /**
+     * Computes the maximum ciphertext length from the compiled settings, without deriving a key or initializing a cipher (unless the
+     * cipher was not available at activation).
+     *
+     * @param messageLength the length of the message
+     * @param saltLength the length of the salt the key is derived with
+     * @return the maximum length of the envelope including the header
+     */
+    int getMaxCiphertextLength(int messageLength, int saltLength) {
+        Sizing sizing = this.sizing;
+        if (sizing == null) {
+            try {
+                final Cipher probe = newCipher();
+                if (!initProbe(probe)) {
+                    throw new IllegalStateException("Could not initialize cipher " + cipherAlgorithm);
+                }
+                sizing = createSizing(probe);
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                throw new IllegalStateException("Cipher " + cipherAlgorithm + " not available", e);
+            }
+        }
+        // the IV length of a cipher does not change, so the compact header applies to all encryptions once the probe fits it
+        final int headerLength = compactHeaderPrefix != null ? CompactEnvelope.FIXED_HEADER_LENGTH + saltLength + compactIvLength
+                : sizing.legacyHeaderLength;
+        return headerLength + messageLength + sizing.cipherOverhead;
+    }
+
+    @NotNull Cipher newCipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        return cipherProvider != null ? Cipher.getInstance(cipherAlgorithm, cipherProvider) : Cipher.getInstance(cipherAlgorithm);
+    }
+
+    @NotNull SecretKeyFactory newSecretKeyFactory() throws NoSuchAlgorithmException {
+        if (secretKeyFactoryService != null) {
+            return SecretKeyFactory.getInstance(secretKeyFactoryAlgorithm, secretKeyFactoryService.getProvider());
+        }
+        return securityProvider != null ? SecretKeyFactory.getInstance(secretKeyFactoryAlgorithm, securityProvider)
+                : SecretKeyFactory.getInstance(secretKeyFactoryAlgorithm);
+    }
+
+    /**
+     * @return the provider configured for all algorithms, {@code null} to use the first provider supporting an algorithm
+     */
+    @Nullable Provider getSecurityProvider() {
+        return securityProvider;
+    }
+
+    /**
+     * Creates the version 2 header from the precomputed prefix.
+     *
+     * @param iv the IV of the cipher initialized for encryption
+     * @return the header or {@code null} in case version 2 is disabled or the IV does not fit the precomputed prefix
+     */
+    byte @Nullable [] createCompactHeader(byte @Nullable [] iv) {
+        return compactHeaderPrefix != null ? createCompactHeader(compactHeaderPrefix, iv) : null;
+    }
+
+    /**
+     * Creates the version 2 header from the given prefix.
+     *
+     * @param prefix the prefix obtained from {@link #createCompactHeaderPrefix(byte[])}
+     * @param iv the IV of the cipher initialized for encryption
+     * @return the header or {@code null} in case the IV does not fit the prefix
+     */
+    byte @Nullable [] createCompactHeader(byte @NotNull [] prefix, byte @Nullable [] iv) {
+        if ((iv == null ? 0 : iv.length) != compactIvLength) {
+            return null;
+        }
+        final byte[] header = Arrays.copyOf(prefix, prefix.length + compactIvLength);
+        if (iv != null) {
+            System.arraycopy(iv, 0, header, prefix.length, compactIvLength);
+        }
+        return header;
+    }
+
+    /**
+     * Creates the version 2 header prefix (everything except for the IV) for a key derived with another salt than the one given at
+     * activation.
+     *
+     * @param salt the salt the key has been derived with
+     * @return the prefix or {@code null} in case version 2 is disabled or not supported by the cipher
+     */
+    byte @Nullable [] createCompactHeaderPrefix(byte @NotNull [] salt) {
+        if (compactHeaderPrefix == null || salt.length > 255) {
+            return null;
+        }
+        final byte[] prefix = Arrays.copyOf(compactHeaderPrefix, CompactEnvelope.FIXED_HEADER_LENGTH + salt.length);
+        prefix[CompactEnvelope.SALT_LENGTH_INDEX] = (byte) salt.length;
+        System.arraycopy(salt, 0, prefix, CompactEnvelope.FIXED_HEADER_LENGTH, salt.length);
+        return prefix;
+    }
+
+    /**
+     * @return the tag length in bits in case the cipher uses GCM parameters and version 2 envelopes, otherwise {@code 0}
+     */
+    int getGcmTagLengthBits() {
+        if (compactHeaderPrefix == null || compactHeaderPrefix[CompactEnvelope.PROFILE_INDEX] != CompactEnvelope.PROFILE_GCM) {
+            return 0;
+        }
+        return Byte.toUnsignedInt(compactHeaderPrefix[CompactEnvelope.TAG_LENGTH_INDEX]) * Byte.SIZE;
+    }
+
+    int getCompactIvLength() {
+        return compactIvLength;
+    }
+
+    @NotNull String getCipherAlgorithm() {
+        return cipherAlgorithm;
+    }
+
+    /**
+     * @return the algorithm of the cipher key (e.g. "AES" for "AES/GCM/NoPadding")
+     */
+    @NotNull String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    @NotNull String getSecretKeyFactoryAlgorithm() {
+        return secretKeyFactoryAlgorithm;
+    }
+
+    int getNumKeyIterations() {
+        return numKeyIterations;
+    }
+
+    int getKeyLengthBits() {
+        return keyLengthBits;
+    }
+
+    /**
+     * @return {@code true} for PBE ciphers (with the secret key factory algorithm being the cipher algorithm), which derive the key
+     *         themselves and carry salt and iteration count in their parameters
+     */
+    boolean isPbeCipher() {
+        return isPbeCipher;
+    }
+
+    int getEnvelopeVersion() {
+        return envelopeVersion;
+    }
+
+    int getBatchParallelismThreshold() {
+        return batchParallelismThreshold;
+    }
+
+    /**
+     * The length of the version 1 header and the maximum number of bytes the cipher adds to a message.
+     */
+    private static final class Sizing {
+
+        private final int legacyHeaderLength;
+        private final int cipherOverhead;
+
+        Sizing(int legacyHeaderLength, int cipherOverhead) {
+            this.legacyHeaderLength = legacyHeaderLength;
+            this.cipherOverhead = cipherOverhead;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CryptoProfile [cipher=" + cipherAlgorithm + ", cipherProvider=" + (cipherProvider != null ? cipherProvider.getName() : null)
+                + ", secretKeyFactory=" + secretKeyFactoryAlgorithm + ", compactHeader=" + (compactHeaderPrefix != null) + "]";
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache for keys derived from a password with a (usually expensive) key derivation function.
+ * <p>
+ * The cache only keeps the encoded key material. Callers always get their own copy of the key, so they may destroy it after use
+ * without affecting other callers. Evicted and expired entries are wiped. Once {@link #close() closed}, derived keys are no longer
+ * cached, also not the ones of derivations which were running while closing.
+ */
+final class DerivedKeyCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DerivedKeyCache.class);
+
+    /**
+     * Derives a key in case it is not found in the cache.
+     */
+    @FunctionalInterface
+    interface KeyDerivation {
+        @NotNull SecretKey derive() throws NoSuchAlgorithmException, InvalidKeySpecException;
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<CacheKey, CachedKey> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Guarded by the lock.
+     */
+    private boolean closed;
+
+    /**
+     * @param maxSize maximum number of cached keys, {@code 0} disables caching
+     * @param ttlSeconds time to live of a cached key in seconds, {@code 0} or less means keys only leave the cache on eviction
+     */
+    DerivedKeyCache(int maxSize, long ttlSeconds) {
+        this(maxSize, ttlSeconds, System::nanoTime);
+    }
+
+    DerivedKeyCache(int maxSize, long ttlSeconds, @NotNull LongSupplier nanoClock) {
+        this.maxSize = Math.max(0, maxSize);
+        this.ttlNanos = ttlSeconds > 0 ? TimeUnit.SECONDS.toNanos(ttlSeconds) : 0;
+        this.nanoClock = nanoClock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns a copy of the cached key or derives (and caches) a new one.
+     * <p>
+     * The derivation is executed outside of any lock, so concurrent misses for the same key may derive it more than once.
+     *
+     * @param cacheKey the parameters the key was derived from
+     * @param derivation the derivation to execute in case of a cache miss
+     * @return a key which is owned by the caller
+     * @throws NoSuchAlgorithmException in case the key derivation algorithm is not available
+     * @throws InvalidKeySpecException in case the key could not be derived
+     */
+    @NotNull SecretKey get(@NotNull CacheKey cacheKey, @NotNull KeyDerivation derivation) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        if (maxSize == 0) {
+            misses.incrementAndGet();
+            return derivation.derive();
+        }
+        lock.lock();
+        try {
+            final CachedKey cached = entries.get(cacheKey);
+            if (cached != null) {
+                if (!isExpired(cached)) {
+                    hits.incrementAndGet();
+                    return cached.copy();
+                }
+                entries.remove(cacheKey);
+                cached.destroy();
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.incrementAndGet();
+        final SecretKey derived = derivation.derive();
+        final byte[] encoded = derived.getEncoded();
+        if (encoded == null) {
+            // key material not accessible, nothing to cache
+            return derived;
+        }
+        final CachedKey candidate = new CachedKey(encoded, derived.getAlgorithm(), nanoClock.getAsLong() + ttlNanos);
+        lock.lock();
+        try {
+            final CachedKey existing = entries.get(cacheKey);
+            if (closed) {
+                // the derivation outlived the cache, the caller owns the only copy
+                candidate.destroy();
+            } else if (existing != null && !isExpired(existing)) {
+                // another thread was faster
+                candidate.destroy();
+            } else {
+                if (existing != null) {
+                    existing.destroy();
+                }
+                entries.put(cacheKey, candidate);
+                evictEldestEntries();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return derived;
+    }
+
+    private boolean isExpired(@NotNull CachedKey cached) {
+        return ttlNanos > 0 && nanoClock.getAsLong() - cached.expiresAt > 0;
+    }
+
+    private void evictEldestEntries() {
+        final Iterator<CachedKey> iterator = entries.values().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            final CachedKey eldest = iterator.next();
+            iterator.remove();
+            eldest.destroy();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes and wipes all cached keys.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            entries.values().forEach(CachedKey::destroy);
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and wipes all cached keys and stops caching keys, including the ones of derivations still running.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            entries.values().forEach(CachedKey::destroy);
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DerivedKeyCache [maxSize=" + maxSize + ", hits=" + hits.get() + ", misses=" + misses.get() + ", evictions=" + evictions.get() + "]";
+    }
+
+    /**
+     * The parameters a key is derived from (the password only by its version or, for password providers without versions, its digest).
+     */
+    static final class CacheKey {
+
+        private static final byte[] NO_DIGEST = new byte[0];
+
+        private final long passwordVersion;
+        private final byte[] passwordDigest;
+        private final byte[] salt;
+        private final int iterations;
+        private final int keyLengthBits;
+        private final String algorithm;
+        private final int hashCode;
+
+        CacheKey(long passwordVersion, byte @NotNull [] salt, int iterations, int keyLengthBits, @NotNull String algorithm) {
+            this(passwordVersion, NO_DIGEST, salt, iterations, keyLengthBits, algorithm);
+        }
+
+        CacheKey(byte @NotNull [] passwordDigest, byte @NotNull [] salt, int iterations, int keyLengthBits, @NotNull String algorithm) {
+            this(0, passwordDigest, salt, iterations, keyLengthBits, algorithm);
+        }
+
+        private CacheKey(long passwordVersion, byte @NotNull [] passwordDigest, byte @NotNull [] salt, int iterations, int keyLengthBits,
+                @NotNull String algorithm) {
+            this.passwordVersion = passwordVersion;
+            this.passwordDigest = passwordDigest;
+            this.salt = salt.clone();
+            this.iterations = iterations;
+            this.keyLengthBits = keyLengthBits;
+            this.algorithm = algorithm;
+            this.hashCode = Objects.hash(passwordVersion, Arrays.hashCode(passwordDigest), Arrays.hashCode(this.salt), iterations,
+                    keyLengthBits, algorithm);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) obj;
+            return passwordVersion == other.passwordVersion && iterations == other.iterations
+                    && keyLengthBits == other.keyLengthBits && algorithm.equals(other.algorithm)
+                    && Arrays.equals(salt, other.salt) && Arrays.equals(passwordDigest, other.passwordDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class CachedKey {
+
+        private final byte[] encoded;
+        private final String algorithm;
+        private final long expiresAt;
+
+        CachedKey(byte[] encoded, String algorithm, long expiresAt) {
+            this.encoded = encoded;
+            this.algorithm = algorithm;
+            this.expiresAt = expiresAt;
+        }
+
+        SecretKey copy() {
+            return new SecretKeySpec(encoded, algorithm);
+        }
+
+        void destroy() {
+            LOGGER.trace("Wiping cached key for algorithm {}", algorithm);
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+}
@@ -0,0 +1,836 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.sling.commons.crypto.BatchCryptoService;
+import org.apache.sling.commons.crypto.BinaryCryptoService;
+import org.apache.sling.commons.crypto.CryptoResult;
+import org.apache.sling.commons.crypto.PasswordProvider;
+import org.apache.sling.commons.crypto.RandomSource;
+import org.apache.sling.commons.crypto.VersionedPasswordProvider;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The encryption and decryption logic of a {@link JcaPbeCryptoService} for one configuration, together with the state derived from it
+ * (compiled profile, derived keys, pooled ciphers and the async executor).
+ * <p>
+ * Engines are reference counted, so that a reconfigured service can replace its engine while operations are still in flight: the
+ * service holds one reference until the engine is retired, each operation holds one while it runs. Once the last reference is
+ * released, the executor is shut down and the cached key material is destroyed.
+ */
+@SuppressWarnings({ "java:S1117", "java:S3077", "java:S6212" })
+final class JcaPbeCryptoEngine implements BinaryCryptoService, BatchCryptoService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JcaPbeCryptoEngine.class);
+
+    private static final int MIN_NONCE_SALT_LENGTH = 16;
+
+    private static final String PASSWORD_DIGEST_ALGORITHM = "SHA-256";
+
+    private final PasswordProvider passwordProvider;
+
+    /**
+     * Either the view of the bound {@link RandomSource} or an instance of this service guarded by a lock.
+     */
+    private final SecureRandom secureRandom;
+
+    private final JcaPbeCryptoServiceConfiguration configuration;
+
+    /**
+     * This salt is only relevant for the encryption key, for decryption keys the salt is extracted from the cipher data.
+     * The salt is initialized once during service activation and is used for all encryption operations. 
+     * As the salt is not used for the IV (initialization vector) of the cipher, it does not need to be unique for each encryption operation.
+     */
+    private final byte[] salt;
+
+    /**
+     * Keys derived from the password, keyed by salt and the derivation parameters.
+     * Usually contains the key for the activation salt and the ones for salts extracted from decrypted envelopes.
+     */
+    private final DerivedKeyCache keyCache;
+
+    /**
+     * Idle cipher instances, each one is re-initialized (with a fresh IV for encryption) whenever it is borrowed.
+     */
+    private final CipherPool cipherPool;
+
+    /**
+     * The configuration compiled at activation, used on all hot paths instead of the configuration proxy.
+     */
+    private final CryptoProfile profile;
+
+    private final SegmentedStreamCipher streamCipher;
+
+    private final AsyncCryptoExecutor asyncExecutor;
+
+    /**
+     * Only set for counter-based nonces, otherwise the cipher generates random nonces.
+     */
+    private final @Nullable CounterNonceGenerator nonceGenerator;
+
+    /**
+     * The reference held by the service plus one per running operation.
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    JcaPbeCryptoEngine(final JcaPbeCryptoServiceConfiguration configuration, byte[] salt, PasswordProvider passwordProvider,
+            @Nullable RandomSource randomSource, @Nullable Provider securityProvider) throws NoSuchAlgorithmException { //
+        this.configuration = configuration;
+        this.passwordProvider = passwordProvider;
+        if (randomSource != null) {
+            this.secureRandom = randomSource.asSecureRandom();
+        } else if (configuration.secureRandomAlgorithm() != null && !configuration.secureRandomAlgorithm().isBlank()) {
+            this.secureRandom = new LockingSecureRandom(SecureRandom.getInstance(configuration.secureRandomAlgorithm()));
+        } else {
+            this.secureRandom = new LockingSecureRandom(new SecureRandom());
+        }
+        this.salt = salt;
+        this.profile = CryptoProfile.compile(configuration, salt, securityProvider);
+        LOGGER.debug("Compiled {}", profile);
+        this.keyCache = new DerivedKeyCache(configuration.keyCacheSize(), configuration.keyCacheTtlSeconds());
+        this.cipherPool = new CipherPool(configuration.cipherPoolSize(), this::newCipher);
+        this.streamCipher = new SegmentedStreamCipher(configuration.streamSegmentSize(), secureRandom, profile.getSecurityProvider());
+        this.asyncExecutor = new AsyncCryptoExecutor(configuration.asyncExecutorType(), configuration.asyncThreads(),
+                configuration.asyncMaxPending(), "sling-commons-crypto-jca");
+        this.nonceGenerator = createNonceGenerator(configuration);
+    }
+
+    private @Nullable CounterNonceGenerator createNonceGenerator(final JcaPbeCryptoServiceConfiguration configuration) {
+        if (!JcaPbeCryptoService.NONCE_STRATEGY_COUNTER.equals(configuration.nonceStrategy())) {
+            return null;
+        }
+        if (profile.getGcmTagLengthBits() == 0 || profile.getCompactIvLength() != CounterNonceGenerator.NONCE_LENGTH) {
+            LOGGER.warn("Counter-based nonces require a GCM cipher with {} byte nonces and envelope version 2, using random nonces for {}",
+                    CounterNonceGenerator.NONCE_LENGTH, profile);
+            return null;
+        }
+        return new CounterNonceGenerator(secureRandom, Math.max(salt.length, MIN_NONCE_SALT_LENGTH), configuration.nonceInvocationLimit(),
+                nonceSalt -> Objects.requireNonNull(profile.createCompactHeaderPrefix(nonceSalt)));
+    }
+
+    /**
+     * Acquires a reference, which needs to be given back with {@link #release()}.
+     *
+     * @return {@code false} in case the engine has already been destroyed
+     */
+    boolean acquire() {
+        while (true) {
+            final int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a reference obtained from {@link #acquire()}, the last one destroys the engine.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            destroy();
+        }
+    }
+
+    /**
+     * Gives back the reference of the service, the engine is destroyed as soon as all running operations are finished.
+     */
+    void retire() {
+        LOGGER.debug("retiring, {}, {}, {}, {}", keyCache, cipherPool, asyncExecutor, nonceGenerator);
+        release();
+    }
+
+    boolean isDestroyed() {
+        return references.get() == 0;
+    }
+
+    private void destroy() {
+        LOGGER.debug("destroying {}", profile);
+        asyncExecutor.shutdown();
+        keyCache.close();
+        cipherPool.clear();
+    }
+
+    /**
+     * Derives the key for the configured salt and creates a cipher, so that the first operations do not have to wait for the key
+     * derivation and the provider lookup.
+     *
+     * @throws GeneralSecurityException */
+    void warmUp() throws GeneralSecurityException {
+        JcaPbeCryptoService.destroyKey(obtainKey(salt));
+        cipherPool.release(cipherPool.borrow());
+    }
+
+    /**
+     * Drops all keys derived from the previous password and derives the key for the configured salt again in the background, so
+     * the next operation does not have to wait for the key derivation.
+     */
+    void passwordChanged(long version) {
+        LOGGER.debug("password changed to version {}, clearing {}", version, keyCache);
+        keyCache.clear();
+        if (profile.isPbeCipher() || !acquire()) {
+            return;
+        }
+        asyncExecutor.supply(() -> {
+            try {
+                JcaPbeCryptoService.destroyKey(obtainKey(salt));
+            } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+                LOGGER.warn("deriving key for password version {} failed: {}", version, e.getMessage());
+            }
+            return null;
+        }).whenComplete((result, throwable) -> {
+            release();
+            if (throwable != null) {
+                // e.g. rejected during deactivation, the key is derived on demand then
+                LOGGER.debug("deriving key for password version {} in background failed: {}", version, throwable.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Returns the key for the given salt, either from the cache or by deriving it from the password.
+     * The returned key is owned by the caller and should be destroyed after use.
+     *
+     * @param salt the salt to derive the key with
+     * @return the key
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeySpecException */
+    private @NotNull SecretKey obtainKey(byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        if (profile.isPbeCipher()) {
+            // the key just wraps the password and the actual derivation happens in the cipher, nothing to cache
+            return createKey(salt);
+        }
+        if (passwordProvider instanceof VersionedPasswordProvider) {
+            // the version must be read before the password, otherwise a key derived from a new password might be cached for the old version
+            final long passwordVersion = ((VersionedPasswordProvider) passwordProvider).getPasswordVersion();
+            final DerivedKeyCache.CacheKey cacheKey = new DerivedKeyCache.CacheKey(passwordVersion, salt, profile.getNumKeyIterations(),
+                    profile.getKeyLengthBits(), profile.getSecretKeyFactoryAlgorithm());
+            return keyCache.get(cacheKey, () -> createKey(salt));
+        }
+        // without versions a changed password is only noticed by fetching it, the key is cached for the digest of the fetched password
+        final char[] password = passwordProvider.getPassword();
+        final DerivedKeyCache.CacheKey cacheKey = new DerivedKeyCache.CacheKey(digest(password), salt, profile.getNumKeyIterations(),
+                profile.getKeyLengthBits(), profile.getSecretKeyFactoryAlgorithm());
+        return keyCache.get(cacheKey, () -> createKey(password, salt));
+    }
+
+    private static byte @NotNull [] digest(char @NotNull [] password) throws NoSuchAlgorithmException {
+        final ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        final byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        try {
+            return MessageDigest.getInstance(PASSWORD_DIGEST_ALGORITHM).digest(bytes);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+            if (encoded.hasArray()) {
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
+        }
+    }
+
+    private @NotNull SecretKey createKey(byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        return createKey(passwordProvider.getPassword(), salt);
+    }
+
+    private @NotNull SecretKey createKey(char[] password, byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        // for regular PBE key this is completely ignored except for the password (as all logic is encapsulated in the actual cipher
+        // implementation, see
+        // https://github.com/openjdk/jdk/blob/master/src/java.base/share/classes/com/sun/crypto/provider/PBEKeyFactory.java
+        PBEKeySpec keySpec = new PBEKeySpec(
+                password,
+                salt,
+                profile.getNumKeyIterations(),
+                profile.getKeyLengthBits());
+        SecretKeyFactory secretKeyFactory = profile.newSecretKeyFactory();
+        SecretKey originalKey = secretKeyFactory.generateSecret(keySpec);
+        keySpec.clearPassword(); // clear password from memory after use
+        if (profile.isPbeCipher()) {
+            // if the cipher algorithm is the same as the secret key factory algorithm then the cipher takes care of the actual logic and
+            // uses the key as is (which is just a wrapper around the given password)
+            return originalKey;
+        } else {
+            // wrap as key for the proper cipher algorithm (e.g., AES) instead of the PBE algorithm (e.g., PBKDF2WithHmacSHA512)
+            SecretKey derivedKey = new SecretKeySpec(originalKey.getEncoded(), profile.getKeyAlgorithm());
+            JcaPbeCryptoService.destroyKey(originalKey); // destroy the original key as it is no longer needed
+            return derivedKey;
+        }
+    }
+
+    /** @param key the key to initialize the cipher with
+     * @param nonce the nonce to use, {@code null} to rely on default parameters generated by the cipher (e.g., random IV for AES/CBC)
+     * @return a pooled Cipher instance initialized for encryption, must be given back with {@link CipherPool#release(Cipher)}
+     * @throws NoSuchPaddingException
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     * @throws InvalidAlgorithmParameterException */
+    private Cipher createEncryptionCipher(@NotNull Key key, @Nullable CounterNonceGenerator.Nonce nonce)
+            throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException {
+        final Cipher cipher = cipherPool.borrow();
+        try {
+            if (nonce != null) {
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(profile.getGcmTagLengthBits(), nonce.getIv()));
+            } else {
+                cipher.init(Cipher.ENCRYPT_MODE, key, secureRandom);
+            }
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException | RuntimeException e) {
+            cipherPool.release(cipher);
+            throw e;
+        }
+        return cipher;
+    }
+
+    /** @param key the key to initialize the cipher with
+     * @param envelope the parsed envelope
+     * @return a pooled Cipher instance initialized for decryption, must be given back with {@link CipherPool#release(Cipher)}
+     * @throws NoSuchPaddingException
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     * @throws InvalidAlgorithmParameterException */
+    private Cipher createDecryptionCipher(@NotNull Key key, @NotNull Envelope envelope)
+            throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException {
+        final Cipher cipher = cipherPool.borrow();
+        try {
+            if (envelope.params != null) {
+                cipher.init(Cipher.DECRYPT_MODE, key, envelope.params, secureRandom);
+            } else if (envelope.parameterSpec != null) {
+                cipher.init(Cipher.DECRYPT_MODE, key, envelope.parameterSpec, secureRandom);
+            } else {
+                cipher.init(Cipher.DECRYPT_MODE, key, secureRandom);
+            }
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException | RuntimeException e) {
+            cipherPool.release(cipher);
+            throw e;
+        }
+        return cipher;
+    }
+
+    private @NotNull Cipher newCipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        return profile.newCipher();
+    }
+
+    private AlgorithmParameters createAlgorithmParameters(String paramsName, byte[] encodedParams)
+            throws NoSuchAlgorithmException, IOException {
+        // create a new AlgorithmParameters instance for the cipher algorithm and initialize it with the encoded parameters
+        final Provider securityProvider = profile.getSecurityProvider();
+        AlgorithmParameters params = securityProvider != null
+                ? AlgorithmParameters.getInstance(paramsName, securityProvider)
+                : AlgorithmParameters.getInstance(paramsName);
+        params.init(encodedParams);
+        return params;
+    }
+
+    AlgorithmParameters createDefaultAlgorithmParameters() throws InvalidKeyException, NoSuchAlgorithmException,
+            NoSuchPaddingException, InvalidAlgorithmParameterException, IOException, InvalidKeySpecException {
+        SecretKey key = obtainKey(salt);
+        try {
+            Cipher cipher = createEncryptionCipher(key, null);
+            try {
+                return cipher.getParameters();
+            } finally {
+                cipherPool.release(cipher);
+            }
+        } finally {
+            JcaPbeCryptoService.destroyKey(key);
+        }
+    }
+
+    @Override
+    public @NotNull String encrypt(@NotNull final String message) {
+        return Base64.getEncoder().encodeToString(encrypt(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public byte @NotNull [] encrypt(byte @NotNull [] message) {
+        return encrypt(toEnvelope(message));
+    }
+
+    private static @NotNull EncryptOperation<byte[]> toEnvelope(byte @NotNull [] message) {
+        return (cipher, header) -> {
+            final byte[] output = new byte[header.length + cipher.getOutputSize(message.length)];
+            System.arraycopy(header, 0, output, 0, header.length);
+            final int length = header.length + cipher.doFinal(message, 0, message.length, output, header.length);
+            return length == output.length ? output : Arrays.copyOf(output, length);
+        };
+    }
+
+    @Override
+    public int encrypt(@NotNull ByteBuffer message, @NotNull ByteBuffer ciphertext) {
+        return encrypt((cipher, header) -> {
+            final int maxLength = header.length + cipher.getOutputSize(message.remaining());
+            if (ciphertext.remaining() < maxLength) {
+                throw new IllegalArgumentException("Ciphertext buffer too small, " + maxLength + " bytes required but only "
+                        + ciphertext.remaining() + " bytes remaining");
+            }
+            ciphertext.put(header);
+            return header.length + cipher.doFinal(message, ciphertext);
+        });
+    }
+
+    @Override
+    public int getMaxCiphertextLength(int messageLength) {
+        return profile.getMaxCiphertextLength(messageLength, nonceGenerator != null ? nonceGenerator.getSaltLength() : salt.length);
+    }
+
+    /**
+     * An operation on a cipher initialized for encryption.
+     */
+    @FunctionalInterface
+    private interface EncryptOperation<T> {
+        /** @param cipher the cipher initialized for encryption
+         * @param header the envelope header to prepend to the cipher output
+         * @return the result of the operation */
+        T apply(@NotNull Cipher cipher, byte @NotNull [] header) throws GeneralSecurityException;
+    }
+
+    private <T> T encrypt(@NotNull EncryptOperation<T> operation) {
+        final CounterNonceGenerator.Nonce nonce = nonceGenerator != null ? nonceGenerator.next() : null;
+        try {
+            SecretKey key = obtainKey(nonce != null ? nonce.getSalt() : salt);
+            try {
+                return encrypt(key, nonce, operation);
+            } catch (GeneralSecurityException | IOException e) {
+                throw new IllegalStateException("Could not encrypt message", e);
+            } finally {
+                JcaPbeCryptoService.destroyKey(key);
+            }
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException("Could not create key for encryption", e);
+        }
+    }
+
+    /** @param key the key, derived with the salt of the nonce (if given)
+     * @param nonce the nonce to use, {@code null} to let the cipher generate a random one
+     * @param operation the operation
+     * @return the result of the operation */
+    private <T> T encrypt(@NotNull final Key key, @Nullable CounterNonceGenerator.Nonce nonce, @NotNull EncryptOperation<T> operation)
+            throws GeneralSecurityException, IOException {
+        final Cipher cipherEncrypt = createEncryptionCipher(key, nonce);
+        try {
+            final byte[] header = nonce != null
+                    ? Objects.requireNonNull(profile.createCompactHeader(nonce.getHeaderPrefix(), nonce.getIv()))
+                    : createHeader(cipherEncrypt);
+            return operation.apply(cipherEncrypt, header);
+        } finally {
+            cipherPool.release(cipherEncrypt);
+        }
+    }
+
+    /**
+     * Creates the envelope header in the configured version, falling back to version 1 in case the cipher parameters are not covered by
+     * any profile of {@link CompactEnvelope}.
+     *
+     * @param cipher the cipher initialized for encryption
+     * @return the header
+     * @throws IOException */
+    private byte @NotNull [] createHeader(@NotNull Cipher cipher) throws IOException {
+        if (profile.getEnvelopeVersion() >= CompactEnvelope.VERSION) {
+            final byte[] header = profile.createCompactHeader(cipher.getIV());
+            if (header != null) {
+                return header;
+            }
+        }
+        return createHeader(cipher.getParameters());
+    }
+
+    /**
+     * Creates the version 1 envelope header, which is the length-prefixed algorithm name of the parameters, the length-prefixed encoded parameters
+     * and (if the salt is not included in the parameters) the length-prefixed salt.
+     *
+     * @param algorithmParameters the parameters of the cipher initialized for encryption, may be {@code null}
+     * @return the header
+     * @throws IOException */
+    private byte @NotNull [] createHeader(@Nullable AlgorithmParameters algorithmParameters) throws IOException {
+        final byte[] params;
+        final byte[] paramsName;
+        if (algorithmParameters == null) {
+            params = new byte[0];
+            paramsName = new byte[0];
+        } else {
+            params = algorithmParameters.getEncoded();
+            paramsName = algorithmParameters.getAlgorithm().getBytes(StandardCharsets.UTF_8);
+        }
+        int totalLength = Integer.BYTES + paramsName.length + Integer.BYTES + params.length;
+        if (!profile.isPbeCipher()) {
+            totalLength += Integer.BYTES + salt.length; // Include salt in the output if not included in params
+        }
+        ByteBuffer bb = ByteBuffer.allocate(totalLength)
+            .putInt(paramsName.length)
+            .put(paramsName)
+            .putInt(params.length)
+            .put(params);
+        if (!profile.isPbeCipher()) {
+            bb.putInt(salt.length)
+              .put(salt);
+        }
+        return bb.array();
+    }
+
+    @Override
+    public @NotNull String decrypt(@NotNull final String cipherText) {
+        return new String(decrypt(Base64.getDecoder().decode(cipherText)), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte @NotNull [] decrypt(byte @NotNull [] ciphertext) {
+        final ByteBuffer buffer = ByteBuffer.wrap(ciphertext);
+        return decrypt(buffer, cipher -> cipher.doFinal(ciphertext, buffer.position(), buffer.remaining()));
+    }
+
+    @Override
+    public int decrypt(@NotNull ByteBuffer ciphertext, @NotNull ByteBuffer message) {
+        return decrypt(ciphertext, cipher -> {
+            final int maxLength = cipher.getOutputSize(ciphertext.remaining());
+            if (message.remaining() < maxLength) {
+                throw new IllegalArgumentException("Message buffer too small, " + maxLength + " bytes required but only "
+                        + message.remaining() + " bytes remaining");
+            }
+            return cipher.doFinal(ciphertext, message);
+        });
+    }
+
+    /**
+     * An operation on a cipher initialized for decryption.
+     */
+    @FunctionalInterface
+    private interface DecryptOperation<T> {
+        /** @param cipher the cipher initialized for decryption, the cipher data starts at the current position of the envelope buffer
+         * @return the result of the operation */
+        T apply(@NotNull Cipher cipher) throws GeneralSecurityException;
+    }
+
+    private <T> T decrypt(@NotNull ByteBuffer buffer, @NotNull DecryptOperation<T> operation) {
+        final Envelope envelope = parseEnvelope(buffer);
+        try {
+            SecretKey key = obtainKey(envelope.salt);
+            try {
+                return decrypt(key, envelope, operation);
+            } finally {
+                JcaPbeCryptoService.destroyKey(key);
+            }
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException("Could not create key for decryption", e);
+        }
+    }
+
+    private <T> T decrypt(@NotNull Key key, @NotNull Envelope envelope, @NotNull DecryptOperation<T> operation) {
+        try {
+            final Cipher cipher = createDecryptionCipher(key, envelope);
+            try {
+                return operation.apply(cipher);
+            } finally {
+                cipherPool.release(cipher);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Could not decrypt cipher text", e);
+        }
+    }
+
+    /**
+     * The parsed envelope header.
+     */
+    private static final class Envelope {
+        /** the parameters of a version 1 envelope */
+        private final AlgorithmParameters params;
+        /** the parameters of a version 2 envelope */
+        private final AlgorithmParameterSpec parameterSpec;
+        /** the salt the key has been derived with */
+        private final byte[] salt;
+
+        Envelope(@Nullable AlgorithmParameters params, @Nullable AlgorithmParameterSpec parameterSpec, byte @NotNull [] salt) {
+            this.params = params;
+            this.parameterSpec = parameterSpec;
+            this.salt = salt;
+        }
+    }
+
+    /**
+     * Parses the envelope header created by {@link #createHeader(Cipher)}.
+     *
+     * @param buffer the envelope, on return its position is at the start of the cipher data
+     * @return the parsed header
+     * @throws IllegalArgumentException in case the header is invalid or truncated
+     * @throws IllegalStateException in case the algorithm parameters could not be created */
+    private @NotNull Envelope parseEnvelope(@NotNull ByteBuffer buffer) {
+        if (CompactEnvelope.isCompact(buffer)) {
+            final CompactEnvelope envelope = CompactEnvelope.parse(buffer);
+            return new Envelope(null, envelope.getParameterSpec(), envelope.getSalt());
+        }
+        try {
+            // Split up into paramsName, params, and cipherData
+            int paramsNameLength = buffer.getInt();
+            if (paramsNameLength < 0 || paramsNameLength > 255) {
+                throw new IllegalArgumentException("Invalid params name length " + paramsNameLength);
+            }
+            byte[] paramsName = new byte[paramsNameLength];
+            buffer.get(paramsName);
+            String paramsNameStr = new String(paramsName, StandardCharsets.UTF_8);
+            int paramsLength = buffer.getInt();
+            if (paramsLength < 0 || paramsLength > 65535) {
+                throw new IllegalArgumentException("Invalid params length " + paramsLength);
+            }
+            byte[] params = new byte[paramsLength];
+            buffer.get(params);
+            // fast path for well-known encodings
+            final AlgorithmParameterSpec parameterSpec = ParameterSpecDecoder.decode(paramsNameStr, params);
+            final AlgorithmParameters algorithmParams = parameterSpec == null ? createAlgorithmParameters(paramsNameStr, params) : null;
+            final byte[] salt;
+            if (!profile.isPbeCipher()) {
+                // If the salt is not included in the parameters, it is part of the cipher data and needs to be extracted and used to create the algorithm parameters
+                int saltLength = buffer.getInt();
+                if (saltLength < 0 || saltLength > buffer.remaining()) {
+                    throw new IllegalArgumentException("Invalid salt length " + saltLength);
+                }
+                salt = new byte[saltLength];
+                buffer.get(salt);
+            } else {
+                salt = this.salt; // Use the salt from the service configuration
+            }
+            return new Envelope(algorithmParams, parameterSpec, salt);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated cipher text", e);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException("Could not create key for decryption", e);
+        }
+    }
+
+    @Override
+    public @NotNull List<CryptoResult> encryptAll(@NotNull Collection<String> messages) {
+        final String[] items = messages.toArray(new String[0]);
+        final CryptoResult[] results = new CryptoResult[items.length];
+        if (nonceGenerator != null) {
+            // the key changes along with the nonce sequence, rely on the key cache instead
+            batchIndexes(items.length).forEach(i -> {
+                try {
+                    results[i] = CryptoResult.success(encrypt(items[i]));
+                } catch (RuntimeException e) {
+                    results[i] = CryptoResult.failure(e);
+                }
+            });
+            return List.of(results);
+        }
+        final SecretKey key;
+        try {
+            key = obtainKey(salt);
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            Arrays.fill(results, CryptoResult.failure(new IllegalStateException("Could not create key for encryption", e)));
+            return List.of(results);
+        }
+        try {
+            batchIndexes(items.length).forEach(i -> {
+                try {
+                    final byte[] ciphertext = encrypt(key, null, toEnvelope(items[i].getBytes(StandardCharsets.UTF_8)));
+                    results[i] = CryptoResult.success(Base64.getEncoder().encodeToString(ciphertext));
+                } catch (GeneralSecurityException | IOException e) {
+                    results[i] = CryptoResult.failure(new IllegalStateException("Could not encrypt message", e));
+                } catch (RuntimeException e) {
+                    results[i] = CryptoResult.failure(e);
+                }
+            });
+        } finally {
+            JcaPbeCryptoService.destroyKey(key);
+        }
+        return List.of(results);
+    }
+
+    @Override
+    public @NotNull List<CryptoResult> decryptAll(@NotNull Collection<String> ciphertexts) {
+        final String[] items = ciphertexts.toArray(new String[0]);
+        final CryptoResult[] results = new CryptoResult[items.length];
+        final byte[][] buffers = new byte[items.length][];
+        final Envelope[] envelopes = new Envelope[items.length];
+        // group by salt, so that each key is only obtained once per batch
+        final Map<ByteBuffer, SecretKey> keys = new HashMap<>();
+        for (int i = 0; i < items.length; i++) {
+            try {
+                buffers[i] = Base64.getDecoder().decode(items[i]);
+                final ByteBuffer buffer = ByteBuffer.wrap(buffers[i]);
+                envelopes[i] = parseEnvelope(buffer);
+                buffers[i] = Arrays.copyOfRange(buffers[i], buffer.position(), buffers[i].length);
+                keys.put(ByteBuffer.wrap(envelopes[i].salt), null);
+            } catch (RuntimeException e) {
+                results[i] = CryptoResult.failure(e);
+            }
+        }
+        final Map<ByteBuffer, RuntimeException> keyErrors = new HashMap<>();
+        try {
+            for (final Map.Entry<ByteBuffer, SecretKey> entry : keys.entrySet()) {
+                try {
+                    entry.setValue(obtainKey(entry.getKey().array()));
+                } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+                    keyErrors.put(entry.getKey(), new IllegalStateException("Could not create key for decryption", e));
+                }
+            }
+            batchIndexes(items.length).filter(i -> results[i] == null).forEach(i -> {
+                final ByteBuffer salt = ByteBuffer.wrap(envelopes[i].salt);
+                final SecretKey key = keys.get(salt);
+                if (key == null) {
+                    results[i] = CryptoResult.failure(keyErrors.get(salt));
+                    return;
+                }
+                try {
+                    final byte[] message = decrypt(key, envelopes[i], cipher -> cipher.doFinal(buffers[i]));
+                    results[i] = CryptoResult.success(new String(message, StandardCharsets.UTF_8));
+                } catch (RuntimeException e) {
+                    results[i] = CryptoResult.failure(e);
+                }
+            });
+        } finally {
+            keys.values().stream().filter(Objects::nonNull).forEach(JcaPbeCryptoService::destroyKey);
+        }
+        return List.of(results);
+    }
+
+    /**
+     * @param size the number of items of the batch
+     * @return the item indexes, parallel (using the common {@link java.util.concurrent.ForkJoinPool}) if the batch is large enough
+     */
+    private @NotNull IntStream batchIndexes(int size) {
+        final IntStream indexes = IntStream.range(0, size);
+        final int threshold = profile.getBatchParallelismThreshold();
+        return threshold > 0 && size >= threshold ? indexes.parallel() : indexes;
+    }
+
+    @NotNull CompletableFuture<String> encryptAsync(@NotNull String message) {
+        return asyncExecutor.supply(() -> encrypt(message));
+    }
+
+    @NotNull CompletableFuture<String> decryptAsync(@NotNull String ciphertext) {
+        return asyncExecutor.supply(() -> decrypt(ciphertext));
+    }
+
+    @NotNull CompletableFuture<String> encryptAsync(@NotNull String message, @NotNull Executor executor) {
+        return asyncExecutor.supply(() -> encrypt(message), executor);
+    }
+
+    @NotNull CompletableFuture<String> decryptAsync(@NotNull String ciphertext, @NotNull Executor executor) {
+        return asyncExecutor.supply(() -> decrypt(ciphertext), executor);
+    }
+
+    long encrypt(@NotNull ReadableByteChannel message, @NotNull WritableByteChannel ciphertext) throws IOException {
+        checkStreamingSupported();
+        try {
+            SecretKey key = obtainKey(salt);
+            try {
+                return streamCipher.encrypt(key, salt, message, ciphertext);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Could not encrypt message", e);
+            } finally {
+                JcaPbeCryptoService.destroyKey(key);
+            }
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException("Could not create key for encryption", e);
+        }
+    }
+
+    long decrypt(@NotNull ReadableByteChannel ciphertext, @NotNull WritableByteChannel message) throws IOException {
+        checkStreamingSupported();
+        try {
+            return streamCipher.decrypt(this::obtainKey, ciphertext, message);
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException("Could not create key for decryption", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Could not decrypt cipher text", e);
+        }
+    }
+
+    private void checkStreamingSupported() {
+        if (profile.isPbeCipher()) {
+            // the key is just a wrapper around the password, there is no derived key material the stream key could be derived from
+            throw new IllegalStateException("Streaming is not supported for PBE cipher " + profile.getCipherAlgorithm()
+                    + ", use a separate secret key factory algorithm like PBKDF2WithHmacSHA512");
+        }
+    }
+
+    @NotNull DerivedKeyCache getKeyCache() {
+        return keyCache;
+    }
+
+    @NotNull CipherPool getCipherPool() {
+        return cipherPool;
+    }
+
+    @NotNull AsyncCryptoExecutor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    @Nullable CounterNonceGenerator getNonceGenerator() {
+        return nonceGenerator;
+    }
+
+    @Override
+    public @Nullable String getAlgorithmDescription() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("secretKeyFactory=").append(configuration.secretKeyFactoryAlgorithm());
+        sb.append(", cipher=").append(configuration.cipherAlgorithm());
+        final Provider securityProvider = profile.getSecurityProvider();
+        if (securityProvider != null) {
+            sb.append(", provider=").append(securityProvider.getName());
+        } else if (!configuration.securityProviderName().isBlank()) {
+            sb.append(", provider=").append(configuration.securityProviderName());
+        }
+        return sb.toString();
+    }
+    @Override
+    public String toString() {
+        return "JcaPbeCryptoEngine [" + getAlgorithmDescription() + "]";
+    }
+}
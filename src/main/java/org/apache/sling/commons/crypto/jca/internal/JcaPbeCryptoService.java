@@ -19,100 +19,285 @@
 package org.apache.sling.commons.crypto.jca.internal;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
-import java.security.SecureRandom;
-import java.security.Security;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.InvalidParameterSpecException;
-import java.util.Base64;
-import java.util.Objects;
-import java.util.Optional;
-
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.PBEParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.DestroyFailedException;
 
+import org.apache.sling.commons.crypto.AsyncCryptoService;
+import org.apache.sling.commons.crypto.BatchCryptoService;
+import org.apache.sling.commons.crypto.BinaryCryptoService;
+import org.apache.sling.commons.crypto.CryptoResult;
 import org.apache.sling.commons.crypto.CryptoService;
+import org.apache.sling.commons.crypto.PasswordChangeListener;
 import org.apache.sling.commons.crypto.PasswordProvider;
+import org.apache.sling.commons.crypto.RandomSource;
 import org.apache.sling.commons.crypto.SaltProvider;
+import org.apache.sling.commons.crypto.StreamingCryptoService;
+import org.apache.sling.commons.crypto.VersionedPasswordProvider;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.component.propertytypes.ServiceDescription;
 import org.osgi.service.metatype.annotations.Designate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** 
+/**
  * Service for encrypting messages and decrypting ciphertexts using Java Crypto Architecture API. It relies on a {@link SecretKeyFactory} with
  * {@link PBEKeySpec} for key derivation and a symmetric cipher for encryption and decryption.
- * 
+ * <p>
+ * The actual work is done by a {@link JcaPbeCryptoEngine} for the current configuration. A modified configuration is applied without
+ * reactivating the service: a new engine is created and warmed up in the background and replaces the current one once it is ready.
+ * Operations which are still running on the previous engine finish on it, afterwards its key material is destroyed.
+ *
  * @see <a href="https://www.rfc-editor.org/info/rfc8018/#section-6.2">RFC 8018 - PBES2</a>
  * @see <a href="https://docs.oracle.com/en/java/javase/21/security/java-cryptography-architecture-jca-reference-guide.html">Java
  *      Cryptography Architecture (JCA) Reference Guide</a> */
-@Component(service = CryptoService.class)
+@Component(service = { CryptoService.class, BinaryCryptoService.class, StreamingCryptoService.class, BatchCryptoService.class,
+        AsyncCryptoService.class })
 @Designate(ocd = JcaPbeCryptoServiceConfiguration.class, factory = true)
 @ServiceDescription("Apache Sling Commons Crypto – JCA PBE String Crypto Service")
 @SuppressWarnings({ "java:S1117", "java:S3077", "java:S6212" })
-public final class JcaPbeCryptoService implements CryptoService {
+public final class JcaPbeCryptoService implements BinaryCryptoService, StreamingCryptoService, BatchCryptoService,
+        AsyncCryptoService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JcaPbeCryptoService.class);
+
+    static final String NONCE_STRATEGY_RANDOM = "random";
+    static final String NONCE_STRATEGY_COUNTER = "counter";
+
+    /**
+     * No security provider service is bound unless a security provider target is configured, the provider name applies otherwise.
+     */
+    private static final String NO_SECURITY_PROVIDER = "(&(provider.name=*)(!(provider.name=*)))";
+
     private final PasswordProvider passwordProvider;
-    // not thread safe!
-    private final SecureRandom secureRandom;
-    private final Optional<Provider> securityProvider;
 
-    private final JcaPbeCryptoServiceConfiguration configuration;
+    private final @Nullable RandomSource randomSource;
+
+    /**
+     * The security provider selected by the security provider target, takes precedence over the configured provider name.
+     */
+    private final @Nullable Provider securityProvider;
 
     /**
-     * This salt is only relevant for the encryption key, for decryption keys the salt is extracted from the cipher data.
-     * The salt is initialized once during service activation and is used for all encryption operations. 
-     * As the salt is not used for the IV (initialization vector) of the cipher, it does not need to be unique for each encryption operation.
+     * The salt provided at activation, it is kept when the configuration is modified.
      */
     private final byte[] salt;
 
+    /**
+     * The engine for the current configuration, replaced as a whole when the configuration is modified.
+     */
+    private volatile JcaPbeCryptoEngine engine;
+
+    /**
+     * Guards replacing the engine, so that only the engine of the latest configuration is published.
+     */
+    private final ReentrantLock engineLock = new ReentrantLock();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Creates and warms up engines for modified configurations, one at a time and without occupying the common pool.
+     */
+    private final AsyncCryptoExecutor reconfigurationExecutor = new AsyncCryptoExecutor(AsyncCryptoExecutor.TYPE_PLATFORM, 1, 0,
+            "sling-commons-crypto-jca-reconfiguration");
+
+    private boolean deactivated;
+
+    /**
+     * Only set for versioned password providers, drops cached keys derived from a previous password.
+     */
+    private final @Nullable PasswordChangeListener passwordChangeListener;
+
     @Activate
     public JcaPbeCryptoService(final JcaPbeCryptoServiceConfiguration configuration, BundleContext bundleContext,
-            @Reference(name="passwordProvider") PasswordProvider passwordProvider, @Reference(name="saltProvider") SaltProvider saltProvider)
+            @Reference(name="passwordProvider") PasswordProvider passwordProvider, @Reference(name="saltProvider") SaltProvider saltProvider,
+            @Reference(name="randomSource", cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+            @Nullable RandomSource randomSource,
+            @Reference(name="securityProvider", cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY,
+                target = NO_SECURITY_PROVIDER) @Nullable Provider securityProvider)
             throws NoSuchAlgorithmException { //
-        this(configuration, saltProvider.getSalt(), passwordProvider);
+        this(configuration, saltProvider.getSalt(), passwordProvider, randomSource, securityProvider);
     }
 
     protected JcaPbeCryptoService(final JcaPbeCryptoServiceConfiguration configuration, byte[] salt, PasswordProvider passwordProvider)
             throws NoSuchAlgorithmException { //
-        this.configuration = configuration;
+        this(configuration, salt, passwordProvider, null);
+    }
+
+    protected JcaPbeCryptoService(final JcaPbeCryptoServiceConfiguration configuration, byte[] salt, PasswordProvider passwordProvider,
+            @Nullable RandomSource randomSource) throws NoSuchAlgorithmException { //
+        this(configuration, salt, passwordProvider, randomSource, null);
+    }
+
+    protected JcaPbeCryptoService(final JcaPbeCryptoServiceConfiguration configuration, byte[] salt, PasswordProvider passwordProvider,
+            @Nullable RandomSource randomSource, @Nullable Provider securityProvider) throws NoSuchAlgorithmException { //
         this.passwordProvider = passwordProvider;
-        if (configuration.secureRandomAlgorithm() != null && !configuration.secureRandomAlgorithm().isBlank()) {
-            this.secureRandom = SecureRandom.getInstance(configuration.secureRandomAlgorithm());
+        this.randomSource = randomSource;
+        this.securityProvider = securityProvider;
+        this.salt = salt;
+        this.engine = new JcaPbeCryptoEngine(configuration, salt, passwordProvider, randomSource, securityProvider);
+        if (passwordProvider instanceof VersionedPasswordProvider) {
+            this.passwordChangeListener = (provider, version) -> engine.passwordChanged(version);
+            ((VersionedPasswordProvider) passwordProvider).addPasswordChangeListener(passwordChangeListener);
         } else {
-            this.secureRandom = new SecureRandom();
+            this.passwordChangeListener = null;
         }
-        securityProvider = Optional.ofNullable(configuration.securityProviderName()).filter(name -> !name.isBlank())
-                .map(Security::getProvider);
-        if (securityProvider.isPresent()) {
-            LOGGER.debug("Using security provider {} for JCA PBE Crypto Service", securityProvider.get());
-        } 
-        this.salt = salt;
     }
 
-    private static void destroyKey(SecretKey key) {
+    @Modified
+    @SuppressWarnings("unused")
+    private void modified(final JcaPbeCryptoServiceConfiguration configuration) {
+        LOGGER.debug("modifying");
+        reconfigure(configuration).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                LOGGER.error("Applying modified configuration failed, keeping {}", engine, throwable);
+            }
+        });
+    }
+
+    @Deactivate
+    @SuppressWarnings("unused")
+    private void deactivate() {
+        LOGGER.debug("deactivating");
+        if (passwordChangeListener != null) {
+            ((VersionedPasswordProvider) passwordProvider).removePasswordChangeListener(passwordChangeListener);
+        }
+        final JcaPbeCryptoEngine engine;
+        engineLock.lock();
+        try {
+            deactivated = true;
+            engine = this.engine;
+        } finally {
+            engineLock.unlock();
+        }
+        // engines of pending reconfigurations are discarded once created
+        reconfigurationExecutor.shutdown();
+        engine.retire();
+    }
+
+    /**
+     * Creates and warms up the engine for the given configuration in the background and replaces the current engine with it, unless
+     * the service has been deactivated or the configuration has been modified again in the meantime.
+     *
+     * @param configuration the modified configuration
+     * @return the future which completes once the engine has been replaced, exceptionally in case the engine could not be created
+     */
+    @NotNull CompletableFuture<Void> reconfigure(final JcaPbeCryptoServiceConfiguration configuration) {
+        final long generation = this.generation.incrementAndGet();
+        return reconfigurationExecutor.supply(() -> {
+            publish(generation, createEngine(configuration));
+            return null;
+        });
+    }
+
+    private @NotNull JcaPbeCryptoEngine createEngine(final JcaPbeCryptoServiceConfiguration configuration) {
+        final JcaPbeCryptoEngine engine;
+        try {
+            engine = new JcaPbeCryptoEngine(configuration, salt, passwordProvider, randomSource, securityProvider);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not create engine for modified configuration", e);
+        }
+        try {
+            engine.warmUp();
+        } catch (GeneralSecurityException | RuntimeException e) {
+            engine.retire();
+            throw new IllegalStateException("Could not warm up engine for modified configuration", e);
+        }
+        return engine;
+    }
+
+    private void publish(final long generation, @NotNull final JcaPbeCryptoEngine engine) {
+        final JcaPbeCryptoEngine previous;
+        engineLock.lock();
+        try {
+            if (deactivated || generation != this.generation.get()) {
+                LOGGER.debug("discarding outdated {}", engine);
+                previous = engine;
+            } else {
+                LOGGER.debug("replacing {} with {}", this.engine, engine);
+                previous = this.engine;
+                this.engine = engine;
+            }
+        } finally {
+            engineLock.unlock();
+        }
+        previous.retire();
+    }
+
+    /**
+     * Acquires the current engine, which needs to be released after use.
+     *
+     * @return the engine
+     * @throws IllegalStateException in case the service has been deactivated */
+    private @NotNull JcaPbeCryptoEngine acquireEngine() {
+        JcaPbeCryptoEngine engine = this.engine;
+        while (!engine.acquire()) {
+            // the engine is only retired after its replacement has been published
+            final JcaPbeCryptoEngine current = this.engine;
+            if (current == engine) {
+                throw new IllegalStateException("Service has been deactivated");
+            }
+            engine = current;
+        }
+        return engine;
+    }
+
+    private <T> T apply(@NotNull Function<JcaPbeCryptoEngine, T> operation) {
+        final JcaPbeCryptoEngine engine = acquireEngine();
+        try {
+            return operation.apply(engine);
+        } finally {
+            engine.release();
+        }
+    }
+
+    private @NotNull CompletableFuture<String> applyAsync(@NotNull Function<JcaPbeCryptoEngine, CompletableFuture<String>> operation) {
+        final JcaPbeCryptoEngine engine = acquireEngine();
+        final CompletableFuture<String> future;
+        try {
+            future = operation.apply(engine);
+        } catch (RuntimeException e) {
+            engine.release();
+            throw e;
+        }
+        // keep the engine until the operation has completed in the background
+        future.whenComplete((result, throwable) -> engine.release());
+        return future;
+    }
+
+    static void destroyKey(SecretKey key) {
         try {
             // not implemented for all relevant keys, https://bugs.openjdk.org/browse/JDK-8389121
             key.destroy();
@@ -122,35 +307,8 @@ public final class JcaPbeCryptoService implements CryptoService {
         }
     }
 
-    private @NotNull SecretKey createKey(byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        final char[] password = passwordProvider.getPassword();
-        // for regular PBE key this is completely ignored except for the password (as all logic is encapsulated in the actual cipher
-        // implementation, see
-        // https://github.com/openjdk/jdk/blob/master/src/java.base/share/classes/com/sun/crypto/provider/PBEKeyFactory.java
-        PBEKeySpec keySpec = new PBEKeySpec(
-                password,
-                salt,
-                configuration.numKeyIterations(),
-                configuration.keyLengthBits());
-        SecretKeyFactory secretKeyFactory = securityProvider.isPresent()
-                ? SecretKeyFactory.getInstance(configuration.secretKeyFactoryAlgorithm(), securityProvider.get())
-                : SecretKeyFactory.getInstance(configuration.secretKeyFactoryAlgorithm());
-        SecretKey originalKey = secretKeyFactory.generateSecret(keySpec);
-        keySpec.clearPassword(); // clear password from memory after use
-        if (configuration.secretKeyFactoryAlgorithm().equals(configuration.cipherAlgorithm())) {
-            // if the cipher algorithm is the same as the secret key factory algorithm then the cipher takes care of the actual logic and
-            // uses the key as is (which is just a wrapper around the given password)
-            return originalKey;
-        } else {
-            // wrap as key for the proper cipher algorithm (e.g., AES) instead of the PBE algorithm (e.g., PBKDF2WithHmacSHA512)
-            SecretKey derivedKey = new SecretKeySpec(originalKey.getEncoded(), extractAlgorithmName(configuration.cipherAlgorithm()));
-            destroyKey(originalKey); // destroy the original key as it is no longer needed
-            return derivedKey;
-        }
-    }
-
     /** Extracts the algorithm name from the cipher algorithm string.
-     * 
+     *
      * @param cipherAlgorithm the cipher algorithm string (e.g., "AES/CBC/PKCS5Padding")
      * @return the algorithm name (e.g., "AES") */
     protected static String extractAlgorithmName(String cipherAlgorithm) {
@@ -164,178 +322,137 @@ public final class JcaPbeCryptoService implements CryptoService {
         }
     }
 
-    /** @param paramsName the name of the algorithm parameters (e.g., "AES"), {@code null} if cipher should be used for encryption and
-     *            default parameters should be generated (e.g., random IV for AES/CBC)
-     * @param isForEncryption {@code true} if the cipher should be initialized for encryption, {@code false} if it should be initialized for decryption
-     * @param params the algorithm parameters if the cipher should be used for decryption, {@code null} if cipher should be used for encryption and default parameters should be used instead
-     * @return a Cipher instance initialized for encryption or decryption
-     * @throws NoSuchPaddingException
-     * @throws NoSuchAlgorithmException
-     * @throws InvalidKeyException
-     * @throws InvalidAlgorithmParameterException
-     * @throws IOException */
-    private Cipher createCipher(@NotNull Key key, boolean isForEncryption, @Nullable AlgorithmParameters params)
-            throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IOException {
-        Cipher cipher = securityProvider.isPresent() ? Cipher.getInstance(configuration.cipherAlgorithm(), securityProvider.get())
-                : Cipher.getInstance(configuration.cipherAlgorithm());
-        if (isForEncryption) {
-            // rely on default parameters generated by the cipher (e.g., random IV for AES/CBC)
-            cipher.init(Cipher.ENCRYPT_MODE, key, secureRandom);
-        } else {
-            Objects.requireNonNull(params, "AlgorithmParameters must not be null for decryption");
-            cipher.init(Cipher.DECRYPT_MODE, key, params, secureRandom);
-        }
-        return cipher;
-    }
-
-    private AlgorithmParameters createAlgorithmParameters(String paramsName, byte[] encodedParams)
-            throws NoSuchAlgorithmException, IOException {
-        // create a new AlgorithmParameters instance for the cipher algorithm and initialize it with the encoded parameters
-        AlgorithmParameters params = securityProvider.isPresent()
-                ? AlgorithmParameters.getInstance(paramsName, securityProvider.get())
-                : AlgorithmParameters.getInstance(paramsName);
-        params.init(encodedParams);
-        return params;
-    }
-
     protected AlgorithmParameters createDefaultAlgorithmParameters() throws InvalidKeyException, NoSuchAlgorithmException,
             NoSuchPaddingException, InvalidAlgorithmParameterException, IOException, InvalidKeySpecException {
-        SecretKey key = createKey(salt);
+        final JcaPbeCryptoEngine engine = acquireEngine();
         try {
-            Cipher cipher = createCipher(key, true, null);
-            return cipher.getParameters();
+            return engine.createDefaultAlgorithmParameters();
         } finally {
-            destroyKey(key);
+            engine.release();
         }
     }
 
     @Override
     public @NotNull String encrypt(@NotNull final String message) {
-        try {
-            SecretKey key = createKey(salt);
-            try {
-                return encrypt(key, message);
-            } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException | InvalidAlgorithmParameterException
-                    | IOException | IllegalBlockSizeException | BadPaddingException e) {
-                throw new IllegalStateException("Could not encrypt message", e);
-            } finally {
-                destroyKey(key);
-            }
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            throw new IllegalStateException("Could not create key for encryption", e);
-        }
+        return apply(engine -> engine.encrypt(message));
     }
 
-    private @NotNull String encrypt(@NotNull final Key key, @NotNull final String message) throws InvalidKeyException, NoSuchAlgorithmException,
-            NoSuchPaddingException, InvalidAlgorithmParameterException, IOException, IllegalBlockSizeException, BadPaddingException {
-        Cipher cipherEncrypt = createCipher(key, true, null);
-        final byte[] params;
-        final byte[] paramsName;
-        if (cipherEncrypt.getParameters() == null) {
-            params = new byte[0];
-            paramsName = new byte[0];
-        } else {
-            params = cipherEncrypt.getParameters().getEncoded();
-            paramsName = cipherEncrypt.getParameters().getAlgorithm().getBytes(StandardCharsets.UTF_8);
-        }
-        byte[] cipherTextBytes = cipherEncrypt.doFinal(message.getBytes(StandardCharsets.UTF_8));
+    @Override
+    public byte @NotNull [] encrypt(byte @NotNull [] message) {
+        return apply(engine -> engine.encrypt(message));
+    }
 
-        // Combine paramsName + parameters + ciphertext into single array
-        int totalLength = Integer.BYTES + paramsName.length + Integer.BYTES + params.length + cipherTextBytes.length;
-        boolean isSaltIncludedInParams = isSaltIncludedInParams(cipherEncrypt.getParameters());
-        if (!isSaltIncludedInParams) {
-            totalLength += Integer.BYTES + salt.length; // Include salt in the output if not included in params
-        }
-        ByteBuffer bb = ByteBuffer.allocate(totalLength)
-            .putInt(paramsName.length)
-            .put(paramsName)
-            .putInt(params.length)
-            .put(params);
-        if (!isSaltIncludedInParams) {
-            bb.putInt(salt.length)
-              .put(salt);
-        }
-        bb.put(cipherTextBytes);
-        
-        return Base64.getEncoder().encodeToString(bb.array());
+    @Override
+    public int encrypt(@NotNull ByteBuffer message, @NotNull ByteBuffer ciphertext) {
+        return apply(engine -> engine.encrypt(message, ciphertext));
+    }
+
+    @Override
+    public int getMaxCiphertextLength(int messageLength) {
+        return apply(engine -> engine.getMaxCiphertextLength(messageLength));
     }
 
     @Override
     public @NotNull String decrypt(@NotNull final String cipherText) {
-        try {
-            byte[] encryptedData = Base64.getDecoder().decode(cipherText);
-            ByteBuffer buffer = ByteBuffer.wrap(encryptedData);
-            final byte[] cipherData;
-            // Split up into paramsName, params, and cipherData
-            int paramsNameLength = buffer.getInt();
-            if (paramsNameLength < 0 || paramsNameLength > 255) {
-                throw new IllegalArgumentException("Invalid params name length " + paramsNameLength);
-            }
-            byte[] paramsName = new byte[paramsNameLength];
-            buffer.get(paramsName);
-            String paramsNameStr = new String(paramsName, StandardCharsets.UTF_8);
-            int paramsLength = buffer.getInt();
-            if (paramsLength < 0 || paramsLength > 65535) {
-                throw new IllegalArgumentException("Invalid params length " + paramsLength);
-            }
-            byte[] params = new byte[paramsLength];
-            buffer.get(params);
-            AlgorithmParameters algorithmParams = createAlgorithmParameters(paramsNameStr, params);
-            final byte[] salt;
-            if (!isSaltIncludedInParams(algorithmParams)) {
-                // If the salt is not included in the parameters, it is part of the cipher data and needs to be extracted and used to create the algorithm parameters
-                int saltLength = buffer.getInt(); // Skip the salt length
-                salt = new byte[saltLength];
-                buffer.get(salt);
-            } else {
-                salt = this.salt; // Use the salt from the service configuration
-            }
-            cipherData = new byte[buffer.remaining()];
-            buffer.get(cipherData);
-            SecretKey key = createKey(salt);
-            try {
-                return decrypt(key, algorithmParams, cipherData);
-            } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException | InvalidAlgorithmParameterException
-                    | IOException | IllegalBlockSizeException | BadPaddingException e) {
-                throw new IllegalArgumentException("Could not decrypt cipher text", e);
-            } finally {
-                destroyKey(key);
-            }
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException | IOException e) {
-            throw new IllegalStateException("Could not create key for decryption", e);
-        }
+        return apply(engine -> engine.decrypt(cipherText));
+    }
+
+    @Override
+    public byte @NotNull [] decrypt(byte @NotNull [] ciphertext) {
+        return apply(engine -> engine.decrypt(ciphertext));
+    }
+
+    @Override
+    public int decrypt(@NotNull ByteBuffer ciphertext, @NotNull ByteBuffer message) {
+        return apply(engine -> engine.decrypt(ciphertext, message));
+    }
+
+    @Override
+    public @NotNull List<CryptoResult> encryptAll(@NotNull Collection<String> messages) {
+        return apply(engine -> engine.encryptAll(messages));
+    }
+
+    @Override
+    public @NotNull List<CryptoResult> decryptAll(@NotNull Collection<String> ciphertexts) {
+        return apply(engine -> engine.decryptAll(ciphertexts));
+    }
+
+    @Override
+    public @NotNull CompletableFuture<String> encryptAsync(@NotNull String message) {
+        return applyAsync(engine -> engine.encryptAsync(message));
+    }
+
+    @Override
+    public @NotNull CompletableFuture<String> decryptAsync(@NotNull String ciphertext) {
+        return applyAsync(engine -> engine.decryptAsync(ciphertext));
     }
 
-    private @NotNull String decrypt(final SecretKey key, AlgorithmParameters params, final byte[] cipherData) throws InvalidKeyException, NoSuchAlgorithmException,
-            NoSuchPaddingException, InvalidAlgorithmParameterException, IOException, IllegalBlockSizeException, BadPaddingException {
-        final Cipher cipher = createCipher(key, false, params);
-        byte[] plainTextBytes = cipher.doFinal(cipherData);
-        return new String(plainTextBytes, StandardCharsets.UTF_8);
+    @Override
+    public @NotNull CompletableFuture<String> encryptAsync(@NotNull String message, @NotNull Executor executor) {
+        return applyAsync(engine -> engine.encryptAsync(message, executor));
     }
 
-    static boolean isSaltIncludedInParams(AlgorithmParameters params) {
-        // Check if the salt is included in the parameters (e.g., for PBE algorithms)
-        if (params == null) {
-            return false;
+    @Override
+    public @NotNull CompletableFuture<String> decryptAsync(@NotNull String ciphertext, @NotNull Executor executor) {
+        return applyAsync(engine -> engine.decryptAsync(ciphertext, executor));
+    }
+
+    @Override
+    public long encrypt(@NotNull InputStream message, @NotNull OutputStream ciphertext) throws IOException {
+        return encrypt(Channels.newChannel(message), Channels.newChannel(ciphertext));
+    }
+
+    @Override
+    public long decrypt(@NotNull InputStream ciphertext, @NotNull OutputStream message) throws IOException {
+        return decrypt(Channels.newChannel(ciphertext), Channels.newChannel(message));
+    }
+
+    @Override
+    public long encrypt(@NotNull ReadableByteChannel message, @NotNull WritableByteChannel ciphertext) throws IOException {
+        // streams keep the engine for their whole duration
+        final JcaPbeCryptoEngine engine = acquireEngine();
+        try {
+            return engine.encrypt(message, ciphertext);
+        } finally {
+            engine.release();
         }
+    }
+
+    @Override
+    public long decrypt(@NotNull ReadableByteChannel ciphertext, @NotNull WritableByteChannel message) throws IOException {
+        final JcaPbeCryptoEngine engine = acquireEngine();
         try {
-            params.getParameterSpec(PBEParameterSpec.class);
-            return true;
-        } catch (InvalidParameterSpecException e) {
-            return false;
-        } // This will throw an exception if the parameters do not include the salt
+            return engine.decrypt(ciphertext, message);
+        } finally {
+            engine.release();
+        }
+    }
+
+    @NotNull JcaPbeCryptoEngine getEngine() {
+        return engine;
+    }
+
+    @NotNull DerivedKeyCache getKeyCache() {
+        return engine.getKeyCache();
+    }
+
+    @NotNull CipherPool getCipherPool() {
+        return engine.getCipherPool();
+    }
+
+    @NotNull AsyncCryptoExecutor getAsyncExecutor() {
+        return engine.getAsyncExecutor();
+    }
+
+    @Nullable CounterNonceGenerator getNonceGenerator() {
+        return engine.getNonceGenerator();
     }
 
     @Override
     public @Nullable String getAlgorithmDescription() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("secretKeyFactory=").append(configuration.secretKeyFactoryAlgorithm());
-        sb.append(", cipher=").append(configuration.cipherAlgorithm());
-        if (!configuration.securityProviderName().isBlank()) {
-            sb.append(", provider=").append(configuration.securityProviderName());
-        }
-        return sb.toString();
+        return engine.getAlgorithmDescription();
     }
+
     @Override
     public String toString() {
         return "JcaPbeCryptoService [" + getAlgorithmDescription() + "]";
@@ -20,6 +20,7 @@ package org.apache.sling.commons.crypto.jca.internal;
 
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
 
 @ObjectClassDefinition(
     name = "Apache Sling Commons Crypto JCA PBE Crypto Service",
@@ -48,7 +49,7 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
     @AttributeDefinition(
         name = "Secure Random Algorithm",
-        description = "Algorithm to use for generating secure random numbers. Standard names outlined in https://docs.oracle.com/en/java/javase/17/docs/specs/security/standard-names.html#securerandom-number-generation-algorithms. Leave empty to use the default SecureRandom implementation provided by the JVM.",
+        description = "Algorithm to use for generating secure random numbers. Standard names outlined in https://docs.oracle.com/en/java/javase/17/docs/specs/security/standard-names.html#securerandom-number-generation-algorithms. Leave empty to use the default SecureRandom implementation provided by the JVM. Ignored if a Random Source is available.",
         required = false
     )
     String secureRandomAlgorithm() default "";
@@ -66,9 +67,88 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
     )
     int keyLengthBits() default 256;
 
+    @AttributeDefinition(
+        name = "Envelope Version",
+        description = "Version of the format of the ciphertexts. Version 2 is more compact and faster to parse, but cannot be decrypted by bundle versions before 1.3.0, so only enable it once no such bundle (e.g. on other cluster nodes or after a rollback) needs to decrypt the values. Ciphertexts of both versions can always be decrypted. Ciphers with parameters not supported by version 2 (e.g. PBE ciphers) always use version 1.",
+        options = {
+            @Option(label = "1 (DER encoded parameters)", value = "1"),
+            @Option(label = "2 (compact)", value = "2")
+        }
+    )
+    int envelopeVersion() default 1;
+
+    @AttributeDefinition(
+        name = "Nonce Strategy",
+        description = "How the nonces (IVs) for encryption are generated. Counter-based nonces (NIST SP 800-38D, section 8.2.1) consist of a random fixed field and an invocation counter, so encryption needs no random numbers. They are only supported for GCM ciphers with envelope version 2, every activation uses a key derived with a fresh random salt.",
+        options = {
+            @Option(label = "Random (generated by the cipher)", value = JcaPbeCryptoService.NONCE_STRATEGY_RANDOM),
+            @Option(label = "Counter-based (GCM only)", value = JcaPbeCryptoService.NONCE_STRATEGY_COUNTER)
+        }
+    )
+    String nonceStrategy() default JcaPbeCryptoService.NONCE_STRATEGY_RANDOM;
+
+    @AttributeDefinition(
+        name = "Nonce Invocation Limit",
+        description = "Maximum number of counter-based nonces per key. Once reached, a new key is derived with a fresh random salt."
+    )
+    long nonceInvocationLimit() default 4294967296L;
+
+    @AttributeDefinition(
+        name = "Derived Key Cache Size",
+        description = "Maximum number of keys derived from the password which are kept in memory, so that the key derivation only needs to run once per salt and password (identified by its version or, for password providers without versions, by its digest). Set to 0 to disable the cache."
+    )
+    int keyCacheSize() default 16;
+
+    @AttributeDefinition(
+        name = "Derived Key Cache TTL (seconds)",
+        description = "Time in seconds after which a cached derived key is discarded and needs to be derived again. Set to 0 to keep cached keys until they are evicted."
+    )
+    long keyCacheTtlSeconds() default 3600;
+
+    @AttributeDefinition(
+        name = "Cipher Pool Size",
+        description = "Maximum number of idle Cipher instances kept for reuse, which saves the provider lookup and instantiation for each encryption and decryption. Pooled ciphers are re-initialized for each operation. Set to 0 to disable pooling."
+    )
+    int cipherPoolSize() default 16;
+
+    @AttributeDefinition(
+        name = "Stream Segment Size",
+        description = "Size in bytes of the plaintext segments used for encrypting streams. Each segment is authenticated individually, so decryption only needs to buffer one segment. Streams with larger segments can still be decrypted, their buffers grow with the data read. Only relevant for streaming, which requires a secret key factory algorithm different from the cipher algorithm."
+    )
+    int streamSegmentSize() default 65536;
+
+    @AttributeDefinition(
+        name = "Batch Parallelism Threshold",
+        description = "Minimum number of items of a batch encryption or decryption to process them in parallel on the common ForkJoinPool. Set to 0 to always process batches sequentially in the calling thread."
+    )
+    int batchParallelismThreshold() default 0;
+
+    @AttributeDefinition(
+        name = "Async Executor",
+        description = "Executor for asynchronous encryption and decryption. Operations passing their own executor are not affected.",
+        options = {
+            @Option(label = "Bounded pool of platform threads", value = AsyncCryptoExecutor.TYPE_PLATFORM),
+            @Option(label = "Virtual thread per operation (falls back to platform threads before Java 21)", value = AsyncCryptoExecutor.TYPE_VIRTUAL),
+            @Option(label = "Calling thread (synchronous)", value = AsyncCryptoExecutor.TYPE_CALLER)
+        }
+    )
+    String asyncExecutorType() default AsyncCryptoExecutor.TYPE_PLATFORM;
+
+    @AttributeDefinition(
+        name = "Async Threads",
+        description = "Number of platform threads for asynchronous encryption and decryption. Set to 0 to use the number of available processors."
+    )
+    int asyncThreads() default 0;
+
+    @AttributeDefinition(
+        name = "Async Max Pending Operations",
+        description = "Maximum number of asynchronous operations which are queued or running at the same time, further operations are rejected. Set to 0 for no limit."
+    )
+    int asyncMaxPending() default 1024;
+
     @AttributeDefinition(
         name = "Security Provider Name",
-        description = "Name of the Security Provider, must either be one of the standard names outlined in https://docs.oracle.com/en/java/javase/17/docs/specs/security/standard-names.html#provider-names or a custom provider name registered with the JVM. If left empty, the first registered provider for the given algorithm will be used.",
+        description = "Name of the Security Provider, must either be one of the standard names outlined in https://docs.oracle.com/en/java/javase/17/docs/specs/security/standard-names.html#provider-names or a custom provider name registered with the JVM. If left empty, the first registered provider for the given algorithm will be used. Providers installed from bundles are registered asynchronously and might not be available yet at activation, use the Security Provider Target for those.",
         required = false
     )
     String securityProviderName() default "SunJCE";
@@ -89,6 +169,22 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
     )
     String saltProvider_target();
 
+    // automatically evaluated (https://docs.osgi.org/specification/osgi.cmpn/8.0.0/service.component.html#service.component-target.property)
+    @AttributeDefinition(
+        name = "Security Provider Target",
+        description = "Filter expression to target a Security Provider service (registered for providers installed from bundles), usually by the algorithms it supports with a pattern like \"(&(cipher.algorithms=AES)(secretkeyfactory.algorithms=PBKDF2WithHmacSHA512))\". If specified, it takes precedence over the Security Provider Name.",
+        required = false
+    )
+    String securityProvider_target();
+
+    // automatically evaluated (https://docs.osgi.org/specification/osgi.cmpn/8.0.0/service.component.html#service.component-target.property)
+    @AttributeDefinition(
+        name = "Random Source Target",
+        description = "Filter expression to target a Random Source (usually by name with a pattern like \"(names=*)\"). If no Random Source is available, a SecureRandom instance of this service is used.",
+        required = false
+    )
+    String randomSource_target();
+
     @AttributeDefinition(
         name = "Service Ranking",
         description = "OSGi service.ranking value used to prioritize this service when multiple implementations are available."
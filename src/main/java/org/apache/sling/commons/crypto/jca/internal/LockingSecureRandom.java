@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.security.SecureRandom;
+import java.security.SecureRandomParameters;
+import java.security.SecureRandomSpi;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Guards a {@link SecureRandom} with a {@link ReentrantLock}.
+ * <p>
+ * Most {@link SecureRandom} implementations synchronize internally. Waiting for a contended monitor pins a virtual thread to its carrier
+ * thread, while waiting for a {@link ReentrantLock} unmounts it. As only the lock holder enters the delegate, its monitors are never
+ * contended.
+ */
+final class LockingSecureRandom extends SecureRandom {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient SecureRandom delegate;
+
+    private final transient ReentrantLock lock = new ReentrantLock();
+
+    LockingSecureRandom(@NotNull final SecureRandom delegate) {
+        super(new SecureRandomSpi() {
+
+            private static final long serialVersionUID = 1L;
+
+            // all public methods are overridden and delegate, so the engine must never be reached
+
+            @Override
+            protected void engineSetSeed(final byte[] seed) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected void engineNextBytes(final byte[] bytes) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected byte[] engineGenerateSeed(final int numBytes) {
+                throw new UnsupportedOperationException();
+            }
+
+        }, delegate.getProvider());
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return delegate.getAlgorithm();
+    }
+
+    @Override
+    public void nextBytes(final byte[] bytes) {
+        lock.lock();
+        try {
+            delegate.nextBytes(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void nextBytes(final byte[] bytes, final SecureRandomParameters params) {
+        lock.lock();
+        try {
+            delegate.nextBytes(bytes, params);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void reseed() {
+        lock.lock();
+        try {
+            delegate.reseed();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void reseed(final SecureRandomParameters params) {
+        lock.lock();
+        try {
+            delegate.reseed(params);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public SecureRandomParameters getParameters() {
+        return delegate.getParameters();
+    }
+
+    @Override
+    public void setSeed(final byte[] seed) {
+        lock.lock();
+        try {
+            delegate.setSeed(seed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setSeed(final long seed) {
+        // called by the constructor of Random before the delegate is set
+        if (delegate != null) {
+            lock.lock();
+            try {
+                delegate.setSeed(seed);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public byte[] generateSeed(final int numBytes) {
+        lock.lock();
+        try {
+            return delegate.generateSeed(numBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LockingSecureRandom [" + delegate + "]";
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Locale;
+
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEParameterSpec;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decodes the DER encoded parameters of version 1 envelopes for the most common ciphers directly into parameter specs, which avoids
+ * the provider lookup of {@link AlgorithmParameters#getInstance(String)} and the generic ASN.1 parsing of
+ * {@link AlgorithmParameters#init(byte[])}.
+ * <p>
+ * Supported encodings:
+ * <ul>
+ * <li>GCM (RFC 5084): {@code SEQUENCE { OCTET STRING nonce, INTEGER tagLength DEFAULT 12 }}</li>
+ * <li>IV (e.g. AES/CBC, DESede/CBC): {@code OCTET STRING iv}</li>
+ * <li>PBES1 (RFC 8018): {@code SEQUENCE { OCTET STRING salt, INTEGER iterationCount }}</li>
+ * </ul>
+ * All other encodings (e.g. PBES2) are not decoded and need to be parsed via {@link AlgorithmParameters}.
+ */
+final class ParameterSpecDecoder {
+
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_OCTET_STRING = 0x04;
+    private static final int TAG_SEQUENCE = 0x30;
+
+    private static final int DEFAULT_GCM_TAG_LENGTH_BYTES = 12;
+
+    private ParameterSpecDecoder() {
+    }
+
+    /**
+     * @param paramsName the algorithm name of the parameters
+     * @param encoded the DER encoded parameters
+     * @return the parameter spec or {@code null} in case the encoding is not supported
+     */
+    static @Nullable AlgorithmParameterSpec decode(@NotNull String paramsName, byte @NotNull [] encoded) {
+        final ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        final String name = paramsName.toUpperCase(Locale.ROOT);
+        try {
+            final AlgorithmParameterSpec spec;
+            if (name.equals("GCM")) {
+                spec = decodeGcm(buffer);
+            } else if (name.startsWith("PBEWITH")) {
+                spec = decodePbes1(buffer);
+            } else if (!name.startsWith("RC")) {
+                // RC2/RC5 parameters contain additional settings
+                spec = new IvParameterSpec(readOctetString(buffer));
+            } else {
+                spec = null;
+            }
+            // trailing bytes indicate an unknown encoding
+            return buffer.hasRemaining() ? null : spec;
+        } catch (BufferUnderflowException | UnknownEncodingException e) {
+            return null;
+        }
+    }
+
+    private static @NotNull GCMParameterSpec decodeGcm(@NotNull ByteBuffer buffer) throws UnknownEncodingException {
+        final ByteBuffer sequence = readSequence(buffer);
+        final byte[] nonce = readOctetString(sequence);
+        final int tagLengthBytes = sequence.hasRemaining() ? readInteger(sequence) : DEFAULT_GCM_TAG_LENGTH_BYTES;
+        if (sequence.hasRemaining()) {
+            throw new UnknownEncodingException();
+        }
+        return new GCMParameterSpec(tagLengthBytes * Byte.SIZE, nonce);
+    }
+
+    private static @Nullable PBEParameterSpec decodePbes1(@NotNull ByteBuffer buffer) throws UnknownEncodingException {
+        if (Byte.toUnsignedInt(buffer.get(buffer.position())) != TAG_SEQUENCE) {
+            return null;
+        }
+        final ByteBuffer sequence = readSequence(buffer);
+        if (Byte.toUnsignedInt(sequence.get(sequence.position())) != TAG_OCTET_STRING) {
+            // PBES2 parameters start with the key derivation function sequence
+            buffer.position(buffer.limit());
+            return null;
+        }
+        final byte[] salt = readOctetString(sequence);
+        final int iterationCount = readInteger(sequence);
+        if (sequence.hasRemaining()) {
+            throw new UnknownEncodingException();
+        }
+        return new PBEParameterSpec(salt, iterationCount);
+    }
+
+    private static @NotNull ByteBuffer readSequence(@NotNull ByteBuffer buffer) throws UnknownEncodingException {
+        final int length = readHeader(buffer, TAG_SEQUENCE);
+        final ByteBuffer sequence = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return sequence;
+    }
+
+    private static byte @NotNull [] readOctetString(@NotNull ByteBuffer buffer) throws UnknownEncodingException {
+        final byte[] value = new byte[readHeader(buffer, TAG_OCTET_STRING)];
+        buffer.get(value);
+        return value;
+    }
+
+    private static int readInteger(@NotNull ByteBuffer buffer) throws UnknownEncodingException {
+        final int length = readHeader(buffer, TAG_INTEGER);
+        if (length < 1 || length > Integer.BYTES) {
+            throw new UnknownEncodingException();
+        }
+        int value = buffer.get();
+        if (value < 0) {
+            // only non-negative values are expected
+            throw new UnknownEncodingException();
+        }
+        for (int i = 1; i < length; i++) {
+            value = (value << Byte.SIZE) | Byte.toUnsignedInt(buffer.get());
+        }
+        if (value < 0) {
+            throw new UnknownEncodingException();
+        }
+        return value;
+    }
+
+    /**
+     * Reads tag and length.
+     *
+     * @return the length of the value
+     */
+    private static int readHeader(@NotNull ByteBuffer buffer, int expectedTag) throws UnknownEncodingException {
+        if (Byte.toUnsignedInt(buffer.get()) != expectedTag) {
+            throw new UnknownEncodingException();
+        }
+        int length = Byte.toUnsignedInt(buffer.get());
+        if (length > 0x7f) {
+            // long form
+            final int lengthBytes = length & 0x7f;
+            if (lengthBytes < 1 || lengthBytes > 2) {
+                throw new UnknownEncodingException();
+            }
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << Byte.SIZE) | Byte.toUnsignedInt(buffer.get());
+            }
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    /**
+     * Signals an encoding which is not supported by the fast path.
+     */
+    private static final class UnknownEncodingException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnknownEncodingException() {
+            // no stack trace needed, this is only used for control flow within this class
+            super(null, null, false, false);
+        }
+    }
+
+}
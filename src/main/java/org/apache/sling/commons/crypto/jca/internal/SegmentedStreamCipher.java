@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Segmented authenticated encryption of streams with AES-GCM following the STREAM construction (Hoang, Reyhanitabar, Rogaway, Vizár:
+ * "Online Authenticated-Encryption and its Nonce-Reuse Misuse-Resistance").
+ * <p>
+ * The ciphertext consists of a header followed by segments. The header contains
+ * <ol>
+ * <li>the format version (1 byte),</li>
+ * <li>the plaintext segment size (4 bytes),</li>
+ * <li>the length-prefixed salt (1 byte length) used to derive the key from the password, like in the regular envelope,</li>
+ * <li>a random stream salt (16 bytes) and</li>
+ * <li>a random nonce prefix (7 bytes).</li>
+ * </ol>
+ * Each stream is encrypted with its own AES-256 key derived from the password-based key and the stream salt with HMAC-SHA256. The
+ * nonce of each segment is the nonce prefix followed by the segment counter (4 bytes) and a final segment marker (1 byte), so
+ * segments cannot be reordered, and truncation at a segment boundary is detected as the last segment is not marked as final.
+ * The header is authenticated as additional data of every segment.
+ */
+final class SegmentedStreamCipher {
+
+    static final byte VERSION = 1;
+
+    static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    private static final String SUBKEY_ALGORITHM = "HmacSHA256";
+    private static final byte[] SUBKEY_INFO = "org.apache.sling.commons.crypto.stream".getBytes(StandardCharsets.US_ASCII);
+    private static final int STREAM_SALT_LENGTH = 16;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final int NONCE_LENGTH = NONCE_PREFIX_LENGTH + Integer.BYTES + 1;
+    private static final int TAG_LENGTH = 16;
+
+    /**
+     * Resolves the password-based key for a salt read from the header.
+     */
+    @FunctionalInterface
+    interface KeyResolver {
+        @NotNull SecretKey resolve(byte @NotNull [] salt) throws NoSuchAlgorithmException, InvalidKeySpecException;
+    }
+
+    private final int segmentSize;
+    private final SecureRandom secureRandom;
+    private final @Nullable Provider provider;
+
+    /**
+     * @param segmentSize the plaintext segment size for encryption, also the initial buffer size for decryption
+     * @param secureRandom the source for stream salts and nonce prefixes
+     * @param provider the provider for cipher and MAC, {@code null} to use the first provider supporting them
+     */
+    SegmentedStreamCipher(int segmentSize, @NotNull SecureRandom secureRandom, @Nullable Provider provider) {
+        if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + MAX_SEGMENT_SIZE + " but is " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.secureRandom = secureRandom;
+        this.provider = provider;
+    }
+
+    /**
+     * @param key the password-based key, its encoded form is the input for the stream key
+     * @param salt the salt the key has been derived with
+     * @param in the plaintext
+     * @param out the ciphertext
+     * @return the number of bytes written
+     * @throws IOException
+     * @throws GeneralSecurityException */
+    long encrypt(@NotNull SecretKey key, byte @NotNull [] salt, @NotNull ReadableByteChannel in, @NotNull WritableByteChannel out)
+            throws IOException, GeneralSecurityException {
+        final byte[] streamSalt = new byte[STREAM_SALT_LENGTH];
+        final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        secureRandom.nextBytes(streamSalt);
+        secureRandom.nextBytes(noncePrefix);
+        final ByteBuffer header = ByteBuffer.allocate(1 + Integer.BYTES + 1 + salt.length + STREAM_SALT_LENGTH + NONCE_PREFIX_LENGTH)
+                .put(VERSION)
+                .putInt(segmentSize)
+                .put((byte) salt.length)
+                .put(salt)
+                .put(streamSalt)
+                .put(noncePrefix);
+        final byte[] headerBytes = header.array();
+        long written = writeFully(out, header.flip());
+
+        final Cipher cipher = newCipher();
+        final SecretKey streamKey = deriveStreamKey(key, streamSalt);
+        ByteBuffer current = ByteBuffer.allocate(segmentSize);
+        ByteBuffer next = ByteBuffer.allocate(segmentSize);
+        final ByteBuffer output = ByteBuffer.allocate(segmentSize + TAG_LENGTH);
+        readFully(in, current);
+        int counter = 0;
+        while (true) {
+            final boolean isLast;
+            if (current.hasRemaining()) {
+                isLast = true;
+            } else {
+                next.clear();
+                readFully(in, next);
+                isLast = next.position() == 0;
+            }
+            current.flip();
+            output.clear();
+            initCipher(cipher, Cipher.ENCRYPT_MODE, streamKey, noncePrefix, counter, isLast);
+            cipher.updateAAD(headerBytes);
+            cipher.doFinal(current, output);
+            written += writeFully(out, output.flip());
+            if (isLast) {
+                return written;
+            }
+            counter = nextCounter(counter);
+            final ByteBuffer swap = current;
+            current = next;
+            next = swap;
+        }
+    }
+
+    /**
+     * @param keyResolver resolves the password-based key from the salt contained in the header
+     * @param in the ciphertext
+     * @param out the plaintext
+     * @return the number of bytes written
+     * @throws IOException
+     * @throws GeneralSecurityException */
+    long decrypt(@NotNull KeyResolver keyResolver, @NotNull ReadableByteChannel in, @NotNull WritableByteChannel out)
+            throws IOException, GeneralSecurityException {
+        final ByteBuffer fixedHeader = ByteBuffer.allocate(1 + Integer.BYTES + 1);
+        readFully(in, fixedHeader);
+        final int segmentSize;
+        final byte[] salt;
+        try {
+            fixedHeader.flip();
+            final byte version = fixedHeader.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported stream format version " + version);
+            }
+            segmentSize = fixedHeader.getInt();
+            if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+            }
+            salt = new byte[Byte.toUnsignedInt(fixedHeader.get())];
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated stream header", e);
+        }
+        final ByteBuffer variableHeader = ByteBuffer.allocate(salt.length + STREAM_SALT_LENGTH + NONCE_PREFIX_LENGTH);
+        readFully(in, variableHeader);
+        if (variableHeader.hasRemaining()) {
+            throw new IllegalArgumentException("Truncated stream header");
+        }
+        variableHeader.flip();
+        final byte[] streamSalt = new byte[STREAM_SALT_LENGTH];
+        final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        variableHeader.get(salt).get(streamSalt).get(noncePrefix);
+        final byte[] headerBytes = new byte[fixedHeader.limit() + variableHeader.limit()];
+        System.arraycopy(fixedHeader.array(), 0, headerBytes, 0, fixedHeader.limit());
+        System.arraycopy(variableHeader.array(), 0, headerBytes, fixedHeader.limit(), variableHeader.limit());
+
+        final SecretKey key = keyResolver.resolve(salt);
+        final SecretKey streamKey;
+        try {
+            streamKey = deriveStreamKey(key, streamSalt);
+        } finally {
+            JcaPbeCryptoService.destroyKey(key);
+        }
+        final Cipher cipher = newCipher();
+        // the segment size from the header is not authenticated yet, buffers beyond the own segment size only grow with the data read
+        final int segmentLength = segmentSize + TAG_LENGTH;
+        final int initialLength = Math.min(segmentLength, this.segmentSize + TAG_LENGTH);
+        ByteBuffer current = readSegment(in, ByteBuffer.allocate(initialLength), segmentLength);
+        ByteBuffer next = ByteBuffer.allocate(initialLength);
+        ByteBuffer output = ByteBuffer.allocate(initialLength - TAG_LENGTH);
+        long written = 0;
+        int counter = 0;
+        while (true) {
+            final boolean isLast;
+            if (current.hasRemaining()) {
+                isLast = true;
+            } else {
+                next = readSegment(in, next, segmentLength);
+                isLast = next.position() == 0;
+            }
+            current.flip();
+            if (current.remaining() < TAG_LENGTH) {
+                throw new IllegalArgumentException("Truncated segment " + counter);
+            }
+            if (output.capacity() < current.remaining() - TAG_LENGTH) {
+                output = ByteBuffer.allocate(current.remaining() - TAG_LENGTH);
+            }
+            output.clear();
+            initCipher(cipher, Cipher.DECRYPT_MODE, streamKey, noncePrefix, counter, isLast);
+            cipher.updateAAD(headerBytes);
+            try {
+                cipher.doFinal(current, output);
+            } catch (AEADBadTagException e) {
+                throw new IllegalArgumentException("Segment " + counter + " could not be authenticated, the ciphertext has been modified or truncated", e);
+            }
+            written += writeFully(out, output.flip());
+            if (isLast) {
+                return written;
+            }
+            counter = nextCounter(counter);
+            final ByteBuffer swap = current;
+            current = next;
+            next = swap;
+        }
+    }
+
+    private @NotNull Cipher newCipher() throws GeneralSecurityException {
+        return provider != null ? Cipher.getInstance(CIPHER_ALGORITHM, provider) : Cipher.getInstance(CIPHER_ALGORITHM);
+    }
+
+    private SecretKey deriveStreamKey(@NotNull SecretKey key, byte @NotNull [] streamSalt) throws GeneralSecurityException {
+        final byte[] encoded = key.getEncoded();
+        if (encoded == null || encoded.length == 0) {
+            throw new IllegalStateException("Key material of key with algorithm " + key.getAlgorithm() + " is not accessible");
+        }
+        final Mac mac = provider != null ? Mac.getInstance(SUBKEY_ALGORITHM, provider) : Mac.getInstance(SUBKEY_ALGORITHM);
+        try {
+            mac.init(new SecretKeySpec(encoded, SUBKEY_ALGORITHM));
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+        mac.update(SUBKEY_INFO);
+        mac.update(streamSalt);
+        final byte[] streamKey = mac.doFinal();
+        try {
+            return new SecretKeySpec(streamKey, "AES");
+        } finally {
+            Arrays.fill(streamKey, (byte) 0);
+        }
+    }
+
+    private static void initCipher(@NotNull Cipher cipher, int mode, @NotNull SecretKey key, byte @NotNull [] noncePrefix, int counter,
+            boolean isLast) throws GeneralSecurityException {
+        final byte[] nonce = ByteBuffer.allocate(NONCE_LENGTH)
+                .put(noncePrefix)
+                .putInt(counter)
+                .put(isLast ? (byte) 1 : (byte) 0)
+                .array();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, nonce));
+    }
+
+    private static int nextCounter(int counter) {
+        if (counter == -1) {
+            // all 2^32 counter values used
+            throw new IllegalStateException("Maximum number of segments exceeded");
+        }
+        return counter + 1;
+    }
+
+    /**
+     * Reads a segment until it is complete or the end of the channel is reached, growing the buffer with the data read.
+     *
+     * @param buffer the buffer to reuse
+     * @param length the length of a complete segment
+     * @return the given or a grown buffer, its position is the number of bytes read and it has bytes remaining only in case the end of
+     *         the channel has been reached
+     */
+    private static @NotNull ByteBuffer readSegment(@NotNull ReadableByteChannel in, @NotNull ByteBuffer buffer, int length)
+            throws IOException {
+        ByteBuffer segment = buffer;
+        segment.clear().limit(Math.min(segment.capacity(), length));
+        while (true) {
+            readFully(in, segment);
+            if (segment.hasRemaining() || segment.limit() == length) {
+                return segment;
+            }
+            final ByteBuffer grown = ByteBuffer.allocate((int) Math.min(length, 2L * segment.capacity()));
+            grown.put(segment.flip());
+            segment = grown;
+        }
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the channel is reached.
+     */
+    private static void readFully(@NotNull ReadableByteChannel in, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                return;
+            }
+        }
+    }
+
+    private static int writeFully(@NotNull WritableByteChannel out, @NotNull ByteBuffer buffer) throws IOException {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return length;
+    }
+
+}
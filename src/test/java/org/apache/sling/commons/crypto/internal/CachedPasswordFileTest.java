@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CachedPasswordFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private final AtomicInteger reloads = new AtomicInteger();
+
+    private static int fileTimeOffset = 1;
+
+    private char[] read(final Path path) throws IOException {
+        reads.incrementAndGet();
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8).toCharArray();
+    }
+
+    private static void write(final Path path, final String content) throws Exception {
+        Files.writeString(path, content, StandardCharsets.UTF_8);
+        // make sure the change is visible even with a coarse file time resolution
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().plusSeconds(fileTimeOffset++)));
+    }
+
+    private static void awaitPassword(final CachedPasswordFile cachedPasswordFile, final String expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+        while (!new String(cachedPasswordFile.getPassword()).equals(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(new String(cachedPasswordFile.getPassword()), is(expected));
+    }
+
+    @Test
+    public void testCachedPassword() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("password");
+        write(path, "first");
+        final CachedPasswordFile cachedPasswordFile = new CachedPasswordFile(path, this::read, 1, reloads::incrementAndGet);
+        try {
+            assertThat(cachedPasswordFile.getPassword(), is("first".toCharArray()));
+            assertThat(cachedPasswordFile.getPassword(), is("first".toCharArray()));
+            assertThat(reads.get(), is(1));
+            assertThat(cachedPasswordFile.reloadIfChanged(), is(false));
+            assertThat(reloads.get(), is(0));
+            write(path, "second");
+            awaitPassword(cachedPasswordFile, "second");
+            assertThat(reloads.get(), is(1));
+            // keeps the password while the file is missing
+            Files.delete(path);
+            assertThat(cachedPasswordFile.reloadIfChanged(), is(false));
+            assertThat(cachedPasswordFile.getPassword(), is("second".toCharArray()));
+        } finally {
+            cachedPasswordFile.close();
+        }
+        // wiped
+        assertThat(cachedPasswordFile.getPassword(), is(new char[6]));
+    }
+
+    @Test
+    public void testSymbolicLinkSwap() throws Exception {
+        // layout of a secret mounted by Kubernetes
+        final Path secret = folder.newFolder("secret").toPath();
+        final Path first = Files.createDirectory(secret.resolve("..2024_01_01"));
+        Files.writeString(first.resolve("password"), "first", StandardCharsets.UTF_8);
+        Files.createSymbolicLink(secret.resolve("..data"), first.getFileName());
+        final Path path = Files.createSymbolicLink(secret.resolve("password"), Path.of("..data", "password"));
+        final CachedPasswordFile cachedPasswordFile = new CachedPasswordFile(path, this::read, 1, reloads::incrementAndGet);
+        try {
+            assertThat(cachedPasswordFile.getPassword(), is("first".toCharArray()));
+            // atomic swap of the data directory
+            final Path second = Files.createDirectory(secret.resolve("..2024_01_02"));
+            Files.writeString(second.resolve("password"), "second", StandardCharsets.UTF_8);
+            final Path swap = Files.createSymbolicLink(secret.resolve("..data_tmp"), second.getFileName());
+            Files.move(swap, secret.resolve("..data"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            awaitPassword(cachedPasswordFile, "second");
+        } finally {
+            cachedPasswordFile.close();
+        }
+    }
+
+}
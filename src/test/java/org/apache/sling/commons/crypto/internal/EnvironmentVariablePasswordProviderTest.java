@@ -49,6 +49,7 @@ public class EnvironmentVariablePasswordProviderTest {
             final EnvironmentVariablePasswordProviderConfiguration configuration = mock(EnvironmentVariablePasswordProviderConfiguration.class);
             when(configuration.name()).thenReturn("password_ascii85");
             MethodUtils.invokeMethod(provider, true, "activate", configuration);
+            assertThat(provider.getPasswordVersion(), is(1L));
             final char[] password = withEnvironmentVariable("password_ascii85", "+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?").execute(provider::getPassword);
             assertThat(password, is("+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?".toCharArray()));
         }
@@ -56,6 +57,7 @@ public class EnvironmentVariablePasswordProviderTest {
             final EnvironmentVariablePasswordProviderConfiguration configuration = mock(EnvironmentVariablePasswordProviderConfiguration.class);
             when(configuration.name()).thenReturn("password_utf8");
             MethodUtils.invokeMethod(provider, true, "modified", configuration);
+            assertThat(provider.getPasswordVersion(), is(2L));
             final char[] password = withEnvironmentVariable("password_utf8", " Napøleøn Sølø (DK) 🏁🇩🇰").execute(provider::getPassword);
             assertThat(password, is(" Napøleøn Sølø (DK) 🏁🇩🇰".toCharArray()));
         }
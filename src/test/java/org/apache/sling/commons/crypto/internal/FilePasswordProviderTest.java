@@ -20,12 +20,19 @@ package org.apache.sling.commons.crypto.internal;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.reflect.MethodUtils;
+import org.apache.sling.commons.crypto.PasswordChangeListener;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.ops4j.pax.exam.util.PathUtils;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -47,6 +54,9 @@ public class FilePasswordProviderTest {
     @Rule
     public ExpectedException exception = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testMissingConfiguration() {
         final FilePasswordProvider provider = new FilePasswordProvider();
@@ -153,4 +163,58 @@ public class FilePasswordProviderTest {
         provider.getPassword();
     }
 
+    @Test
+    public void testCachedPassword() throws Exception {
+        final FilePasswordProvider provider = new FilePasswordProvider();
+        final File file = folder.newFile();
+        Files.writeString(file.toPath(), new String(PASSWORD_ASCII_NEWLINE), StandardCharsets.UTF_8);
+        final FilePasswordProviderConfiguration configuration = mock(FilePasswordProviderConfiguration.class);
+        when(configuration.path()).thenReturn(file.getPath());
+        when(configuration.fix_posixNewline()).thenReturn(true);
+        when(configuration.cache()).thenReturn(true);
+        when(configuration.cache_pollIntervalSeconds()).thenReturn(1L);
+        MethodUtils.invokeMethod(provider, true, "activate", configuration);
+        assertThat(provider.getPassword(), is(PASSWORD_ASCII));
+        // served from memory
+        file.delete();
+        assertThat(provider.getPassword(), is(PASSWORD_ASCII));
+        // disable cache
+        when(configuration.path()).thenReturn(String.format("%s/src/test/resources/password.utf8", PathUtils.getBaseDir()));
+        when(configuration.cache()).thenReturn(false);
+        MethodUtils.invokeMethod(provider, true, "modified", configuration);
+        assertThat(provider.getPassword(), is(PASSWORD_UTF8));
+        MethodUtils.invokeMethod(provider, true, "deactivate");
+    }
+
+    @Test
+    public void testPasswordVersion() throws Exception {
+        final FilePasswordProvider provider = new FilePasswordProvider();
+        final File file = folder.newFile();
+        Files.writeString(file.toPath(), "first", StandardCharsets.UTF_8);
+        final FilePasswordProviderConfiguration configuration = mock(FilePasswordProviderConfiguration.class);
+        when(configuration.path()).thenReturn(file.getPath());
+        MethodUtils.invokeMethod(provider, true, "activate", configuration);
+        final AtomicLong notified = new AtomicLong();
+        final PasswordChangeListener listener = (passwordProvider, version) -> notified.set(version);
+        provider.addPasswordChangeListener(listener);
+        final long version = provider.getPasswordVersion();
+        assertThat(provider.getPasswordVersion(), is(version));
+        assertThat(notified.get(), is(0L));
+        // changed file
+        Files.writeString(file.toPath(), "second", StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file.toPath(), FileTime.from(Instant.now().plusSeconds(10)));
+        assertThat(provider.getPasswordVersion(), is(version + 1));
+        assertThat(notified.get(), is(version + 1));
+        assertThat(provider.getPassword(), is("second".toCharArray()));
+        // modified configuration
+        MethodUtils.invokeMethod(provider, true, "modified", configuration);
+        assertThat(provider.getPasswordVersion(), is(version + 2));
+        assertThat(notified.get(), is(version + 2));
+        provider.removePasswordChangeListener(listener);
+        MethodUtils.invokeMethod(provider, true, "modified", configuration);
+        assertThat(provider.getPasswordVersion(), is(version + 3));
+        assertThat(notified.get(), is(version + 2));
+        MethodUtils.invokeMethod(provider, true, "deactivate");
+    }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.security.Provider;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.commons.crypto.internal.OsgiAwareSecurityProviderInstallerTest.TestProvider;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class LazyProviderTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private Provider load() {
+        loads.incrementAndGet();
+        return new TestProvider();
+    }
+
+    @Test
+    public void testLegacyPropertyLookups() {
+        final LazyProvider provider = new LazyProvider(ProviderDescriptor.of(new TestProvider()), this::load);
+        // the placeholder's own properties and undeclared algorithms
+        assertThat(provider.getProperty("Provider.id name"), is(provider.getName()));
+        assertThat(provider.get("Cipher.Undeclared"), is(nullValue()));
+        assertThat(provider.containsKey("Cipher.Undeclared"), is(false));
+        assertThat(loads.get(), is(0));
+
+        // declared algorithms and aliases
+        assertThat(provider.get("Cipher.SlingTestCipher"), is("org.example.SlingTestCipher"));
+        assertThat(loads.get(), is(1));
+        assertThat(provider.getProperty("Alg.Alias.Cipher.SlingTestAlias"), is("SlingTestCipher"));
+        assertThat(provider.getOrDefault("SecretKeyFactory.SlingTestKeyFactory", null), is("org.example.SlingTestKeyFactory"));
+        assertThat(provider.keySet(), hasItem("Cipher.SlingTestCipher"));
+        assertThat(loads.get(), is(1));
+    }
+
+    @Test
+    public void testViewsLoadProvider() {
+        final LazyProvider provider = new LazyProvider(ProviderDescriptor.of(new TestProvider()), this::load);
+        assertThat(provider.keySet(), hasItem("SecretKeyFactory.SlingTestKeyFactory"));
+        assertThat(provider.isMaterialized(), is(true));
+        assertThat(loads.get(), is(1));
+    }
+
+    @Test
+    public void testRetryAfterFailure() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final LazyProvider provider = new LazyProvider(ProviderDescriptor.of(new TestProvider()), () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new ClassNotFoundException("transient");
+            }
+            return load();
+        }, 100);
+        assertThat(provider.getService("Cipher", "SlingTestCipher"), is(nullValue()));
+        // not retried within the interval
+        assertThat(provider.get("Cipher.SlingTestCipher"), is(nullValue()));
+        assertThat(attempts.get(), is(1));
+
+        Thread.sleep(200);
+        assertThat(provider.getService("Cipher", "SlingTestCipher"), is(notNullValue()));
+        assertThat(attempts.get(), is(2));
+        assertThat(provider.isMaterialized(), is(true));
+    }
+
+}
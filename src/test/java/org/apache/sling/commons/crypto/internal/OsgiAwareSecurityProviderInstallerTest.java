@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Dictionary;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OsgiAwareSecurityProviderInstallerTest {
+
+    private static final String PROVIDER_NAME = "SlingCommonsCryptoTest";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    public static final class TestProvider extends Provider {
+
+        private static final long serialVersionUID = 1L;
+
+        public TestProvider() {
+            super(PROVIDER_NAME, "1.0", "Provider for testing");
+            put("Cipher.SlingTestCipher", "org.example.SlingTestCipher");
+            put("Alg.Alias.Cipher.SlingTestAlias", "SlingTestCipher");
+            put("SecretKeyFactory.SlingTestKeyFactory", "org.example.SlingTestKeyFactory");
+        }
+
+    }
+
+    @After
+    public void tearDown() {
+        Security.removeProvider(PROVIDER_NAME);
+    }
+
+    private static OsgiAwareSecurityProviderInstallerConfiguration configuration() {
+        final OsgiAwareSecurityProviderInstallerConfiguration configuration = mock(OsgiAwareSecurityProviderInstallerConfiguration.class);
+        when(configuration.discoveryThreads()).thenReturn(2);
+        when(configuration.removalTimeoutSeconds()).thenReturn(10L);
+        return configuration;
+    }
+
+    private static BundleContext bundleContext() {
+        final BundleContext bundleContext = mock(BundleContext.class);
+        doAnswer(invocation -> mock(ServiceRegistration.class)).when(bundleContext).registerService(eq(Provider.class), any(Provider.class), any());
+        doAnswer(invocation -> mock(ServiceRegistration.class)).when(bundleContext).registerService(eq(Provider.class), any(ServiceFactory.class), any());
+        return bundleContext;
+    }
+
+    private Bundle bundle(final BundleContext bundleContext, final long bundleId, final String... classNames) throws Exception {
+        final File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), String.join("\n", classNames).getBytes(StandardCharsets.UTF_8));
+        final Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getState()).thenReturn(Bundle.ACTIVE);
+        when(bundle.getBundleContext()).thenReturn(bundleContext);
+        when(bundle.getEntry("META-INF/services/java.security.Provider")).thenReturn(file.toURI().toURL());
+        doReturn(TestProvider.class).when(bundle).loadClass(TestProvider.class.getName());
+        return bundle;
+    }
+
+    @Test
+    public void testDiscoveryDoesNotBlockActivation() throws Exception {
+        final BundleContext bundleContext = bundleContext();
+        final Bundle bundle = bundle(bundleContext, 1, "# comment", TestProvider.class.getName());
+        final URL entry = bundle.getEntry("META-INF/services/java.security.Provider");
+        final CountDownLatch latch = new CountDownLatch(1);
+        when(bundle.getEntry("META-INF/services/java.security.Provider")).thenAnswer(invocation -> {
+            latch.await(10, TimeUnit.SECONDS);
+            return entry;
+        });
+        final Bundle other = bundle(bundleContext, 2);
+        when(bundleContext.getBundles()).thenReturn(new Bundle[]{bundle, other});
+
+        final OsgiAwareSecurityProviderInstaller installer = new OsgiAwareSecurityProviderInstaller(bundleContext, configuration());
+        assertThat(Security.getProvider(PROVIDER_NAME), is(nullValue()));
+        latch.countDown();
+        verify(bundleContext, timeout(10000)).registerService(eq(Provider.class), any(Provider.class), any());
+        assertThat(Security.getProvider(PROVIDER_NAME), is(instanceOf(TestProvider.class)));
+
+        // removed synchronously while the bundle is stopping
+        installer.bundleChanged(new BundleEvent(BundleEvent.STOPPING, bundle));
+        assertThat(Security.getProvider(PROVIDER_NAME), is(nullValue()));
+        installer.deactivate(bundleContext);
+    }
+
+    @Test
+    public void testBundleEvents() throws Exception {
+        final BundleContext bundleContext = bundleContext();
+        when(bundleContext.getBundles()).thenReturn(new Bundle[0]);
+        final OsgiAwareSecurityProviderInstaller installer = new OsgiAwareSecurityProviderInstaller(bundleContext, configuration());
+        final Bundle bundle = bundle(bundleContext, 1, TestProvider.class.getName());
+        when(bundleContext.getBundles()).thenReturn(new Bundle[]{bundle});
+
+        installer.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        // the removal is ordered after the pending discovery
+        installer.bundleChanged(new BundleEvent(BundleEvent.STOPPING, bundle));
+        assertThat(Security.getProvider(PROVIDER_NAME), is(nullValue()));
+
+        installer.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        installer.deactivate(bundleContext);
+        // deactivation waits for the discovery and removes the provider
+        verify(bundleContext, timeout(10000).times(2)).registerService(eq(Provider.class), any(Provider.class), any());
+        assertThat(Security.getProvider(PROVIDER_NAME), is(nullValue()));
+        // the unchanged bundle is only scanned once
+        verify(bundle).getEntry("META-INF/services/java.security.Provider");
+    }
+
+    @Test
+    public void testScanIndexKeepsBundlesStartedDuringInitialScan() throws Exception {
+        final File index = new File(temporaryFolder.getRoot(), "index.properties");
+        final OsgiAwareSecurityProviderInstallerConfiguration configuration = configuration();
+        when(configuration.persistScanIndex()).thenReturn(true);
+        final BundleContext bundleContext = bundleContext();
+        when(bundleContext.getDataFile(anyString())).thenReturn(index);
+        final Bundle bundle = bundle(bundleContext, 1, TestProvider.class.getName());
+        final URL entry = bundle.getEntry("META-INF/services/java.security.Provider");
+        final CountDownLatch latch = new CountDownLatch(1);
+        when(bundle.getEntry("META-INF/services/java.security.Provider")).thenAnswer(invocation -> {
+            latch.await(10, TimeUnit.SECONDS);
+            return entry;
+        });
+        when(bundleContext.getBundles()).thenReturn(new Bundle[]{bundle});
+        final OsgiAwareSecurityProviderInstaller installer = new OsgiAwareSecurityProviderInstaller(bundleContext, configuration);
+
+        // installed and started while the initial scan is still running
+        final Bundle other = bundle(bundleContext, 2);
+        when(bundleContext.getBundles()).thenReturn(new Bundle[]{bundle, other});
+        installer.bundleChanged(new BundleEvent(BundleEvent.STARTED, other));
+        latch.countDown();
+        installer.deactivate(bundleContext);
+
+        final ProviderScanIndex scanIndex = new ProviderScanIndex(index);
+        assertThat(scanIndex.get(bundle), is(notNullValue()));
+        assertThat(scanIndex.get(other), is(notNullValue()));
+    }
+
+    @Test
+    public void testBundleEventsAfterDeactivation() throws Exception {
+        final BundleContext bundleContext = bundleContext();
+        when(bundleContext.getBundles()).thenReturn(new Bundle[0]);
+        final OsgiAwareSecurityProviderInstaller installer = new OsgiAwareSecurityProviderInstaller(bundleContext, configuration());
+        final Bundle bundle = bundle(bundleContext, 1, TestProvider.class.getName());
+        installer.deactivate(bundleContext);
+
+        // delivered concurrently to the removal of the listener
+        installer.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        installer.bundleChanged(new BundleEvent(BundleEvent.STOPPING, bundle));
+        assertThat(Security.getProvider(PROVIDER_NAME), is(nullValue()));
+        verify(bundle, never()).getEntry(anyString());
+    }
+
+    @Test
+    public void testLazyProviders() throws Exception {
+        final File index = new File(temporaryFolder.getRoot(), "index.properties");
+        final OsgiAwareSecurityProviderInstallerConfiguration configuration = configuration();
+        when(configuration.persistScanIndex()).thenReturn(true);
+        when(configuration.lazyProviders()).thenReturn(true);
+
+        // first start, the provider is loaded and its services are indexed
+        final BundleContext bundleContext = bundleContext();
+        when(bundleContext.getDataFile(anyString())).thenReturn(index);
+        final Bundle bundle = bundle(bundleContext, 1, TestProvider.class.getName());
+        when(bundleContext.getBundles()).thenReturn(new Bundle[]{bundle});
+        final OsgiAwareSecurityProviderInstaller installer = new OsgiAwareSecurityProviderInstaller(bundleContext, configuration);
+        verify(bundleContext, timeout(10000)).registerService(eq(Provider.class), any(Provider.class), any());
+        installer.deactivate(bundleContext);
+
+        // restart, a placeholder is installed
+        final BundleContext restartedBundleContext = bundleContext();
+        when(restartedBundleContext.getDataFile(anyString())).thenReturn(index);
+        final Bundle restartedBundle = bundle(restartedBundleContext, 1, TestProvider.class.getName());
+        when(restartedBundleContext.getBundles()).thenReturn(new Bundle[]{restartedBundle});
+        final OsgiAwareSecurityProviderInstaller restartedInstaller = new OsgiAwareSecurityProviderInstaller(restartedBundleContext, configuration);
+        verify(restartedBundleContext, timeout(10000)).registerService(eq(Provider.class), any(ServiceFactory.class), any());
+        final Provider provider = Security.getProvider(PROVIDER_NAME);
+        assertThat(provider, is(instanceOf(LazyProvider.class)));
+        assertThat(provider.getService("Cipher", "Undeclared"), is(nullValue()));
+        verify(restartedBundle, never()).getEntry(anyString());
+        verify(restartedBundle, never()).loadClass(anyString());
+
+        // loaded on first use of a declared service
+        assertThat(provider.getService("Cipher", "slingtestcipher"), is(notNullValue()));
+        verify(restartedBundle).loadClass(TestProvider.class.getName());
+        assertThat(((LazyProvider) provider).isMaterialized(), is(true));
+        restartedInstaller.deactivate(restartedBundleContext);
+        assertThat(Security.getProvider(PROVIDER_NAME), is(nullValue()));
+    }
+
+    @Test
+    public void testRemovalByHandle() throws Exception {
+        final BundleContext bundleContext = bundleContext();
+        final ServiceRegistration<?> registration = mock(ServiceRegistration.class);
+        doReturn(registration).when(bundleContext).registerService(eq(Provider.class), any(Provider.class), any());
+        when(bundleContext.getBundles()).thenReturn(new Bundle[0]);
+        final OsgiAwareSecurityProviderInstaller installer = new OsgiAwareSecurityProviderInstaller(bundleContext, configuration());
+        final Bundle bundle = bundle(bundleContext, 1, TestProvider.class.getName());
+
+        installer.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        // installed only once
+        installer.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        verify(bundleContext, timeout(10000)).registerService(eq(Provider.class), any(Provider.class), any());
+        final Provider provider = Security.getProvider(PROVIDER_NAME);
+        assertThat(provider, is(instanceOf(TestProvider.class)));
+
+        installer.bundleChanged(new BundleEvent(BundleEvent.STOPPING, bundle));
+        assertThat(Security.getProvider(PROVIDER_NAME), is(nullValue()));
+        verify(registration).unregister();
+        // removed without instantiating the provider again
+        verify(bundle).loadClass(TestProvider.class.getName());
+        verify(bundleContext).registerService(eq(Provider.class), any(Provider.class), any());
+
+        // a provider with the same name installed by someone else is kept
+        Security.addProvider(new TestProvider());
+        installer.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        installer.bundleChanged(new BundleEvent(BundleEvent.STOPPING, bundle));
+        assertThat(Security.getProvider(PROVIDER_NAME), is(notNullValue()));
+        installer.deactivate(bundleContext);
+    }
+
+    @Test
+    public void testServiceProperties() {
+        final Dictionary<String, Object> properties = OsgiAwareSecurityProviderInstaller.serviceProperties(ProviderDescriptor.of(new TestProvider()));
+        assertThat(properties.size(), is(3));
+        assertThat(properties.get("provider.name"), is(PROVIDER_NAME));
+        assertThat((String[]) properties.get("cipher.algorithms"), arrayContaining("SlingTestAlias", "SlingTestCipher"));
+        assertThat((String[]) properties.get("secretkeyfactory.algorithms"), arrayContaining("SlingTestKeyFactory"));
+    }
+
+}
@@ -20,19 +20,34 @@ package org.apache.sling.commons.crypto.internal;
 
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
 
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.commons.lang3.reflect.MethodUtils;
+import org.apache.sling.commons.crypto.PasswordChangeListener;
 import org.apache.sling.commons.crypto.PasswordProvider;
 import org.apache.sling.commons.crypto.SaltProvider;
+import org.apache.sling.commons.crypto.VersionedPasswordProvider;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class PbeSecretKeyProviderTest {
@@ -108,4 +123,127 @@ public class PbeSecretKeyProviderTest {
         }
     }
 
+    @Test
+    public void testMemoizedKey() throws Exception {
+        final VersionedPasswordProvider passwordProvider = mock(VersionedPasswordProvider.class);
+        when(passwordProvider.getPassword()).thenReturn("first".toCharArray());
+        when(passwordProvider.getPasswordVersion()).thenReturn(1L);
+        final SaltProvider saltProvider = mock(SaltProvider.class);
+        when(saltProvider.getSalt()).thenReturn("CAFEBABECAFEDEAD".getBytes(StandardCharsets.UTF_8));
+        final PbeSecretKeyProvider provider = new PbeSecretKeyProvider();
+        FieldUtils.writeDeclaredField(provider, "passwordProvider", passwordProvider, true);
+        FieldUtils.writeDeclaredField(provider, "saltProvider", saltProvider, true);
+        final PbeSecretKeyProviderConfiguration configuration = mock(PbeSecretKeyProviderConfiguration.class);
+        when(configuration.algorithm()).thenReturn("PBKDF2WithHmacSHA256");
+        when(configuration.iterationCount()).thenReturn(1024);
+        when(configuration.keyLength()).thenReturn(256);
+        when(configuration.memoize()).thenReturn(true);
+        MethodUtils.invokeMethod(provider, true, "activate", configuration);
+        final ArgumentCaptor<PasswordChangeListener> listener = ArgumentCaptor.forClass(PasswordChangeListener.class);
+        verify(passwordProvider).addPasswordChangeListener(listener.capture());
+
+        final Object activated = awaitMemoizedKey(provider);
+        final SecretKey first = provider.getSecretKey();
+        final SecretKey second = provider.getSecretKey();
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.getEncoded(), is(first.getEncoded()));
+        assertThat(second.getAlgorithm(), is("PBKDF2WithHmacSHA256"));
+        verify(passwordProvider, times(1)).getPassword();
+
+        // password change
+        when(passwordProvider.getPassword()).thenReturn("second".toCharArray());
+        when(passwordProvider.getPasswordVersion()).thenReturn(2L);
+        listener.getValue().passwordChanged(passwordProvider, 2L);
+        final SecretKey third = provider.getSecretKey();
+        assertThat(third.getEncoded(), not(first.getEncoded()));
+        assertThat(provider.getSecretKey().getEncoded(), is(third.getEncoded()));
+        verify(passwordProvider, times(2)).getPassword();
+
+        // modified
+        MethodUtils.invokeMethod(provider, true, "modified", configuration);
+        assertThat(provider.getSecretKey().getEncoded(), is(third.getEncoded()));
+        verify(passwordProvider, times(3)).getPassword();
+        // replaced keys are wiped
+        assertThat(MethodUtils.invokeMethod(activated, true, "copy"), is(nullValue()));
+
+        final Object modified = awaitMemoizedKey(provider);
+        provider.deactivate();
+        verify(passwordProvider).removePasswordChangeListener(listener.getValue());
+        assertThat(MethodUtils.invokeMethod(modified, true, "copy"), is(nullValue()));
+        // keys derived after deactivation are not memoized
+        assertThat(provider.getSecretKey().getEncoded(), is(third.getEncoded()));
+        assertThat(FieldUtils.readDeclaredField(provider, "memoizedKey", true), is(nullValue()));
+    }
+
+    @Test
+    public void testMemoizedKeyWithoutPasswordVersion() throws Exception {
+        final PasswordProvider passwordProvider = mock(PasswordProvider.class);
+        when(passwordProvider.getPassword()).thenReturn("first".toCharArray());
+        final SaltProvider saltProvider = mock(SaltProvider.class);
+        when(saltProvider.getSalt()).thenReturn("CAFEBABECAFEDEAD".getBytes(StandardCharsets.UTF_8));
+        final PbeSecretKeyProvider provider = new PbeSecretKeyProvider();
+        FieldUtils.writeDeclaredField(provider, "passwordProvider", passwordProvider, true);
+        FieldUtils.writeDeclaredField(provider, "saltProvider", saltProvider, true);
+        final PbeSecretKeyProviderConfiguration configuration = mock(PbeSecretKeyProviderConfiguration.class);
+        when(configuration.algorithm()).thenReturn("PBKDF2WithHmacSHA256");
+        when(configuration.iterationCount()).thenReturn(1024);
+        when(configuration.keyLength()).thenReturn(256);
+        when(configuration.memoize()).thenReturn(true);
+        MethodUtils.invokeMethod(provider, true, "activate", configuration);
+        final Object memoized = awaitMemoizedKey(provider);
+
+        final SecretKey first = provider.getSecretKey();
+        assertThat(provider.getSecretKey().getEncoded(), is(first.getEncoded()));
+        assertThat(FieldUtils.readDeclaredField(provider, "memoizedKey", true), is(sameInstance(memoized)));
+
+        // the changed password is detected by its digest
+        when(passwordProvider.getPassword()).thenReturn("second".toCharArray());
+        final SecretKey second = provider.getSecretKey();
+        assertThat(second.getEncoded(), not(first.getEncoded()));
+        assertThat(provider.getSecretKey().getEncoded(), is(second.getEncoded()));
+        assertThat(MethodUtils.invokeMethod(memoized, true, "copy"), is(nullValue()));
+        provider.deactivate();
+    }
+
+    /**
+     * Waits for the eager derivation in the background, so it does not interfere with stubbing the mocks.
+     */
+    private static Object awaitMemoizedKey(final PbeSecretKeyProvider provider) throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            final Object memoizedKey = FieldUtils.readDeclaredField(provider, "memoizedKey", true);
+            if (memoizedKey != null) {
+                return memoizedKey;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("key has not been derived in the background");
+    }
+
+    @Test
+    public void testConcurrentDerivation() throws Exception {
+        final PasswordProvider passwordProvider = () -> "+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?".toCharArray();
+        final SaltProvider saltProvider = () -> "CAFEBABECAFEDEAD".getBytes(StandardCharsets.UTF_8);
+        final PbeSecretKeyProvider provider = new PbeSecretKeyProvider();
+        FieldUtils.writeDeclaredField(provider, "passwordProvider", passwordProvider, true);
+        FieldUtils.writeDeclaredField(provider, "saltProvider", saltProvider, true);
+        final PbeSecretKeyProviderConfiguration configuration = mock(PbeSecretKeyProviderConfiguration.class);
+        when(configuration.algorithm()).thenReturn("PBKDF2WithHmacSHA256");
+        when(configuration.iterationCount()).thenReturn(1024);
+        when(configuration.keyLength()).thenReturn(256);
+        MethodUtils.invokeMethod(provider, true, "activate", configuration);
+        final byte[] expected = provider.getSecretKey().getEncoded();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(() -> provider.getSecretKey().getEncoded()));
+            }
+            for (final Future<byte[]> future : futures) {
+                assertThat(future.get(), is(expected));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
 }
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ProviderScanIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Bundle bundle(final long bundleId, final long lastModified) {
+        final Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getLastModified()).thenReturn(lastModified);
+        return bundle;
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        final File file = new File(temporaryFolder.getRoot(), "index.properties");
+        final ProviderScanIndex index = new ProviderScanIndex(file);
+        assertThat(index.get(bundle(1, 100)), is(nullValue()));
+        index.put(bundle(1, 100), List.of("org.example.FirstProvider", "org.example.SecondProvider"));
+        index.put(bundle(2, 200), List.of());
+        index.put(bundle(3, 300), List.of("org.example.ThirdProvider"));
+        index.retain(Set.of(1L, 2L));
+        index.store();
+        assertThat(index.getMissCount(), is(1L));
+
+        final ProviderScanIndex loaded = new ProviderScanIndex(file);
+        assertThat(loaded.size(), is(2));
+        assertThat(loaded.get(bundle(1, 100)), contains("org.example.FirstProvider", "org.example.SecondProvider"));
+        assertThat(loaded.get(bundle(2, 200)), is(empty()));
+        // uninstalled
+        assertThat(loaded.get(bundle(3, 300)), is(nullValue()));
+        // updated
+        assertThat(loaded.get(bundle(1, 101)), is(nullValue()));
+        assertThat(loaded.getHitCount(), is(2L));
+        assertThat(loaded.getMissCount(), is(2L));
+    }
+
+    @Test
+    public void testInvalidIndex() throws Exception {
+        final File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), "1=100;org.example.Provider\nfoo=bar\n2=invalid".getBytes(StandardCharsets.ISO_8859_1));
+        final ProviderScanIndex index = new ProviderScanIndex(file);
+        assertThat(index.size(), is(1));
+        assertThat(index.get(bundle(1, 100)), contains("org.example.Provider"));
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class SaltPrefetcherTest {
+
+    private static void awaitFillLevel(final SaltPrefetcher prefetcher, final int fillLevel) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (prefetcher.getFillLevel() < fillLevel && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(prefetcher.getFillLevel(), is(fillLevel));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        final SaltPrefetcher prefetcher = new SaltPrefetcher(4, () -> new byte[]{(byte) counter.incrementAndGet()}, "test-salt-prefetch");
+        try {
+            awaitFillLevel(prefetcher, 4);
+            // never exceeds the capacity
+            Thread.sleep(50);
+            assertThat(counter.get(), is(4));
+            assertThat(prefetcher.poll(), is(new byte[]{1}));
+            assertThat(prefetcher.poll(), is(new byte[]{2}));
+            // refilled after dropping to half of the capacity
+            awaitFillLevel(prefetcher, 4);
+            assertThat(prefetcher.getStallCount(), is(0L));
+        } finally {
+            prefetcher.shutdown();
+        }
+        assertThat(prefetcher.getFillLevel(), is(0));
+    }
+
+    @Test
+    public void testStall() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final SaltPrefetcher prefetcher = new SaltPrefetcher(2, () -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new byte[8];
+        }, "test-salt-prefetch");
+        try {
+            assertThat(prefetcher.poll(), is(nullValue()));
+            assertThat(prefetcher.poll(), is(nullValue()));
+            assertThat(prefetcher.getStallCount(), is(2L));
+            latch.countDown();
+            awaitFillLevel(prefetcher, 2);
+            assertThat(prefetcher.poll(), is(new byte[8]));
+        } finally {
+            prefetcher.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new SaltPrefetcher(0, () -> new byte[8], "test-salt-prefetch");
+    }
+
+}
@@ -20,9 +20,18 @@ package org.apache.sling.commons.crypto.internal;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.apache.sling.commons.crypto.RandomSource;
 import org.junit.Test;
 
 public class SecureRandomSaltProviderTest {
@@ -36,4 +45,39 @@ public class SecureRandomSaltProviderTest {
         assertThat(provider.getSalt().length, is(8));
     }
 
+    @Test
+    public void testRandomSource() throws Exception {
+        final SecureRandomSaltProviderConfiguration configuration = mock(SecureRandomSaltProviderConfiguration.class);
+        when(configuration.algorithm()).thenReturn("unknown");
+        when(configuration.keyLength()).thenReturn(8);
+        final SecureRandom secureRandom = mock(SecureRandom.class);
+        doAnswer(invocation -> {
+            Arrays.fill(invocation.getArgument(0, byte[].class), (byte) 1);
+            return null;
+        }).when(secureRandom).nextBytes(any());
+        final RandomSource randomSource = mock(RandomSource.class);
+        when(randomSource.asSecureRandom()).thenReturn(secureRandom);
+        final SecureRandomSaltProvider provider = new SecureRandomSaltProvider(configuration, randomSource);
+        assertThat(provider.getSalt(), is(new byte[]{1, 1, 1, 1, 1, 1, 1, 1}));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        final SecureRandomSaltProviderConfiguration configuration = mock(SecureRandomSaltProviderConfiguration.class);
+        when(configuration.algorithm()).thenReturn("SHA1PRNG");
+        when(configuration.keyLength()).thenReturn(8);
+        when(configuration.prefetchSize()).thenReturn(16);
+        final SecureRandomSaltProvider provider = new SecureRandomSaltProvider(configuration);
+        final SaltPrefetcher prefetcher = provider.getPrefetcher();
+        assertThat(prefetcher, not(nullValue()));
+        for (int i = 0; i < 100; i++) {
+            final byte[] salt = provider.getSalt();
+            assertThat(salt.length, is(8));
+            assertThat(salt, not(is(provider.getSalt())));
+        }
+        MethodUtils.invokeMethod(provider, true, "deactivate");
+        // falls back to synchronous generation
+        assertThat(provider.getSalt().length, is(8));
+    }
+
 }
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.internal;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StripedRandomSourceTest {
+
+    private static StripedRandomSourceConfiguration configuration(final String algorithm, final int stripes, final long reseedIntervalBytes) {
+        final StripedRandomSourceConfiguration configuration = mock(StripedRandomSourceConfiguration.class);
+        when(configuration.algorithm()).thenReturn(algorithm);
+        when(configuration.stripes()).thenReturn(stripes);
+        when(configuration.reseedIntervalBytes()).thenReturn(reseedIntervalBytes);
+        return configuration;
+    }
+
+    @Test
+    public void testStripeCount() throws Exception {
+        assertThat(new StripedRandomSource(configuration("", 1, 0)).getStripeCount(), is(1));
+        assertThat(new StripedRandomSource(configuration("", 5, 0)).getStripeCount(), is(8));
+        assertThat(new StripedRandomSource(configuration("", 8, 0)).getStripeCount(), is(8));
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int stripes = new StripedRandomSource(configuration("", 0, 0)).getStripeCount();
+        assertThat(Integer.bitCount(stripes), is(1));
+        assertThat(stripes >= 2 * processors && stripes < 4 * processors, is(true));
+    }
+
+    @Test
+    public void testDefaultAlgorithm() throws Exception {
+        final StripedRandomSource source = new StripedRandomSource(configuration("", 2, 0));
+        // each stripe has its own state, unlike NativePRNG
+        assertThat(source.asSecureRandom().getAlgorithm(), is("StripedDRBG"));
+        assertThat(source.getStripe(0).getAlgorithm(), is("DRBG"));
+        assertThat(source.getStripe(0), not(sameInstance(source.getStripe(1))));
+        final byte[] a = new byte[16];
+        final byte[] b = new byte[16];
+        source.getStripe(0).nextBytes(a);
+        source.getStripe(1).nextBytes(b);
+        assertThat(a, not(is(b)));
+    }
+
+    @Test
+    public void testNextBytes() throws Exception {
+        final StripedRandomSource source = new StripedRandomSource(configuration("SHA1PRNG", 2, 0));
+        final byte[] a = new byte[16];
+        final byte[] b = new byte[16];
+        source.nextBytes(a);
+        source.nextBytes(b);
+        assertThat(a, not(is(new byte[16])));
+        assertThat(a, not(is(b)));
+        assertThat(source.getReseedCount(), is(0L));
+    }
+
+    @Test
+    public void testReseedByBytes() throws Exception {
+        // DRBG supports reseeding, SHA1PRNG is supplemented with a new seed
+        for (final String algorithm : new String[]{"DRBG", "SHA1PRNG"}) {
+            final StripedRandomSource source = new StripedRandomSource(configuration(algorithm, 1, 32));
+            for (int i = 0; i < 5; i++) {
+                source.nextBytes(new byte[16]);
+            }
+            // reseeded before the 3rd and 5th call
+            assertThat(source.getReseedCount(), is(2L));
+        }
+    }
+
+    @Test
+    public void testSecureRandomView() throws Exception {
+        final StripedRandomSource source = new StripedRandomSource(configuration("SHA1PRNG", 1, 16));
+        final SecureRandom secureRandom = source.asSecureRandom();
+        assertThat(secureRandom.getAlgorithm(), is("StripedSHA1PRNG"));
+        secureRandom.nextBytes(new byte[16]);
+        secureRandom.nextInt();
+        assertThat(secureRandom.generateSeed(8).length, is(8));
+        assertThat(source.getReseedCount(), is(1L));
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final StripedRandomSource source = new StripedRandomSource(configuration("", 4, 1024));
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    final List<String> values = new ArrayList<>();
+                    for (int i = 0; i < 1000; i++) {
+                        final byte[] bytes = new byte[16];
+                        source.nextBytes(bytes);
+                        values.add(new BigInteger(1, bytes).toString(16));
+                    }
+                    return values;
+                }));
+            }
+            final Set<String> values = new HashSet<>();
+            for (final Future<List<String>> future : futures) {
+                values.addAll(future.get());
+            }
+            assertThat(values.size(), is(8000));
+            assertThat(source.toString(), startsWith("StripedRandomSource [algorithm="));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jasypt.internal;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class EncryptorPoolTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        new EncryptorPool<>(List.of());
+    }
+
+    @Test
+    public void testContention() throws Exception {
+        final EncryptorPool<String> pool = new EncryptorPool<>(List.of("encryptor"));
+        assertThat(pool.apply(String::length), is(9));
+        assertThat(pool.getOperationCount(), is(1L));
+        assertThat(pool.getContendedCount(), is(0L));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<Integer> holder = CompletableFuture.supplyAsync(() -> pool.apply(encryptor -> {
+            acquired.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return encryptor.length();
+        }));
+        assertThat(acquired.await(10, TimeUnit.SECONDS), is(true));
+        final CompletableFuture<Integer> waiter = CompletableFuture.supplyAsync(() -> pool.apply(String::length));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pool.getContendedCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        assertThat(holder.get(10, TimeUnit.SECONDS), is(9));
+        assertThat(waiter.get(10, TimeUnit.SECONDS), is(9));
+        assertThat(pool.getOperationCount(), is(3L));
+        assertThat(pool.getContendedCount(), is(1L));
+        assertThat(pool.getWaitNanos(), greaterThan(0L));
+    }
+
+    @Test
+    public void testAwaitIdle() throws Exception {
+        final EncryptorPool<String> pool = new EncryptorPool<>(List.of("one", "two"));
+        pool.awaitIdle();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<Integer> holder = CompletableFuture.supplyAsync(() -> pool.apply(encryptor -> {
+            acquired.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return encryptor.length();
+        }));
+        assertThat(acquired.await(10, TimeUnit.SECONDS), is(true));
+        final CompletableFuture<Void> idle = CompletableFuture.runAsync(pool::awaitIdle);
+        Thread.sleep(100);
+        assertThat(idle.isDone(), is(false));
+        release.countDown();
+        holder.get(10, TimeUnit.SECONDS);
+        idle.get(10, TimeUnit.SECONDS);
+        // the encryptors are available again
+        assertThat(pool.apply(String::length), is(3));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jasypt.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jasypt.encryption.pbe.StandardPBEByteEncryptor;
+import org.jasypt.iv.RandomIvGenerator;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class JasyptNativeDecryptorTest {
+
+    private static final byte[] MESSAGE = "Rudy, a Message to You".getBytes(StandardCharsets.UTF_8);
+
+    private static final char[] PASSWORD = "+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?".toCharArray();
+
+    private static StandardPBEByteEncryptor encryptor(final String algorithm) {
+        final StandardPBEByteEncryptor encryptor = new StandardPBEByteEncryptor();
+        encryptor.setAlgorithm(algorithm);
+        encryptor.setIvGenerator(new RandomIvGenerator());
+        encryptor.setKeyObtentionIterations(100);
+        encryptor.setPasswordCharArray(PASSWORD);
+        return encryptor;
+    }
+
+    @Test
+    public void testWireCompatibility() {
+        for (final String algorithm : new String[]{"PBEWITHHMACSHA1ANDAES_128", "PBEWITHHMACSHA256ANDAES_128", "PBEWithHmacSHA384AndAES_256", "PBEWITHHMACSHA512ANDAES_256"}) {
+            final JasyptNativeDecryptor decryptor = JasyptNativeDecryptor.create(algorithm, 100, PASSWORD, 4);
+            assertThat(decryptor, notNullValue());
+            final StandardPBEByteEncryptor encryptor = encryptor(algorithm);
+            assertThat(algorithm, decryptor.decrypt(encryptor.encrypt(MESSAGE)), is(MESSAGE));
+            assertThat(algorithm, decryptor.decrypt(encryptor.encrypt(new byte[0])), is(new byte[0]));
+        }
+    }
+
+    @Test
+    public void testKeyCache() {
+        final StandardPBEByteEncryptor encryptor = encryptor("PBEWITHHMACSHA512ANDAES_256");
+        final JasyptNativeDecryptor decryptor = JasyptNativeDecryptor.create("PBEWITHHMACSHA512ANDAES_256", 100, PASSWORD, 1);
+        final byte[] first = encryptor.encrypt(MESSAGE);
+        final byte[] second = encryptor.encrypt(MESSAGE);
+        assertThat(decryptor.decrypt(first), is(MESSAGE));
+        assertThat(decryptor.decrypt(first), is(MESSAGE));
+        assertThat(decryptor.getCacheMissCount(), is(1L));
+        assertThat(decryptor.getCacheHitCount(), is(1L));
+        // evicts first
+        assertThat(decryptor.decrypt(second), is(MESSAGE));
+        assertThat(decryptor.decrypt(first), is(MESSAGE));
+        assertThat(decryptor.getCacheMissCount(), is(3L));
+        decryptor.clear();
+        assertThat(decryptor.decrypt(first), is(MESSAGE));
+        assertThat(decryptor.getCacheMissCount(), is(4L));
+        // keys are no longer cached once cleared
+        assertThat(decryptor.decrypt(first), is(MESSAGE));
+        assertThat(decryptor.getCacheMissCount(), is(5L));
+    }
+
+    @Test
+    public void testUndecryptableCiphertexts() {
+        final JasyptNativeDecryptor decryptor = JasyptNativeDecryptor.create("PBEWITHHMACSHA512ANDAES_256", 100, PASSWORD, 4);
+        assertThat(decryptor.decrypt(new byte[40]), nullValue());
+        assertThat(decryptor.decrypt(new byte[48]), nullValue());
+        // wrong password, the padding check fails in most cases but might pass and yield garbage
+        final byte[] ciphertext = encryptor("PBEWITHHMACSHA512ANDAES_256").encrypt(MESSAGE);
+        final JasyptNativeDecryptor other = JasyptNativeDecryptor.create("PBEWITHHMACSHA512ANDAES_256", 100, "other".toCharArray(), 4);
+        assertThat(other.decrypt(ciphertext), is(not(MESSAGE)));
+    }
+
+    @Test
+    public void testPasswordNormalization() throws Exception {
+        // the PBES2 ciphers of SunJCE used by Jasypt reject non-ASCII passwords, so the ciphertext is created like Jasypt does from the
+        // password normalized to NFC (composed é)
+        final byte[] salt = new byte[16];
+        final byte[] iv = new byte[16];
+        final SecureRandom secureRandom = new SecureRandom();
+        secureRandom.nextBytes(salt);
+        secureRandom.nextBytes(iv);
+        final PBEKeySpec keySpec = new PBEKeySpec("\u00e9t\u00e9".toCharArray(), salt, 100, 128);
+        final byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(keySpec).getEncoded();
+        final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        final byte[] ciphertext = ByteBuffer.allocate(32 + cipher.getOutputSize(MESSAGE.length)).put(salt).put(iv).put(cipher.doFinal(MESSAGE)).array();
+
+        // decomposed é
+        final JasyptNativeDecryptor decryptor = JasyptNativeDecryptor.create("PBEWITHHMACSHA256ANDAES_128", 100, "e\u0301te\u0301".toCharArray(), 4);
+        assertThat(decryptor.decrypt(ciphertext), is(MESSAGE));
+    }
+
+    @Test
+    public void testUnsupportedAlgorithm() {
+        assertThat(JasyptNativeDecryptor.create("PBEWITHMD5ANDDES", 100, PASSWORD, 4), nullValue());
+        assertThat(JasyptNativeDecryptor.create("PBEWITHSHA256AND128BITAES-CBC-BC", 100, PASSWORD, 4), nullValue());
+    }
+
+}
@@ -18,10 +18,25 @@
  */
 package org.apache.sling.commons.crypto.jasypt.internal;
 
+import java.util.Arrays;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.commons.lang3.reflect.MethodUtils;
+import org.apache.sling.commons.crypto.RandomSource;
+import org.jasypt.salt.SaltGenerator;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.BundleContext;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class JasyptRandomSaltGeneratorRegistrarTest {
 
@@ -36,4 +51,23 @@ public class JasyptRandomSaltGeneratorRegistrarTest {
         }
     }
 
+    @Test
+    public void testRandomSource() throws Exception {
+        final JasyptRandomSaltGeneratorRegistrar registrar = new JasyptRandomSaltGeneratorRegistrar();
+        final RandomSource randomSource = mock(RandomSource.class);
+        doAnswer(invocation -> {
+            Arrays.fill(invocation.getArgument(0, byte[].class), (byte) 1);
+            return null;
+        }).when(randomSource).nextBytes(any());
+        FieldUtils.writeField(registrar, "randomSource", randomSource, true);
+        final JasyptRandomSaltGeneratorRegistrarConfiguration configuration = mock(JasyptRandomSaltGeneratorRegistrarConfiguration.class);
+        when(configuration.algorithm()).thenReturn("SHA1PRNG");
+        final BundleContext bundleContext = mock(BundleContext.class);
+        MethodUtils.invokeMethod(registrar, true, "activate", configuration, bundleContext);
+        final ArgumentCaptor<SaltGenerator> generator = ArgumentCaptor.forClass(SaltGenerator.class);
+        verify(bundleContext).registerService(eq(SaltGenerator.class), generator.capture(), any());
+        assertThat(generator.getValue().generateSalt(4), is(new byte[]{1, 1, 1, 1}));
+        assertThat(generator.getValue().includePlainSaltInEncryptionResults(), is(true));
+    }
+
 }
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jasypt.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.apache.sling.commons.crypto.PasswordProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.jasypt.commons.CommonUtils.STRING_OUTPUT_TYPE_BASE64;
+import static org.junit.Assume.assumeNotNull;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies that concurrent encryption and decryption never waits for a contended monitor, which would pin virtual threads to their
+ * carrier threads.
+ */
+public class JasyptStandardPbeStringCryptoServicePinningTest {
+
+    private static final String MESSAGE = "Rudy, a Message to You";
+
+    private static final int THREADS = 8;
+
+    private static final int OPERATIONS = 25;
+
+    private JasyptStandardPbeStringCryptoService service;
+
+    @Before
+    public void setUp() throws Exception {
+        // no mock, as Mockito synchronizes on recorded invocations
+        final PasswordProvider passwordProvider = "+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?"::toCharArray;
+        service = new JasyptStandardPbeStringCryptoService();
+        FieldUtils.writeDeclaredField(service, "passwordProvider", passwordProvider, true);
+        FieldUtils.writeDeclaredField(service, "ivGenerator", new RandomBytesIvGenerator(new LockingRandomBytes(new SecureRandom())), true);
+        FieldUtils.writeDeclaredField(service, "saltGenerator", new RandomBytesSaltGenerator(new LockingRandomBytes(new SecureRandom())), true);
+        final JasyptStandardPbeStringCryptoServiceConfiguration configuration = mock(JasyptStandardPbeStringCryptoServiceConfiguration.class);
+        when(configuration.algorithm()).thenReturn("PBEWITHHMACSHA512ANDAES_256");
+        when(configuration.keyObtentionIterations()).thenReturn(1000);
+        when(configuration.stringOutputType()).thenReturn(STRING_OUTPUT_TYPE_BASE64);
+        MethodUtils.invokeMethod(service, true, "activate", configuration);
+    }
+
+    private void roundtrip() {
+        assertThat(service.decrypt(service.encrypt(MESSAGE)), is(MESSAGE));
+    }
+
+    /**
+     * Counts the times the current thread was blocked on entering a monitor.
+     */
+    private static long blockedCount() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadInfo(Thread.currentThread().getId()).getBlockedCount();
+    }
+
+    @Test
+    public void testNoContendedMonitors() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch warmedUp = new CountDownLatch(THREADS);
+            final List<Future<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    // class loading and provider initialization synchronize once
+                    roundtrip();
+                    warmedUp.countDown();
+                    warmedUp.await();
+                    final long before = blockedCount();
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        roundtrip();
+                    }
+                    return blockedCount() - before;
+                }));
+            }
+            long blocked = 0;
+            for (final Future<Long> future : futures) {
+                blocked += future.get();
+            }
+            assertThat("threads blocked on monitors", blocked, is(0L));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNoPinnedVirtualThreads() throws Exception {
+        assumeTrue("virtual threads require Java 21", Runtime.version().feature() >= 21);
+        // read once by the JVM, set by the surefire configuration
+        assumeNotNull(System.getProperty("jdk.tracePinnedThreads"));
+        final PrintStream out = System.out;
+        final ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(trace, true, StandardCharsets.UTF_8));
+        try {
+            final ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < THREADS * OPERATIONS; i++) {
+                    futures.add(executor.submit(this::roundtrip));
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            System.setOut(out);
+        }
+        final String output = trace.toString(StandardCharsets.UTF_8);
+        assertThat(output, not(containsString("<== monitors")));
+    }
+
+}
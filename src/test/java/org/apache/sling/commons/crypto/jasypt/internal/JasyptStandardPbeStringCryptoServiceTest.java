@@ -18,18 +18,32 @@
  */
 package org.apache.sling.commons.crypto.jasypt.internal;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.Provider;
 import java.security.Security;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.commons.lang3.reflect.MethodUtils;
 import org.apache.sling.commons.crypto.PasswordProvider;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jasypt.encryption.pbe.StandardPBEByteEncryptor;
+import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 import org.jasypt.iv.RandomIvGenerator;
 import org.junit.Test;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
 import static org.jasypt.commons.CommonUtils.STRING_OUTPUT_TYPE_BASE64;
 import static org.jasypt.commons.CommonUtils.STRING_OUTPUT_TYPE_HEXADECIMAL;
 import static org.jasypt.encryption.pbe.StandardPBEByteEncryptor.DEFAULT_KEY_OBTENTION_ITERATIONS;
@@ -64,17 +78,138 @@ public class JasyptStandardPbeStringCryptoServiceTest {
             when(configuration.keyObtentionIterations()).thenReturn(1);
             when(configuration.securityProviderName()).thenReturn("");
             when(configuration.stringOutputType()).thenReturn(STRING_OUTPUT_TYPE_HEXADECIMAL);
-            MethodUtils.invokeMethod(service, true, "modified", configuration);
+            when(configuration.poolSize()).thenReturn(2);
+            final EncryptorPool<StandardPBEByteEncryptor> previous = service.getEncryptorPool();
+            service.reconfigure(configuration).get();
+            assertThat(service.getEncryptorPool(), is(not(sameInstance(previous))));
             final String ciphertext = service.encrypt(MESSAGE);
             final String message = service.decrypt(ciphertext);
             assertThat(message, is(MESSAGE));
+            assertThat(service.getEncryptorPool().getSize(), is(2));
+            assertThat(service.getEncryptorPool().getOperationCount(), is(2L));
         }
         { // deactivate
             MethodUtils.invokeMethod(service, true, "deactivate");
             final String ciphertext = service.encrypt(MESSAGE);
             final String message = service.decrypt(ciphertext);
             assertThat(message, is(MESSAGE));
+            // no setups are created for configurations modified after deactivation
+            final JasyptStandardPbeStringCryptoServiceConfiguration configuration = mock(JasyptStandardPbeStringCryptoServiceConfiguration.class);
+            when(configuration.algorithm()).thenReturn("PBEWITHHMACSHA512ANDAES_256");
+            final CompletableFuture<Void> future = service.reconfigure(configuration);
+            try {
+                future.get();
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), is(instanceOf(RejectedExecutionException.class)));
+            }
+        }
+    }
+
+    @Test
+    public void testNativeDecryption() throws Exception {
+        final PasswordProvider passwordProvider = mock(PasswordProvider.class);
+        when(passwordProvider.getPassword()).thenReturn("+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?".toCharArray());
+        final JasyptStandardPbeStringCryptoService service = new JasyptStandardPbeStringCryptoService();
+        FieldUtils.writeDeclaredField(service, "passwordProvider", passwordProvider, true);
+        FieldUtils.writeDeclaredField(service, "ivGenerator", new RandomIvGenerator(), true);
+        final JasyptStandardPbeStringCryptoServiceConfiguration configuration = mock(JasyptStandardPbeStringCryptoServiceConfiguration.class);
+        when(configuration.algorithm()).thenReturn("PBEWITHHMACSHA512ANDAES_256");
+        when(configuration.keyObtentionIterations()).thenReturn(DEFAULT_KEY_OBTENTION_ITERATIONS);
+        when(configuration.stringOutputType()).thenReturn(STRING_OUTPUT_TYPE_BASE64);
+        when(configuration.decryptionKeyCacheSize()).thenReturn(16);
+        MethodUtils.invokeMethod(service, true, "activate", configuration);
+
+        final String ciphertext = service.encrypt(MESSAGE);
+        for (int i = 0; i < 3; i++) {
+            assertThat(service.decrypt(ciphertext), is(MESSAGE));
         }
+        final byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        assertThat(service.decrypt(service.encrypt(message)), is(message));
+        // decrypted with plain JCA only
+        assertThat(service.getEncryptorPool().getOperationCount(), is(2L));
+        assertThat(service.getNativeDecryptor().getCacheMissCount(), is(2L));
+        assertThat(service.getNativeDecryptor().getCacheHitCount(), is(2L));
+        // invalid ciphertexts are handled by Jasypt
+        try {
+            service.decrypt(Base64.getEncoder().encodeToString(new byte[48]));
+            fail("EncryptionOperationNotPossibleException expected");
+        } catch (EncryptionOperationNotPossibleException e) {
+            assertThat(service.getEncryptorPool().getOperationCount(), is(3L));
+        }
+    }
+
+    @Test
+    public void testStringEncryptorCompatibility() throws Exception {
+        final String password = "+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?";
+        final PasswordProvider passwordProvider = mock(PasswordProvider.class);
+        when(passwordProvider.getPassword()).thenAnswer(invocation -> password.toCharArray());
+        for (final String stringOutputType : new String[]{STRING_OUTPUT_TYPE_BASE64, STRING_OUTPUT_TYPE_HEXADECIMAL}) {
+            final JasyptStandardPbeStringCryptoService service = new JasyptStandardPbeStringCryptoService();
+            FieldUtils.writeDeclaredField(service, "passwordProvider", passwordProvider, true);
+            FieldUtils.writeDeclaredField(service, "ivGenerator", new RandomIvGenerator(), true);
+            final JasyptStandardPbeStringCryptoServiceConfiguration configuration = mock(JasyptStandardPbeStringCryptoServiceConfiguration.class);
+            when(configuration.algorithm()).thenReturn("PBEWITHHMACSHA512ANDAES_256");
+            when(configuration.keyObtentionIterations()).thenReturn(DEFAULT_KEY_OBTENTION_ITERATIONS);
+            when(configuration.stringOutputType()).thenReturn(stringOutputType);
+            when(configuration.poolSize()).thenReturn(1);
+            MethodUtils.invokeMethod(service, true, "activate", configuration);
+            final StandardPBEStringEncryptor encryptor = new StandardPBEStringEncryptor();
+            encryptor.setAlgorithm("PBEWITHHMACSHA512ANDAES_256");
+            encryptor.setIvGenerator(new RandomIvGenerator());
+            encryptor.setPassword(password);
+            encryptor.setStringOutputType(stringOutputType);
+            final String message = MESSAGE + " \uD83C\uDFC1";
+            assertThat(encryptor.decrypt(service.encrypt(message)), is(message));
+            assertThat(service.decrypt(encryptor.encrypt(message)), is(message));
+            // ciphertext without encoding layer is smaller
+            assertThat(service.encrypt(message.getBytes(StandardCharsets.UTF_8)).length < service.encrypt(message).length(), is(true));
+        }
+    }
+
+    @Test(expected = EncryptionOperationNotPossibleException.class)
+    public void testInvalidEncoding() throws Exception {
+        final PasswordProvider passwordProvider = mock(PasswordProvider.class);
+        when(passwordProvider.getPassword()).thenReturn("+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?".toCharArray());
+        final JasyptStandardPbeStringCryptoService service = new JasyptStandardPbeStringCryptoService();
+        FieldUtils.writeDeclaredField(service, "passwordProvider", passwordProvider, true);
+        FieldUtils.writeDeclaredField(service, "ivGenerator", new RandomIvGenerator(), true);
+        final JasyptStandardPbeStringCryptoServiceConfiguration configuration = mock(JasyptStandardPbeStringCryptoServiceConfiguration.class);
+        when(configuration.algorithm()).thenReturn("PBEWITHHMACSHA512ANDAES_256");
+        when(configuration.keyObtentionIterations()).thenReturn(DEFAULT_KEY_OBTENTION_ITERATIONS);
+        when(configuration.stringOutputType()).thenReturn(STRING_OUTPUT_TYPE_HEXADECIMAL);
+        when(configuration.poolSize()).thenReturn(1);
+        MethodUtils.invokeMethod(service, true, "activate", configuration);
+        service.decrypt("not hexadecimal");
+    }
+
+    @Test
+    public void testBinaryCryptoRoundtrip() throws Exception {
+        final PasswordProvider passwordProvider = mock(PasswordProvider.class);
+        when(passwordProvider.getPassword()).thenReturn("+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?".toCharArray());
+        final JasyptStandardPbeStringCryptoService service = new JasyptStandardPbeStringCryptoService();
+        FieldUtils.writeDeclaredField(service, "passwordProvider", passwordProvider, true);
+        FieldUtils.writeDeclaredField(service, "ivGenerator", new RandomIvGenerator(), true);
+        final JasyptStandardPbeStringCryptoServiceConfiguration configuration = mock(JasyptStandardPbeStringCryptoServiceConfiguration.class);
+        when(configuration.algorithm()).thenReturn("PBEWITHHMACSHA512ANDAES_256");
+        when(configuration.keyObtentionIterations()).thenReturn(DEFAULT_KEY_OBTENTION_ITERATIONS);
+        when(configuration.stringOutputType()).thenReturn(STRING_OUTPUT_TYPE_BASE64);
+        MethodUtils.invokeMethod(service, true, "activate", configuration);
+
+        final byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        final byte[] ciphertext = service.encrypt(message);
+        assertThat(service.decrypt(ciphertext), is(message));
+        assertThat(ciphertext.length <= service.getMaxCiphertextLength(message.length), is(true));
+        // binary ciphertext is the decoded string ciphertext
+        final byte[] decoded = Base64.getDecoder().decode(service.encrypt(MESSAGE));
+        assertThat(service.decrypt(decoded), is(message));
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(service.getMaxCiphertextLength(message.length));
+        service.encrypt(ByteBuffer.wrap(message), direct);
+        direct.flip();
+        final ByteBuffer decrypted = ByteBuffer.allocate(direct.remaining());
+        final int length = service.decrypt(direct, decrypted);
+        assertThat(Arrays.copyOf(decrypted.array(), length), is(message));
     }
 
     @Test
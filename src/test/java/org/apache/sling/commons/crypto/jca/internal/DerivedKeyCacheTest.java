@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+class DerivedKeyCacheTest {
+
+    private final AtomicInteger derivations = new AtomicInteger();
+
+    private SecretKey derive(byte value) {
+        derivations.incrementAndGet();
+        return new SecretKeySpec(new byte[] { value, value, value, value }, "AES");
+    }
+
+    private static DerivedKeyCache.CacheKey cacheKey(int salt) {
+        return new DerivedKeyCache.CacheKey(1, new byte[] { (byte) salt }, 1000, 256, "PBKDF2WithHmacSHA512");
+    }
+
+    @Test
+    void testHitAndMiss() throws Exception {
+        final DerivedKeyCache cache = new DerivedKeyCache(4, 0);
+        final SecretKey first = cache.get(cacheKey(1), () -> derive((byte) 1));
+        final SecretKey second = cache.get(cacheKey(1), () -> derive((byte) 1));
+        assertEquals(1, derivations.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertNotSame(first, second);
+        assertArrayEquals(first.getEncoded(), second.getEncoded());
+        assertEquals("AES", second.getAlgorithm());
+    }
+
+    @Test
+    void testDifferentParametersAreDifferentEntries() throws Exception {
+        final DerivedKeyCache cache = new DerivedKeyCache(8, 0);
+        cache.get(new DerivedKeyCache.CacheKey(1, new byte[] { 1 }, 1000, 256, "PBKDF2WithHmacSHA512"), () -> derive((byte) 1));
+        cache.get(new DerivedKeyCache.CacheKey(1, new byte[] { 1 }, 1001, 256, "PBKDF2WithHmacSHA512"), () -> derive((byte) 1));
+        cache.get(new DerivedKeyCache.CacheKey(1, new byte[] { 1 }, 1000, 128, "PBKDF2WithHmacSHA512"), () -> derive((byte) 1));
+        cache.get(new DerivedKeyCache.CacheKey(1, new byte[] { 1 }, 1000, 256, "PBKDF2WithHmacSHA256"), () -> derive((byte) 1));
+        cache.get(new DerivedKeyCache.CacheKey(2, new byte[] { 1 }, 1000, 256, "PBKDF2WithHmacSHA512"), () -> derive((byte) 1));
+        assertEquals(5, derivations.get());
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    void testEviction() throws Exception {
+        final DerivedKeyCache cache = new DerivedKeyCache(2, 0);
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        cache.get(cacheKey(2), () -> derive((byte) 2));
+        // access 1 so that 2 becomes the least recently used entry
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        cache.get(cacheKey(3), () -> derive((byte) 3));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        assertEquals(3, derivations.get());
+        cache.get(cacheKey(2), () -> derive((byte) 2));
+        assertEquals(4, derivations.get());
+    }
+
+    @Test
+    void testExpiry() throws Exception {
+        final AtomicLong clock = new AtomicLong();
+        final DerivedKeyCache cache = new DerivedKeyCache(2, 60, clock::get);
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        assertEquals(1, derivations.get());
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        assertEquals(2, derivations.get());
+    }
+
+    @Test
+    void testDisabled() throws Exception {
+        final DerivedKeyCache cache = new DerivedKeyCache(0, 0);
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        assertEquals(2, derivations.get());
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void testClear() throws Exception {
+        final DerivedKeyCache cache = new DerivedKeyCache(2, 0);
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        cache.clear();
+        assertEquals(0, cache.size());
+        final SecretKey key = cache.get(cacheKey(1), () -> derive((byte) 1));
+        assertArrayEquals(new byte[] { 1, 1, 1, 1 }, key.getEncoded());
+        assertEquals(2, derivations.get());
+    }
+
+    @Test
+    void testClose() throws Exception {
+        final DerivedKeyCache cache = new DerivedKeyCache(2, 0);
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        // closed while deriving
+        final SecretKey key = cache.get(cacheKey(2), () -> {
+            cache.close();
+            return derive((byte) 2);
+        });
+        assertArrayEquals(new byte[] { 2, 2, 2, 2 }, key.getEncoded());
+        assertEquals(0, cache.size());
+        cache.get(cacheKey(1), () -> derive((byte) 1));
+        assertEquals(0, cache.size());
+        assertEquals(3, derivations.get());
+    }
+
+}
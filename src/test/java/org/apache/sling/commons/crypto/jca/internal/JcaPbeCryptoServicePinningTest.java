@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.commons.crypto.PasswordProvider;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.osgi.util.converter.Converters;
+
+/**
+ * Verifies that concurrent encryption and decryption never waits for a contended monitor, which would pin virtual threads to their
+ * carrier threads.
+ */
+class JcaPbeCryptoServicePinningTest {
+
+    private static final String MESSAGE = "Rudy, a Message to You";
+
+    private static final int THREADS = 8;
+
+    private static final int OPERATIONS = 25;
+
+    private JcaPbeCryptoService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // no mock, as Mockito synchronizes on recorded invocations
+        final PasswordProvider passwordProvider = "+AQ?aDes!'DBMkrCi:FE6q\\sOn=Pbmn=PK8n=PK?"::toCharArray;
+        // no key cache, so every operation derives its key
+        final Map<String, Object> properties = Map.of("keyCacheSize", 0, "numKeyIterations", 1000);
+        service = new JcaPbeCryptoService(Converters.standardConverter().convert(properties).to(JcaPbeCryptoServiceConfiguration.class),
+                new byte[16], passwordProvider);
+    }
+
+    private void roundtrip() {
+        assertEquals(MESSAGE, service.decrypt(service.encrypt(MESSAGE)));
+    }
+
+    /**
+     * Counts the times the current thread was blocked on entering a monitor.
+     */
+    private static long blockedCount() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadInfo(Thread.currentThread().getId()).getBlockedCount();
+    }
+
+    @Test
+    void testNoContendedMonitors() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch warmedUp = new CountDownLatch(THREADS);
+            final List<Future<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    // class loading and provider initialization synchronize once
+                    roundtrip();
+                    warmedUp.countDown();
+                    warmedUp.await();
+                    final long before = blockedCount();
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        roundtrip();
+                    }
+                    return blockedCount() - before;
+                }));
+            }
+            long blocked = 0;
+            for (final Future<Long> future : futures) {
+                blocked += future.get();
+            }
+            assertEquals(0, blocked, "threads blocked on monitors");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void testNoPinnedVirtualThreads() throws Exception {
+        // read once by the JVM, set by the surefire configuration
+        Assumptions.assumeTrue(System.getProperty("jdk.tracePinnedThreads") != null, "jdk.tracePinnedThreads not set");
+        final PrintStream out = System.out;
+        final ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(trace, true, StandardCharsets.UTF_8));
+        try {
+            final ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < THREADS * OPERATIONS; i++) {
+                    futures.add(executor.submit(this::roundtrip));
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            System.setOut(out);
+        }
+        final String output = trace.toString(StandardCharsets.UTF_8);
+        assertFalse(output.contains("<== monitors"), output);
+    }
+
+}
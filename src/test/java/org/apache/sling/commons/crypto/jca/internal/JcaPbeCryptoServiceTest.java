@@ -18,32 +18,69 @@
  */
 package org.apache.sling.commons.crypto.jca.internal;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.io.IOException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
 import java.security.Security;
-import java.security.spec.InvalidKeySpecException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Stream;
 
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.PBEParameterSpec;
 
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.apache.sling.commons.crypto.CryptoResult;
+import org.apache.sling.commons.crypto.PasswordChangeListener;
 import org.apache.sling.commons.crypto.PasswordProvider;
+import org.apache.sling.commons.crypto.RandomSource;
+import org.apache.sling.commons.crypto.VersionedPasswordProvider;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.Parameter;
 import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.ArgumentCaptor;
 import org.osgi.util.converter.Converters;
 
 @ParameterizedClass(name="{index} => {0}")
@@ -82,6 +119,7 @@ class JcaPbeCryptoServiceTest {
 
     private PasswordProvider passwordProvider;
     private byte[] salt;
+    private Map<String, Object> properties;
     private JcaPbeCryptoServiceConfiguration configuration;
     private JcaPbeCryptoService service;
 
@@ -92,7 +130,7 @@ class JcaPbeCryptoServiceTest {
         salt = new byte[16];
         Random random = new Random();
         random.nextBytes(salt);
-        Map<String, Object> properties = new HashMap<>();
+        properties = new HashMap<>();
         if (!providerName.isEmpty()) {
             properties.put("securityProviderName", providerName);
             if (providerName.equals("BC") && Security.getProvider("BC") == null) {
@@ -127,6 +165,16 @@ class JcaPbeCryptoServiceTest {
         assertEquals(MESSAGE, service.decrypt(service2.encrypt(MESSAGE)));
     }
 
+    @Test
+    void testRandomSource() throws Exception {
+        final SecureRandom secureRandom = spy(new SecureRandom());
+        final RandomSource randomSource = mock(RandomSource.class);
+        when(randomSource.asSecureRandom()).thenReturn(secureRandom);
+        final JcaPbeCryptoService service = new JcaPbeCryptoService(configuration, salt, passwordProvider, randomSource);
+        assertEquals(MESSAGE, service.decrypt(service.encrypt(MESSAGE)));
+        verify(secureRandom, atLeastOnce()).nextBytes(any());
+    }
+
     @Test
     void testSameMessageDifferentCipher() {
         final String ciphertext1 = service.encrypt(MESSAGE);
@@ -138,7 +186,468 @@ class JcaPbeCryptoServiceTest {
     }
 
     @Test
-    void testIfSaltIsIncludedInParams() throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException, InvalidKeySpecException, IOException {
-        assertEquals(paramsIncludeSalt, JcaPbeCryptoService.isSaltIncludedInParams(service.createDefaultAlgorithmParameters()));
+    void testBinaryCryptoRoundtrip() {
+        final byte[] message = new byte[1000];
+        new Random().nextBytes(message);
+        final byte[] ciphertext = service.encrypt(message);
+        assertArrayEquals(message, service.decrypt(ciphertext));
+        assertTrue(ciphertext.length <= service.getMaxCiphertextLength(message.length));
+        // text and binary ciphertexts are interchangeable
+        final byte[] textCiphertext = Base64.getDecoder().decode(service.encrypt(MESSAGE));
+        assertEquals(MESSAGE, new String(service.decrypt(textCiphertext), StandardCharsets.UTF_8));
+        assertEquals(MESSAGE, service.decrypt(Base64.getEncoder().encodeToString(service.encrypt(MESSAGE.getBytes(StandardCharsets.UTF_8)))));
+    }
+
+    @Test
+    void testMaxCiphertextLength() throws Exception {
+        assertMaxCiphertextLength(service);
+        assertMaxCiphertextLength(createService("envelopeVersion", 2));
+        if (cipherAlgorithm.isEmpty()) {
+            // GCM by default
+            assertMaxCiphertextLength(createService("cipherAlgorithm", "AES/CBC/PKCS5Padding"));
+        }
+    }
+
+    private static void assertMaxCiphertextLength(JcaPbeCryptoService service) {
+        final int[] lengths = { 0, 1, 15, 16, 17, 1000 };
+        final int[] maxLengths = new int[lengths.length];
+        final long created = service.getCipherPool().getCreatedCount();
+        final int idle = service.getCipherPool().getIdleCount();
+        final long keyLookups = service.getKeyCache().getHitCount() + service.getKeyCache().getMissCount();
+        for (int i = 0; i < lengths.length; i++) {
+            maxLengths[i] = service.getMaxCiphertextLength(lengths[i]);
+        }
+        // computed without keys and ciphers
+        assertEquals(created, service.getCipherPool().getCreatedCount());
+        assertEquals(idle, service.getCipherPool().getIdleCount());
+        assertEquals(keyLookups, service.getKeyCache().getHitCount() + service.getKeyCache().getMissCount());
+        for (int i = 0; i < lengths.length; i++) {
+            final int length = service.encrypt(new byte[lengths[i]]).length;
+            assertTrue(length <= maxLengths[i], "length " + length + " exceeds " + maxLengths[i]);
+            // at most one block of padding too much
+            assertTrue(maxLengths[i] - length < 16, "length " + length + " much smaller than " + maxLengths[i]);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void testByteBufferCryptoRoundtrip(boolean direct) {
+        final byte[] bytes = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer message = allocate(bytes.length, direct).put(bytes).flip();
+        final ByteBuffer ciphertext = allocate(service.getMaxCiphertextLength(bytes.length), direct);
+        final int ciphertextLength = service.encrypt(message, ciphertext);
+        assertEquals(ciphertextLength, ciphertext.position());
+        assertFalse(message.hasRemaining());
+        ciphertext.flip();
+        final ByteBuffer decrypted = allocate(ciphertext.remaining(), direct);
+        final int messageLength = service.decrypt(ciphertext, decrypted);
+        assertEquals(bytes.length, messageLength);
+        final byte[] result = new byte[messageLength];
+        decrypted.flip().get(result);
+        assertArrayEquals(bytes, result);
+    }
+
+    @Test
+    void testByteBufferTooSmall() {
+        final ByteBuffer message = ByteBuffer.wrap(MESSAGE.getBytes(StandardCharsets.UTF_8));
+        final ByteBuffer ciphertext = ByteBuffer.allocate(message.remaining());
+        assertThrows(IllegalArgumentException.class, () -> service.encrypt(message, ciphertext));
+    }
+
+    @Test
+    void testTruncatedCiphertext() {
+        final byte[] ciphertext = service.encrypt(MESSAGE.getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> service.decrypt(Arrays.copyOf(ciphertext, 6)));
+    }
+
+    private static ByteBuffer allocate(int capacity, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private JcaPbeCryptoService createStreamingService(int segmentSize) throws NoSuchAlgorithmException {
+        Assumptions.assumeFalse(!secretKeyFactoryAlgorithm.isEmpty() && secretKeyFactoryAlgorithm.equals(cipherAlgorithm),
+                "Streaming is not supported for PBE ciphers");
+        return createService("streamSegmentSize", segmentSize);
+    }
+
+    private JcaPbeCryptoService createService(String name, Object value) throws NoSuchAlgorithmException {
+        // the converted configuration is backed by the map, so always use a copy
+        final Map<String, Object> properties = new HashMap<>(this.properties);
+        properties.put(name, value);
+        return new JcaPbeCryptoService(Converters.standardConverter().convert(properties).to(JcaPbeCryptoServiceConfiguration.class), salt,
+                passwordProvider);
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 0, 1, 15, 16, 17, 64, 100 })
+    void testStreamCryptoRoundtrip(int length) throws Exception {
+        final JcaPbeCryptoService service = createStreamingService(16);
+        final byte[] bytes = randomBytes(length);
+        final ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+        final long ciphertextLength = service.encrypt(new ByteArrayInputStream(bytes), ciphertext);
+        assertEquals(ciphertext.size(), ciphertextLength);
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        assertEquals(length, service.decrypt(new ByteArrayInputStream(ciphertext.toByteArray()), message));
+        assertArrayEquals(bytes, message.toByteArray());
+    }
+
+    @Test
+    void testChannelCryptoRoundtrip() throws Exception {
+        final JcaPbeCryptoService service = createStreamingService(1024);
+        final byte[] bytes = randomBytes(10_000);
+        final ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+        service.encrypt(Channels.newChannel(new ByteArrayInputStream(bytes)), Channels.newChannel(ciphertext));
+        // decryption uses the segment size from the header
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        createStreamingService(16).decrypt(Channels.newChannel(new ByteArrayInputStream(ciphertext.toByteArray())),
+                Channels.newChannel(message));
+        assertArrayEquals(bytes, message.toByteArray());
+    }
+
+    @Test
+    void testStreamTruncatedAtSegmentBoundary() throws Exception {
+        final JcaPbeCryptoService service = createStreamingService(16);
+        final ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+        service.encrypt(new ByteArrayInputStream(randomBytes(64)), ciphertext);
+        // drop the last segment (plaintext 16 bytes + 16 bytes tag)
+        final byte[] truncated = Arrays.copyOf(ciphertext.toByteArray(), ciphertext.size() - 32);
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        assertThrows(IllegalArgumentException.class, () -> service.decrypt(new ByteArrayInputStream(truncated), message));
+        // only authenticated segments have been written
+        assertEquals(32, message.size());
+    }
+
+    @Test
+    void testStreamForgedSegmentSize() throws Exception {
+        final JcaPbeCryptoService service = createStreamingService(16);
+        final ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+        service.encrypt(new ByteArrayInputStream(randomBytes(64)), ciphertext);
+        final byte[] forged = ciphertext.toByteArray();
+        // buffers only grow with the data actually read, the segment fails authentication
+        ByteBuffer.wrap(forged, 1, Integer.BYTES).putInt(SegmentedStreamCipher.MAX_SEGMENT_SIZE);
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        assertThrows(IllegalArgumentException.class, () -> service.decrypt(new ByteArrayInputStream(forged), message));
+        assertEquals(0, message.size());
+    }
+
+    @Test
+    void testStreamTampered() throws Exception {
+        final JcaPbeCryptoService service = createStreamingService(16);
+        final ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+        service.encrypt(new ByteArrayInputStream(randomBytes(40)), ciphertext);
+        final byte[] tampered = ciphertext.toByteArray();
+        tampered[tampered.length - 20] ^= 1;
+        assertThrows(IllegalArgumentException.class,
+                () -> service.decrypt(new ByteArrayInputStream(tampered), new ByteArrayOutputStream()));
+        // header is authenticated as well
+        final byte[] tamperedHeader = ciphertext.toByteArray();
+        tamperedHeader[tamperedHeader.length - 90] ^= 1;
+        assertThrows(IllegalArgumentException.class,
+                () -> service.decrypt(new ByteArrayInputStream(tamperedHeader), new ByteArrayOutputStream()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 0, 2 })
+    void testBatchCryptoRoundtrip(int batchParallelismThreshold) throws Exception {
+        final JcaPbeCryptoService service = createService("batchParallelismThreshold", batchParallelismThreshold);
+        final List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(MESSAGE + i);
+        }
+        final List<CryptoResult> ciphertexts = service.encryptAll(messages);
+        assertEquals(messages.size(), ciphertexts.size());
+        final List<String> toDecrypt = new ArrayList<>();
+        for (CryptoResult ciphertext : ciphertexts) {
+            assertTrue(ciphertext.isSuccess());
+            toDecrypt.add(ciphertext.getValue());
+        }
+        // one invalid ciphertext must not affect the others
+        toDecrypt.add(5, "invalid");
+        final List<CryptoResult> decrypted = new ArrayList<>(service.decryptAll(toDecrypt));
+        assertEquals(toDecrypt.size(), decrypted.size());
+        assertFalse(decrypted.get(5).isSuccess());
+        assertThrows(IllegalArgumentException.class, () -> decrypted.get(5).getValue());
+        decrypted.remove(5);
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(messages.get(i), decrypted.get(i).getValue());
+        }
+    }
+
+    @Test
+    void testChangedPasswordWithoutVersion() throws Exception {
+        // the key of the previous password is cached for the same salt
+        service.encrypt(MESSAGE);
+        final PasswordProvider changedPasswordProvider = mock(PasswordProvider.class);
+        when(passwordProvider.getPassword()).thenReturn("changed".toCharArray());
+        when(changedPasswordProvider.getPassword()).thenReturn("changed".toCharArray());
+        final String ciphertext = service.encrypt(MESSAGE);
+        final JcaPbeCryptoService changedService = new JcaPbeCryptoService(configuration, salt, changedPasswordProvider);
+        assertEquals(MESSAGE, changedService.decrypt(ciphertext));
+    }
+
+    @Test
+    void testBatchDecryptionDerivesEachKeyOnce() throws Exception {
+        // disable the cache to count the derivations
+        final JcaPbeCryptoService service = createService("keyCacheSize", 0);
+        final JcaPbeCryptoService otherSaltService = new JcaPbeCryptoService(configuration, randomBytes(16), passwordProvider);
+        final Map<String, String> ciphertexts = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            ciphertexts.put("a" + i, service.encrypt(MESSAGE + i));
+            ciphertexts.put("b" + i, otherSaltService.encrypt(MESSAGE + i));
+        }
+        final long misses = service.getKeyCache().getMissCount();
+        final Map<String, CryptoResult> messages = service.decryptAll(ciphertexts);
+        assertEquals(new ArrayList<>(ciphertexts.keySet()), new ArrayList<>(messages.keySet()));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(MESSAGE + i, messages.get("a" + i).getValue());
+            assertEquals(MESSAGE + i, messages.get("b" + i).getValue());
+        }
+        if (secretKeyFactoryAlgorithm.isEmpty() || !secretKeyFactoryAlgorithm.equals(cipherAlgorithm)) {
+            assertEquals(2, service.getKeyCache().getMissCount() - misses);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { AsyncCryptoExecutor.TYPE_PLATFORM, AsyncCryptoExecutor.TYPE_VIRTUAL, AsyncCryptoExecutor.TYPE_CALLER })
+    void testAsyncCryptoRoundtrip(String asyncExecutorType) throws Exception {
+        final JcaPbeCryptoService service = createService("asyncExecutorType", asyncExecutorType);
+        final CompletableFuture<String> message = service.encryptAsync(MESSAGE).thenCompose(service::decryptAsync);
+        assertEquals(MESSAGE, message.get());
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> service.decryptAsync("invalid").get());
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+    }
+
+    @Test
+    void testAsyncRejectsWhenTooManyPending() throws Exception {
+        final JcaPbeCryptoService service = createService("asyncMaxPending", 2);
+        final List<Runnable> queue = new ArrayList<>();
+        final List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(service.encryptAsync(MESSAGE + i, queue::add));
+        }
+        assertEquals(2, queue.size());
+        assertEquals(2, service.getAsyncExecutor().getPendingCount());
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> futures.get(2).get());
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        queue.forEach(Runnable::run);
+        assertEquals(0, service.getAsyncExecutor().getPendingCount());
+        assertEquals(MESSAGE + 1, service.decryptAsync(futures.get(1).get()).get());
+    }
+
+    @Test
+    void testEnvelopeVersions() throws Exception {
+        // version 1 is the default, version 2 is opt-in
+        final JcaPbeCryptoService serviceV1 = service;
+        final JcaPbeCryptoService serviceV2 = createService("envelopeVersion", 2);
+        final byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+        final byte[] ciphertextV1 = serviceV1.encrypt(message);
+        final byte[] ciphertextV2 = serviceV2.encrypt(message);
+        assertEquals(0, ciphertextV1[0]);
+        // both versions can be decrypted by both services
+        assertArrayEquals(message, serviceV2.decrypt(ciphertextV1));
+        assertArrayEquals(message, serviceV1.decrypt(ciphertextV2));
+        if (paramsIncludeSalt) {
+            // PBE parameters are not covered by version 2
+            assertEquals(0, ciphertextV2[0]);
+        } else {
+            assertEquals(CompactEnvelope.VERSION, ciphertextV2[0]);
+            assertTrue(ciphertextV2.length < ciphertextV1.length,
+                    "v2 length " + ciphertextV2.length + " not smaller than v1 length " + ciphertextV1.length);
+        }
+    }
+
+    @Test
+    void testCompiledProfile() throws Exception {
+        final Map<String, Object> properties = new HashMap<>(this.properties);
+        properties.put("envelopeVersion", 2);
+        final CryptoProfile profile = CryptoProfile.compile(Converters.standardConverter().convert(properties).to(JcaPbeCryptoServiceConfiguration.class), salt);
+        assertEquals(paramsIncludeSalt, profile.isPbeCipher());
+        assertEquals(JcaPbeCryptoService.extractAlgorithmName(configuration.cipherAlgorithm()), profile.getKeyAlgorithm());
+        assertEquals(configuration.securityProviderName(), profile.newCipher().getProvider().getName());
+        assertEquals(configuration.securityProviderName(), profile.newSecretKeyFactory().getProvider().getName());
+        // version 2 header prefix is precomputed for all but PBE ciphers (all others use a 12 byte nonce)
+        assertEquals(!paramsIncludeSalt, profile.createCompactHeader(new byte[12]) != null);
+    }
+
+    @Test
+    void testBoundSecurityProvider() throws Exception {
+        // bound via security provider target, takes precedence over the provider name
+        final Provider securityProvider = Security.getProvider(configuration.securityProviderName());
+        final Map<String, Object> properties = new HashMap<>(this.properties);
+        properties.put("securityProviderName", "");
+        final JcaPbeCryptoServiceConfiguration configuration = Converters.standardConverter().convert(properties).to(JcaPbeCryptoServiceConfiguration.class);
+        final CryptoProfile profile = CryptoProfile.compile(configuration, salt, securityProvider);
+        assertSame(securityProvider, profile.getSecurityProvider());
+        assertSame(securityProvider, profile.newCipher().getProvider());
+        assertSame(securityProvider, profile.newSecretKeyFactory().getProvider());
+        final JcaPbeCryptoService service = new JcaPbeCryptoService(configuration, salt, passwordProvider, null, securityProvider);
+        assertEquals(MESSAGE, service.decrypt(this.service.encrypt(MESSAGE)));
+        assertTrue(service.getAlgorithmDescription().endsWith("provider=" + securityProvider.getName()));
+    }
+
+    @Test
+    void testCounterBasedNonces() throws Exception {
+        final Map<String, Object> properties = new HashMap<>(this.properties);
+        properties.put("nonceStrategy", JcaPbeCryptoService.NONCE_STRATEGY_COUNTER);
+        properties.put("nonceInvocationLimit", 2L);
+        properties.put("envelopeVersion", 2);
+        final JcaPbeCryptoService service = new JcaPbeCryptoService(
+                Converters.standardConverter().convert(properties).to(JcaPbeCryptoServiceConfiguration.class), salt, passwordProvider);
+        final CounterNonceGenerator nonceGenerator = service.getNonceGenerator();
+        final List<String> ciphertexts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ciphertexts.add(service.encrypt(MESSAGE + i));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(MESSAGE + i, this.service.decrypt(ciphertexts.get(i)));
+        }
+        if (!cipherAlgorithm.isEmpty()) {
+            // only supported for GCM
+            assertNull(nonceGenerator);
+            return;
+        }
+        assertEquals(2, nonceGenerator.getRekeyCount());
+        final byte[] first = Base64.getDecoder().decode(ciphertexts.get(0));
+        final byte[] second = Base64.getDecoder().decode(ciphertexts.get(1));
+        final byte[] third = Base64.getDecoder().decode(ciphertexts.get(2));
+        final int saltOffset = CompactEnvelope.FIXED_HEADER_LENGTH;
+        final int ivOffset = saltOffset + first[CompactEnvelope.SALT_LENGTH_INDEX];
+        // same key salt and fixed field, consecutive invocation counters
+        assertArrayEquals(Arrays.copyOfRange(first, saltOffset, ivOffset + 4), Arrays.copyOfRange(second, saltOffset, ivOffset + 4));
+        assertEquals(0, first[ivOffset + 11]);
+        assertEquals(1, second[ivOffset + 11]);
+        // new key salt after reaching the limit, which is not the activation salt
+        assertFalse(Arrays.equals(Arrays.copyOfRange(first, saltOffset, ivOffset), Arrays.copyOfRange(third, saltOffset, ivOffset)));
+        assertFalse(Arrays.equals(salt, Arrays.copyOfRange(first, saltOffset, ivOffset)));
+        assertEquals(0, third[ivOffset + 11]);
+    }
+
+    @Test
+    void testDerivedKeysAreCached() {
+        service.decrypt(service.encrypt(MESSAGE));
+        service.decrypt(service.encrypt(MESSAGE));
+        final DerivedKeyCache keyCache = service.getKeyCache();
+        if (secretKeyFactoryAlgorithm.isEmpty() || !secretKeyFactoryAlgorithm.equals(cipherAlgorithm)) {
+            assertEquals(1, keyCache.getMissCount());
+            assertEquals(3, keyCache.getHitCount());
+        } else {
+            // PBE ciphers derive the key themselves
+            assertEquals(0, keyCache.size());
+        }
+    }
+
+    @Test
+    void testPasswordChange() throws Exception {
+        final VersionedPasswordProvider versionedPasswordProvider = mock(VersionedPasswordProvider.class);
+        when(versionedPasswordProvider.getPassword()).thenReturn("first".toCharArray());
+        when(versionedPasswordProvider.getPasswordVersion()).thenReturn(1L);
+        final JcaPbeCryptoService service = new JcaPbeCryptoService(configuration, salt, versionedPasswordProvider);
+        final ArgumentCaptor<PasswordChangeListener> listener = ArgumentCaptor.forClass(PasswordChangeListener.class);
+        verify(versionedPasswordProvider).addPasswordChangeListener(listener.capture());
+        assertEquals(MESSAGE, service.decrypt(service.encrypt(MESSAGE)));
+        // change password
+        when(versionedPasswordProvider.getPassword()).thenReturn("second".toCharArray());
+        when(versionedPasswordProvider.getPasswordVersion()).thenReturn(2L);
+        listener.getValue().passwordChanged(versionedPasswordProvider, 2L);
+        final String ciphertext = service.encrypt(MESSAGE);
+        final JcaPbeCryptoService other = new JcaPbeCryptoService(configuration, salt, () -> "second".toCharArray());
+        assertEquals(MESSAGE, other.decrypt(ciphertext));
+        MethodUtils.invokeMethod(service, true, "deactivate");
+        verify(versionedPasswordProvider).removePasswordChangeListener(listener.getValue());
+    }
+
+    @Test
+    void testModified() throws Exception {
+        final String ciphertext = service.encrypt(MESSAGE);
+        final JcaPbeCryptoEngine previous = service.getEngine();
+        // an operation still running on the previous engine
+        assertTrue(previous.acquire());
+        final Map<String, Object> properties = new HashMap<>(this.properties);
+        properties.put("keyCacheSize", 4);
+        service.reconfigure(Converters.standardConverter().convert(properties).to(JcaPbeCryptoServiceConfiguration.class)).get();
+        final JcaPbeCryptoEngine engine = service.getEngine();
+        assertNotSame(previous, engine);
+        assertEquals(1, engine.getCipherPool().getCreatedCount());
+        assertEquals(MESSAGE, service.decrypt(ciphertext));
+        assertEquals(MESSAGE, previous.decrypt(service.encrypt(MESSAGE)));
+        assertFalse(previous.isDestroyed());
+        assertTrue(previous.getCipherPool().getIdleCount() > 0);
+        previous.release();
+        assertTrue(previous.isDestroyed());
+        assertEquals(0, previous.getKeyCache().size());
+        assertEquals(0, previous.getCipherPool().getIdleCount());
+        MethodUtils.invokeMethod(service, true, "deactivate");
+        assertTrue(engine.isDestroyed());
+        assertEquals(0, engine.getCipherPool().getIdleCount());
+        assertThrows(IllegalStateException.class, () -> service.encrypt(MESSAGE));
+        // no engines are created for configurations modified after deactivation
+        final CompletableFuture<Void> future = service.reconfigure(
+                Converters.standardConverter().convert(properties).to(JcaPbeCryptoServiceConfiguration.class));
+        final ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+    }
+
+    @Test
+    void testModifiedWithInvalidConfiguration() {
+        final JcaPbeCryptoEngine previous = service.getEngine();
+        final Map<String, Object> properties = new HashMap<>(this.properties);
+        properties.put("secretKeyFactoryAlgorithm", "Invalid");
+        final CompletableFuture<Void> future = service.reconfigure(
+                Converters.standardConverter().convert(properties).to(JcaPbeCryptoServiceConfiguration.class));
+        assertThrows(ExecutionException.class, future::get);
+        // the previous engine is kept
+        assertSame(previous, service.getEngine());
+        assertFalse(previous.isDestroyed());
+        assertEquals(MESSAGE, service.decrypt(service.encrypt(MESSAGE)));
+    }
+
+    @Test
+    void testCiphersArePooled() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(MESSAGE, service.decrypt(service.encrypt(MESSAGE)));
+        }
+        assertEquals(1, service.getCipherPool().getCreatedCount());
+        assertEquals(1, service.getCipherPool().getIdleCount());
+    }
+
+    @Test
+    void testConcurrentCryptoRoundtrips() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final String message = MESSAGE + i;
+                futures.add(executor.submit(() -> service.decrypt(service.encrypt(message))));
+            }
+            for (int i = 0; i < 16; i++) {
+                assertEquals(MESSAGE + i, futures.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(service.getCipherPool().getCreatedCount() <= 4);
+    }
+
+    @Test
+    void testIfSaltIsIncludedInParams() throws Exception {
+        final JcaPbeCryptoService service = createService("envelopeVersion", 2);
+        final AlgorithmParameters params = service.createDefaultAlgorithmParameters();
+        final AlgorithmParameterSpec spec = ParameterSpecDecoder.decode(params.getAlgorithm(), params.getEncoded());
+        final byte[] ciphertext = service.encrypt(MESSAGE.getBytes(StandardCharsets.UTF_8));
+        if (paramsIncludeSalt) {
+            // PBES1 parameters are decoded to salt and iteration count, PBES2 parameters are not decoded at all
+            assertTrue(spec == null || spec instanceof PBEParameterSpec, "unexpected " + spec);
+            // the salt is part of the parameters, which are not covered by version 2
+            assertFalse(CompactEnvelope.isCompact(ByteBuffer.wrap(ciphertext)));
+        } else {
+            assertFalse(spec instanceof PBEParameterSpec);
+            assertArrayEquals(salt, CompactEnvelope.parse(ByteBuffer.wrap(ciphertext)).getSalt());
+        }
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.DrbgParameters;
+import java.security.SecureRandom;
+import java.security.SecureRandomParameters;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class LockingSecureRandomTest {
+
+    @Test
+    void testDrbgMethodsAreDelegated() throws Exception {
+        final SecureRandom delegate = SecureRandom.getInstance("DRBG");
+        final LockingSecureRandom secureRandom = new LockingSecureRandom(delegate);
+        assertEquals(delegate.getParameters().toString(), secureRandom.getParameters().toString());
+        final byte[] bytes = new byte[32];
+        secureRandom.nextBytes(bytes, DrbgParameters.nextBytes(-1, false, new byte[] { 1, 2, 3 }));
+        assertFalse(Arrays.equals(new byte[32], bytes));
+        secureRandom.reseed();
+        secureRandom.reseed(DrbgParameters.reseed(false, new byte[] { 4, 5, 6 }));
+        secureRandom.nextBytes(bytes);
+    }
+
+    @Test
+    void testParametersAreDelegated() {
+        final SecureRandom delegate = mock(SecureRandom.class);
+        final SecureRandomParameters parameters = mock(SecureRandomParameters.class);
+        when(delegate.getParameters()).thenReturn(parameters);
+        final LockingSecureRandom secureRandom = new LockingSecureRandom(delegate);
+        assertSame(parameters, secureRandom.getParameters());
+        final byte[] bytes = new byte[8];
+        secureRandom.nextBytes(bytes, parameters);
+        verify(delegate).nextBytes(bytes, parameters);
+        secureRandom.reseed(parameters);
+        verify(delegate).reseed(parameters);
+        secureRandom.reseed();
+        verify(delegate).reseed();
+    }
+
+    @Test
+    void testUnsupportedReseed() throws Exception {
+        final LockingSecureRandom secureRandom = new LockingSecureRandom(SecureRandom.getInstance("SHA1PRNG"));
+        // not supported by the delegate, instead of silently doing nothing
+        assertThrows(UnsupportedOperationException.class, secureRandom::reseed);
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.crypto.jca.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.security.AlgorithmParameters;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+class ParameterSpecDecoderTest {
+
+    private static AlgorithmParameters parametersOf(String cipherAlgorithm, Key key) throws Exception {
+        final Cipher cipher = Cipher.getInstance(cipherAlgorithm);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new SecureRandom());
+        return cipher.getParameters();
+    }
+
+    private static AlgorithmParameterSpec decode(AlgorithmParameters params) throws Exception {
+        return ParameterSpecDecoder.decode(params.getAlgorithm(), params.getEncoded());
+    }
+
+    @Test
+    void testGcm() throws Exception {
+        final AlgorithmParameters params = parametersOf("AES/GCM/NoPadding", new SecretKeySpec(new byte[32], "AES"));
+        final GCMParameterSpec expected = params.getParameterSpec(GCMParameterSpec.class);
+        final GCMParameterSpec spec = assertInstanceOf(GCMParameterSpec.class, decode(params));
+        assertArrayEquals(expected.getIV(), spec.getIV());
+        assertEquals(expected.getTLen(), spec.getTLen());
+    }
+
+    @Test
+    void testGcmWithDefaultTagLength() {
+        final byte[] nonce = new byte[12];
+        final byte[] encoded = new byte[2 + 2 + nonce.length];
+        encoded[0] = 0x30;
+        encoded[1] = (byte) (2 + nonce.length);
+        encoded[2] = 0x04;
+        encoded[3] = (byte) nonce.length;
+        final GCMParameterSpec spec = assertInstanceOf(GCMParameterSpec.class, ParameterSpecDecoder.decode("GCM", encoded));
+        assertEquals(96, spec.getTLen());
+    }
+
+    @Test
+    void testIv() throws Exception {
+        final AlgorithmParameters params = parametersOf("AES/CBC/PKCS5Padding", new SecretKeySpec(new byte[16], "AES"));
+        final IvParameterSpec spec = assertInstanceOf(IvParameterSpec.class, decode(params));
+        assertArrayEquals(params.getParameterSpec(IvParameterSpec.class).getIV(), spec.getIV());
+    }
+
+    @Test
+    void testPbes1() throws Exception {
+        final SecretKey key = SecretKeyFactory.getInstance("PBEWithMD5AndDES").generateSecret(new PBEKeySpec("secret".toCharArray()));
+        final AlgorithmParameters params = parametersOf("PBEWithMD5AndDES", key);
+        final PBEParameterSpec expected = params.getParameterSpec(PBEParameterSpec.class);
+        final PBEParameterSpec spec = assertInstanceOf(PBEParameterSpec.class, decode(params));
+        assertArrayEquals(expected.getSalt(), spec.getSalt());
+        assertEquals(expected.getIterationCount(), spec.getIterationCount());
+    }
+
+    @Test
+    void testPbes2IsNotDecoded() throws Exception {
+        final SecretKey key = SecretKeyFactory.getInstance("PBEWithHmacSHA256AndAES_128")
+                .generateSecret(new PBEKeySpec("secret".toCharArray()));
+        assertNull(decode(parametersOf("PBEWithHmacSHA256AndAES_128", key)));
+    }
+
+    @Test
+    void testInvalidEncodings() {
+        assertNull(ParameterSpecDecoder.decode("GCM", new byte[0]));
+        assertNull(ParameterSpecDecoder.decode("GCM", new byte[] { 0x30, 0x10, 0x04 }));
+        assertNull(ParameterSpecDecoder.decode("AES", new byte[] { 0x04, 0x01, 0x00, 0x00 }));
+        assertNull(ParameterSpecDecoder.decode("RC2", new byte[] { 0x04, 0x01, 0x00 }));
+    }
+
+}